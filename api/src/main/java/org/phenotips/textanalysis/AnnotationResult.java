@@ -0,0 +1,61 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The annotations found in a text within a time budget, and whether the budget ran out before the whole text was
+ * annotated.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class AnnotationResult
+{
+    private final List<TermAnnotation> annotations;
+
+    private final boolean truncated;
+
+    /**
+     * @param annotations the annotations found
+     * @param truncated whether part of the text wasn't annotated because the time budget ran out
+     */
+    public AnnotationResult(List<TermAnnotation> annotations, boolean truncated)
+    {
+        this.annotations = annotations != null ? annotations : Collections.<TermAnnotation>emptyList();
+        this.truncated = truncated;
+    }
+
+    /**
+     * @return the annotations found; when truncated, those of the beginning of the text
+     */
+    public List<TermAnnotation> getAnnotations()
+    {
+        return this.annotations;
+    }
+
+    /**
+     * @return {@code true} if the time budget ran out before the whole text was annotated
+     */
+    public boolean isTruncated()
+    {
+        return this.truncated;
+    }
+}
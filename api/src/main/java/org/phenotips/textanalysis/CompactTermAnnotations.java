@@ -0,0 +1,246 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis;
+
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * The annotations found in a document, stored column-wise in primitive arrays: one array of start positions, one of
+ * end positions and one of indexes into a {@link TermDictionary} shared by a whole batch. This uses a fraction of the
+ * memory of a list of {@link TermAnnotation} objects, and can be sorted without boxing. {@link TermAnnotation} views
+ * are created on demand for code that needs them. Not thread safe.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class CompactTermAnnotations
+{
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private final TermDictionary dictionary;
+
+    private int[] starts;
+
+    private int[] ends;
+
+    private int[] terms;
+
+    private int size;
+
+    /**
+     * Creates an empty list of annotations.
+     *
+     * @param dictionary the dictionary where the terms are numbered, usually shared by all the documents of a batch
+     */
+    public CompactTermAnnotations(TermDictionary dictionary)
+    {
+        this(dictionary, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty list of annotations.
+     *
+     * @param dictionary the dictionary where the terms are numbered, usually shared by all the documents of a batch
+     * @param capacity how many annotations are expected
+     */
+    public CompactTermAnnotations(TermDictionary dictionary, int capacity)
+    {
+        this.dictionary = dictionary;
+        int initialCapacity = Math.max(1, capacity);
+        this.starts = new int[initialCapacity];
+        this.ends = new int[initialCapacity];
+        this.terms = new int[initialCapacity];
+    }
+
+    /**
+     * Adds an annotation.
+     *
+     * @param start position in text where the term occurs
+     * @param end position in text where the term occurrence ends
+     * @param term the term found
+     */
+    public void add(int start, int end, VocabularyTerm term)
+    {
+        if (this.size == this.starts.length) {
+            int capacity = 2 * this.size;
+            this.starts = Arrays.copyOf(this.starts, capacity);
+            this.ends = Arrays.copyOf(this.ends, capacity);
+            this.terms = Arrays.copyOf(this.terms, capacity);
+        }
+        this.starts[this.size] = start;
+        this.ends[this.size] = end;
+        this.terms[this.size] = this.dictionary.indexOf(term);
+        ++this.size;
+    }
+
+    /**
+     * @return the number of annotations
+     */
+    public int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * @param index the index of an annotation
+     * @return position in text where the term of that annotation occurs
+     */
+    public int getStart(int index)
+    {
+        checkIndex(index);
+        return this.starts[index];
+    }
+
+    /**
+     * @param index the index of an annotation
+     * @return position in text where the term occurrence of that annotation ends
+     */
+    public int getEnd(int index)
+    {
+        checkIndex(index);
+        return this.ends[index];
+    }
+
+    /**
+     * @param index the index of an annotation
+     * @return the index in the dictionary of the term of that annotation
+     */
+    public int getTermIndex(int index)
+    {
+        checkIndex(index);
+        return this.terms[index];
+    }
+
+    /**
+     * @param index the index of an annotation
+     * @return the term of that annotation
+     */
+    public VocabularyTerm getTerm(int index)
+    {
+        return this.dictionary.get(getTermIndex(index));
+    }
+
+    /**
+     * @return the dictionary where the terms are numbered
+     */
+    public TermDictionary getDictionary()
+    {
+        return this.dictionary;
+    }
+
+    /**
+     * Creates a {@link TermAnnotation} for an annotation. Changes made to it are not reflected here.
+     *
+     * @param index the index of an annotation
+     * @return a new object describing that annotation
+     */
+    public TermAnnotation get(int index)
+    {
+        return new TermAnnotation(getStart(index), getEnd(index), getTerm(index));
+    }
+
+    /**
+     * @return a read-only list view of these annotations, creating {@link TermAnnotation} objects as they're accessed
+     */
+    public List<TermAnnotation> asList()
+    {
+        return new ListView();
+    }
+
+    /**
+     * Sorts the annotations by start position, then by end position, in place. Uses heap sort, so it needs no extra
+     * memory and doesn't box positions.
+     */
+    public void sort()
+    {
+        for (int i = this.size / 2 - 1; i >= 0; --i) {
+            siftDown(i, this.size);
+        }
+        for (int last = this.size - 1; last > 0; --last) {
+            swap(0, last);
+            siftDown(0, last);
+        }
+    }
+
+    private void siftDown(int root, int limit)
+    {
+        int parent = root;
+        int child = 2 * parent + 1;
+        while (child < limit) {
+            if (child + 1 < limit && compare(child + 1, child) > 0) {
+                ++child;
+            }
+            if (compare(child, parent) <= 0) {
+                return;
+            }
+            swap(parent, child);
+            parent = child;
+            child = 2 * parent + 1;
+        }
+    }
+
+    private int compare(int a, int b)
+    {
+        int result = Integer.compare(this.starts[a], this.starts[b]);
+        return result != 0 ? result : Integer.compare(this.ends[a], this.ends[b]);
+    }
+
+    private void swap(int a, int b)
+    {
+        swap(this.starts, a, b);
+        swap(this.ends, a, b);
+        swap(this.terms, a, b);
+    }
+
+    private static void swap(int[] array, int a, int b)
+    {
+        int tmp = array[a];
+        array[a] = array[b];
+        array[b] = tmp;
+    }
+
+    private void checkIndex(int index)
+    {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + this.size);
+        }
+    }
+
+    /**
+     * Read-only list view, creating annotation objects on access.
+     */
+    private final class ListView extends AbstractList<TermAnnotation> implements RandomAccess
+    {
+        @Override
+        public TermAnnotation get(int index)
+        {
+            return CompactTermAnnotations.this.get(index);
+        }
+
+        @Override
+        public int size()
+        {
+            return CompactTermAnnotations.this.size;
+        }
+    }
+}
@@ -35,6 +35,16 @@ public class TermAnnotation implements Comparable<TermAnnotation>
 
     private String sentence;
 
+    /**
+     * The text containing the sentence, from which it is extracted when first needed; kept afterwards, since
+     * annotations are shared between threads, and a thread could otherwise see it cleared before seeing the sentence.
+     */
+    private String sentenceSource;
+
+    private int sentenceStart;
+
+    private int sentenceEnd;
+
     private long startInSentence;
 
     private long endInSentence;
@@ -82,7 +92,13 @@ public VocabularyTerm getTerm()
      */
     public String getSentence()
     {
-        return sentence;
+        // Read once: threads racing here at worst extract equal strings, which are safe to publish without locking
+        String result = this.sentence;
+        if (result == null && this.sentenceSource != null) {
+            result = this.sentenceSource.substring(this.sentenceStart, this.sentenceEnd).trim();
+            this.sentence = result;
+        }
+        return result;
     }
 
     /**
@@ -110,15 +126,35 @@ public long getEndInSentence()
     public void setSentence(String sentence, long startInSentence, long endInSentence)
     {
         this.sentence = sentence.trim();
+        this.sentenceSource = null;
         this.startInSentence = startInSentence;
         this.endInSentence = endInSentence;
     }
 
+    /**
+     * Set the sentence that this term appears in, as a range of the annotated text. The sentence itself is only
+     * extracted from the text the first time it is requested, so annotations sharing a sentence don't each hold a
+     * copy of it until then.
+     *
+     * @param text the annotated text
+     * @param start the position within the text where the sentence starts
+     * @param end the position within the text where the sentence ends
+     * @since 1.3
+     */
+    public void setSentenceBounds(String text, int start, int end)
+    {
+        this.sentence = null;
+        this.sentenceSource = text;
+        this.sentenceStart = start;
+        this.sentenceEnd = end;
+        this.startInSentence = this.mStartPos - start;
+        this.endInSentence = this.mEndPos - start;
+    }
+
     @Override
     public int compareTo(TermAnnotation other)
     {
-        /* TODO: Casting. Hopefully they're not that far off that we overflow... */
-        return (int) (this.getStartPos() - other.getStartPos());
+        return Long.compare(this.getStartPos(), other.getStartPos());
     }
 
     @Override
@@ -19,10 +19,22 @@
 
 import org.xwiki.component.annotation.Role;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
- * Implementations of this class work with free form text and identify phenotype descriptions with it.
+ * Implementations of this class work with free form text and identify phenotype descriptions with it. Only
+ * {@link #annotate(String)} has to be implemented; the other methods default to simple implementations built on it,
+ * which {@code AbstractTermAnnotationService} replaces with faster ones.
  *
  * @version $Id$
  * @since 1.0M1
@@ -39,6 +51,153 @@
      */
     List<TermAnnotation> annotate(String text) throws AnnotationException;
 
+    /**
+     * Scan text for phenotype descriptions, giving up when a time budget runs out. Text is annotated sentence by
+     * sentence, so when the budget runs out the annotations of the sentences already processed are still returned.
+     * The result is also marked as truncated when the engine could only annotate part of the text for other reasons,
+     * for example because some of the engines it combines didn't answer in time; callers keeping annotations around
+     * should use this method and discard truncated results.
+     *
+     * @param text the text to be annotated
+     * @param timeout the time budget; 0 or less means no budget
+     * @param unit the unit of the time budget
+     * @return the annotations found within the budget, and whether the text was only partially annotated
+     * @throws AnnotationException if the annotation process failed
+     * @since 1.3
+     */
+    default AnnotationResult annotate(String text, long timeout, TimeUnit unit) throws AnnotationException
+    {
+        // Without support from the engine, the whole text is annotated regardless of the budget
+        return new AnnotationResult(annotate(text), false);
+    }
+
+    /**
+     * Scan several texts for phenotype descriptions. Documents are spread over a pool of workers, and each distinct
+     * term is only looked up once for the whole batch.
+     *
+     * @param texts the texts to annotate
+     * @return one list of annotations for each text, in the same order as the input
+     * @throws AnnotationException when annotation failed for one of the texts
+     * @since 1.3
+     */
+    default List<List<TermAnnotation>> annotateBatch(List<String> texts) throws AnnotationException
+    {
+        List<List<TermAnnotation>> result = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            result.add(annotate(text));
+        }
+        return result;
+    }
+
+    /**
+     * Scan several texts for phenotype descriptions, like {@link #annotateBatch(List)}, but return the annotations
+     * in a compact form better suited to very large batches.
+     *
+     * @param texts the texts to annotate
+     * @return one set of annotations for each text, in the same order as the input, sorted by position, and all
+     *         sharing the same term dictionary
+     * @throws AnnotationException when annotation failed for one of the texts
+     * @since 1.3
+     */
+    default List<CompactTermAnnotations> annotateBatchCompact(List<String> texts) throws AnnotationException
+    {
+        TermDictionary dictionary = new TermDictionary();
+        List<CompactTermAnnotations> result = new ArrayList<>(texts.size());
+        for (List<TermAnnotation> annotations : annotateBatch(texts)) {
+            CompactTermAnnotations compact = new CompactTermAnnotations(dictionary, annotations.size());
+            for (TermAnnotation annotation : annotations) {
+                compact.add((int) annotation.getStartPos(), (int) annotation.getEndPos(), annotation.getTerm());
+            }
+            compact.sort();
+            result.add(compact);
+        }
+        return result;
+    }
+
+    /**
+     * Scan text for phenotype descriptions without blocking the calling thread. The work is queued on a dedicated,
+     * bounded pool of workers; when the queue is full the returned future fails right away. Cancelling the future
+     * interrupts the annotation if it has already started, or prevents it from starting otherwise.
+     *
+     * @param text Any kind of free form text.
+     * @return a future completed with the list of annotations, or failed with an {@link AnnotationException}
+     * @since 1.3
+     */
+    default CompletableFuture<List<TermAnnotation>> annotateAsync(String text)
+    {
+        // Without a pool of workers, annotate in the calling thread
+        CompletableFuture<List<TermAnnotation>> result = new CompletableFuture<>();
+        try {
+            result.complete(annotate(text));
+        } catch (AnnotationException | RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Scan text for phenotype descriptions without blocking the calling thread, like {@link #annotateAsync(String)},
+     * and within a time budget, like {@link #annotate(String, long, TimeUnit)}.
+     *
+     * @param text the text to be annotated
+     * @param timeout the time budget; 0 or less means no budget
+     * @param unit the unit of the time budget
+     * @return a future completed with the annotations found and whether the text was only partially annotated, or
+     *         failed with an {@link AnnotationException}
+     * @since 1.3
+     */
+    default CompletableFuture<AnnotationResult> annotateAsync(String text, long timeout, TimeUnit unit)
+    {
+        // Without a pool of workers, annotate in the calling thread
+        CompletableFuture<AnnotationResult> result = new CompletableFuture<>();
+        try {
+            result.complete(annotate(text, timeout, unit));
+        } catch (AnnotationException | RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Scan a possibly very large text for phenotype descriptions, holding only a bounded part of it in memory. The
+     * text is processed in chunks ending on sentence boundaries, and the annotations found in each chunk are handed
+     * to the consumer as soon as they are available, in order, with their sentence already attached and their
+     * positions relative to the start of the whole text.
+     *
+     * @param text where to read the text from; it is not closed by this method
+     * @param consumer receives each annotation found
+     * @throws AnnotationException when reading the text or annotating it failed
+     * @since 1.3
+     */
+    default void annotateStream(Reader text, Consumer<TermAnnotation> consumer) throws AnnotationException
+    {
+        // Without support from the engine, the whole text is read and annotated at once
+        StringBuilder content = new StringBuilder();
+        Reader buffered = new BufferedReader(text);
+        try {
+            for (int c = buffered.read(); c >= 0; c = buffered.read()) {
+                content.append((char) c);
+            }
+        } catch (IOException e) {
+            throw new AnnotationException("Failed to read the text to annotate", e);
+        }
+        String whole = content.toString();
+        List<TermAnnotation> annotations = new ArrayList<>(annotate(whole));
+        Collections.sort(annotations);
+        BreakIterator sentences = BreakIterator.getSentenceInstance(Locale.US);
+        sentences.setText(whole);
+        for (TermAnnotation annotation : annotations) {
+            int start = (int) annotation.getStartPos();
+            if (start >= 0 && start < whole.length()) {
+                // Annotations spanning several sentences get all of them
+                int end = (int) Math.min(Math.max(annotation.getEndPos(), start + 1L), whole.length());
+                annotation.setSentenceBounds(whole, sentences.isBoundary(start) ? start : sentences.preceding(start),
+                    sentences.isBoundary(end) ? end : sentences.following(end));
+            }
+            consumer.accept(annotation);
+        }
+    }
+
     /**
      * Exception thrown when the annotation process failed.
      *
@@ -0,0 +1,73 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis;
+
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Numbers the distinct vocabulary terms found in a batch of documents, so that {@link CompactTermAnnotations} can
+ * refer to terms by a primitive index instead of holding a reference per annotation. Not thread safe.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+public class TermDictionary
+{
+    private final List<VocabularyTerm> terms = new ArrayList<>();
+
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    /**
+     * Returns the index of a term, adding it to the dictionary if needed.
+     *
+     * @param term the term to look up
+     * @return the index of the term
+     */
+    public int indexOf(VocabularyTerm term)
+    {
+        Integer index = this.indexes.get(term.getId());
+        if (index == null) {
+            index = this.terms.size();
+            this.terms.add(term);
+            this.indexes.put(term.getId(), index);
+        }
+        return index;
+    }
+
+    /**
+     * @param index the index of a term, as returned by {@link #indexOf(VocabularyTerm)}
+     * @return the term with that index
+     */
+    public VocabularyTerm get(int index)
+    {
+        return this.terms.get(index);
+    }
+
+    /**
+     * @return the number of distinct terms in the dictionary
+     */
+    public int size()
+    {
+        return this.terms.size();
+    }
+}
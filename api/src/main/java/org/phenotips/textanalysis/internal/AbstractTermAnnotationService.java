@@ -0,0 +1,825 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.AnnotationResult;
+import org.phenotips.textanalysis.CompactTermAnnotations;
+import org.phenotips.textanalysis.TermAnnotation;
+import org.phenotips.textanalysis.TermAnnotationService;
+import org.phenotips.textanalysis.TermDictionary;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.phase.Disposable;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Base class for {@link TermAnnotationService} implementations. Subclasses only have to run their engine on a piece
+ * of text and report the raw hits it found; resolving term identifiers against the vocabularies and spreading
+ * batches over a pool of workers is taken care of here.
+ *
+ * @version $Id$
+ */
+public abstract class AbstractTermAnnotationService implements TermAnnotationService, Disposable
+{
+    /** The vocabularies used to look up the terms reported by the engine. */
+    @Inject
+    private VocabularyManager vocabularies;
+
+    @Inject
+    private TermAnnotationConfiguration configuration;
+
+    @Inject
+    private SentenceAnnotationCache sentenceCache;
+
+    @Inject
+    private TermResolutionCache termCache;
+
+    @Inject
+    private AnnotationMetrics metrics;
+
+    /** The name of this engine, used to tell apart the hits it cached from those of other engines. */
+    private final String engineName;
+
+    /** Separates the vocabulary prefix from the rest of a term identifier. */
+    private static final String ID_SEPARATOR = ":";
+
+    /** Metric suffix for running the engine. */
+    private static final String EXTRACT_STAGE = ".extract";
+
+    /** Metric suffix for looking up the terms found by the engine. */
+    private static final String RESOLVE_STAGE = ".resolve";
+
+    /** Metric suffix for engine calls refused because the engine was overloaded. */
+    private static final String REJECTED_STAGE = ".rejected";
+
+    /** Metric suffix for requests whose time budget ran out. */
+    private static final String TIMEOUT_STAGE = ".timeout";
+
+    /** Metric suffix for the length of the texts annotated. */
+    private static final String INPUT_SIZE = ".input";
+
+    /** Metric suffix for the number of hits found in a text. */
+    private static final String HIT_COUNT = ".hits";
+
+    /** Message of the requests refused because the queue of asynchronous requests is full. */
+    private static final String TOO_MANY_REQUESTS = "Too many pending annotation requests, try again later";
+
+    /** Smallest chunk used when streaming, so that a misconfiguration doesn't split text into single words. */
+    private static final int MIN_CHUNK_SIZE = 1024;
+
+    /** Workers used for batch annotation, created the first time a batch is submitted. */
+    private ExecutorService batchExecutor;
+
+    /** Bounded workers serving asynchronous requests, created the first time one is submitted. */
+    private ThreadPoolExecutor asyncExecutor;
+
+    /** Limits concurrent calls into the engine, created the first time it is called. */
+    private EngineBulkhead bulkhead;
+
+    /**
+     * Default constructor, naming the engine after the component hint of the implementation.
+     */
+    protected AbstractTermAnnotationService()
+    {
+        Named hint = getClass().getAnnotation(Named.class);
+        this.engineName = hint != null ? hint.value() : getClass().getName();
+    }
+
+    @Override
+    public List<TermAnnotation> annotate(String text) throws AnnotationException
+    {
+        return annotateDocument(text, new HashMap<String, VocabularyTerm>());
+    }
+
+    @Override
+    public AnnotationResult annotate(final String text, long timeout, TimeUnit unit) throws AnnotationException
+    {
+        if (timeout <= 0) {
+            return new AnnotationResult(annotate(text), false);
+        }
+        AnnotationEvent event = beginEvent();
+        long start = System.nanoTime();
+        final long deadline = start + unit.toNanos(timeout);
+        // Filled one sentence at a time by the worker, read by this thread when the budget runs out
+        final List<RawAnnotation> hits = Collections.synchronizedList(new ArrayList<RawAnnotation>());
+        FutureTask<Boolean> task = new FutureTask<>(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call() throws AnnotationException
+            {
+                return extractUntil(text, deadline, hits);
+            }
+        });
+        try {
+            getAsyncExecutor().execute(task);
+        } catch (RejectedExecutionException e) {
+            throw new EngineOverloadedException(TOO_MANY_REQUESTS);
+        }
+
+        boolean truncated;
+        try {
+            truncated = task.get(timeout, unit);
+        } catch (TimeoutException e) {
+            // The engine may not notice the interruption, but no more sentences will be submitted to it
+            task.cancel(true);
+            truncated = true;
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new AnnotationException("Interrupted while annotating", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw new AnnotationException(cause.getMessage(), cause instanceof Exception ? (Exception) cause : e);
+        }
+        List<RawAnnotation> found;
+        synchronized (hits) {
+            found = new ArrayList<>(hits);
+        }
+        return finishBudgeted(text, found, truncated, event, start);
+    }
+
+    @Override
+    public List<List<TermAnnotation>> annotateBatch(List<String> texts) throws AnnotationException
+    {
+        List<List<RawAnnotation>> hits = extractAll(texts);
+        // Shared by all the documents of the batch, so that each distinct term is only looked up once
+        Map<String, VocabularyTerm> resolved = new HashMap<>();
+        List<RawAnnotation> allHits = new ArrayList<>();
+        for (List<RawAnnotation> documentHits : hits) {
+            allHits.addAll(documentHits);
+        }
+        prefetch(allHits, resolved);
+        List<List<TermAnnotation>> result = new ArrayList<>(hits.size());
+        for (List<RawAnnotation> documentHits : hits) {
+            result.add(resolve(documentHits, resolved));
+        }
+        return result;
+    }
+
+    @Override
+    public List<CompactTermAnnotations> annotateBatchCompact(List<String> texts) throws AnnotationException
+    {
+        List<List<RawAnnotation>> hits = extractAll(texts);
+        Map<String, VocabularyTerm> resolved = new HashMap<>();
+        List<RawAnnotation> allHits = new ArrayList<>();
+        for (List<RawAnnotation> documentHits : hits) {
+            allHits.addAll(documentHits);
+        }
+        prefetch(allHits, resolved);
+        TermDictionary dictionary = new TermDictionary();
+        List<CompactTermAnnotations> result = new ArrayList<>(hits.size());
+        for (List<RawAnnotation> documentHits : hits) {
+            CompactTermAnnotations annotations = new CompactTermAnnotations(dictionary, documentHits.size());
+            for (RawAnnotation hit : documentHits) {
+                VocabularyTerm term = resolved.get(hit.getTermId());
+                if (term != null) {
+                    annotations.add(hit.getStart(), hit.getEnd(), term);
+                }
+            }
+            annotations.sort();
+            result.add(annotations);
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<List<TermAnnotation>> annotateAsync(final String text)
+    {
+        return submit(new Callable<List<TermAnnotation>>()
+        {
+            @Override
+            public List<TermAnnotation> call() throws AnnotationException
+            {
+                return annotate(text);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<AnnotationResult> annotateAsync(final String text, final long timeout,
+        final TimeUnit unit)
+    {
+        return submit(new Callable<AnnotationResult>()
+        {
+            @Override
+            public AnnotationResult call() throws AnnotationException
+            {
+                return timeout > 0 ? annotateUntil(text, System.nanoTime() + unit.toNanos(timeout))
+                    : annotate(text, timeout, unit);
+            }
+        });
+    }
+
+    @Override
+    public void annotateStream(Reader text, Consumer<TermAnnotation> consumer) throws AnnotationException
+    {
+        SentenceChunker chunker =
+            new SentenceChunker(text, Math.max(MIN_CHUNK_SIZE, this.configuration.getStreamChunkSize()));
+        TermAnnotationSentenceDetector detector = new TermAnnotationSentenceDetector();
+        // Kept for the whole stream, since long documents tend to mention the same terms over and over
+        Map<String, VocabularyTerm> resolved = new HashMap<>();
+        try {
+            for (String chunk = chunker.next(); chunk != null; chunk = chunker.next()) {
+                List<TermAnnotation> annotations = annotateDocument(chunk, resolved);
+                detector.detectSentences(annotations, chunk);
+                long offset = chunker.getChunkOffset();
+                for (TermAnnotation annotation : annotations) {
+                    TermAnnotation shifted = new TermAnnotation(annotation.getStartPos() + offset,
+                        annotation.getEndPos() + offset, annotation.getTerm());
+                    if (annotation.getSentence() != null) {
+                        shifted.setSentence(annotation.getSentence(), annotation.getStartInSentence(),
+                            annotation.getEndInSentence());
+                    }
+                    consumer.accept(shifted);
+                }
+            }
+        } catch (IOException e) {
+            throw new AnnotationException("Failed to read the text to annotate", e);
+        }
+    }
+
+    @Override
+    public synchronized void dispose()
+    {
+        if (this.batchExecutor != null) {
+            this.batchExecutor.shutdownNow();
+            this.batchExecutor = null;
+        }
+        if (this.asyncExecutor != null) {
+            this.asyncExecutor.shutdownNow();
+            this.asyncExecutor = null;
+        }
+    }
+
+    /**
+     * Runs the annotation engine on the given text.
+     *
+     * @param text the text to annotate
+     * @return the hits found by the engine, in no particular order
+     * @throws AnnotationException if the engine failed
+     */
+    protected abstract List<RawAnnotation> extract(String text) throws AnnotationException;
+
+    /**
+     * Tells whether the hits of each sentence may be cached. Engines whose results depend on more than the text, for
+     * example on how long they were allowed to run, should not cache them.
+     *
+     * @return {@code true} by default
+     */
+    protected boolean isSentenceCacheSupported()
+    {
+        return true;
+    }
+
+    /**
+     * Runs a task on the bounded pool of workers serving asynchronous requests. Cancelling the returned future
+     * interrupts the task if it has already started, or prevents it from starting otherwise.
+     *
+     * @param <T> the type of the task result
+     * @param task the task to run
+     * @return a future completed with the result of the task, or failed with its exception, or with an
+     *         {@link EngineOverloadedException} if too many tasks are already waiting
+     */
+    protected <T> CompletableFuture<T> submit(final Callable<T> task)
+    {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final FutureTask<Void> worker = new FutureTask<>(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    result.complete(task.call());
+                } catch (Exception e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        }, null);
+        // Cancelling the returned future doesn't reach the worker by itself, so forward it to the queued task
+        result.whenComplete(new BiConsumer<T, Throwable>()
+        {
+            @Override
+            public void accept(T value, Throwable error)
+            {
+                if (result.isCancelled()) {
+                    worker.cancel(true);
+                }
+            }
+        });
+        try {
+            getAsyncExecutor().execute(worker);
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(new EngineOverloadedException(TOO_MANY_REQUESTS));
+        }
+        return result;
+    }
+
+    /**
+     * @return the configuration of the annotation services
+     */
+    protected TermAnnotationConfiguration getConfiguration()
+    {
+        return this.configuration;
+    }
+
+    /**
+     * @return the name of this engine, which is also its component hint
+     */
+    protected String getEngineName()
+    {
+        return this.engineName;
+    }
+
+    /**
+     * Resolves raw hits against the vocabularies, dropping the ones whose term cannot be found. Each distinct term
+     * is looked up once, first in the shared term cache and then, for all the missing terms at once, in the
+     * vocabulary.
+     *
+     * @param hits the raw hits reported by the engine
+     * @param resolved terms already looked up, reused and completed by this call
+     * @return the resolved annotations
+     */
+    protected List<TermAnnotation> resolve(List<RawAnnotation> hits, Map<String, VocabularyTerm> resolved)
+    {
+        prefetch(hits, resolved);
+        List<TermAnnotation> annotations = new ArrayList<>(hits.size());
+        for (RawAnnotation hit : hits) {
+            VocabularyTerm term = resolved.get(hit.getTermId());
+            if (term != null) {
+                annotations.add(new TermAnnotation(hit.getStart(), hit.getEnd(), term));
+            }
+        }
+        return annotations;
+    }
+
+    /**
+     * Looks up all the terms of the given hits that haven't been resolved yet, with one query per vocabulary.
+     *
+     * @param hits the raw hits reported by the engine
+     * @param resolved terms already looked up, completed by this call with all the terms referenced by the hits
+     */
+    protected void prefetch(Collection<RawAnnotation> hits, Map<String, VocabularyTerm> resolved)
+    {
+        long start = System.nanoTime();
+        Map<String, Set<String>> missing = new HashMap<>();
+        for (RawAnnotation hit : hits) {
+            String termId = hit.getTermId();
+            String prefix = termId.indexOf(ID_SEPARATOR) > 0 ? StringUtils.substringBefore(termId, ID_SEPARATOR) : "";
+            Set<String> missingIds = missing.get(prefix);
+            if (resolved.containsKey(termId) || (missingIds != null && missingIds.contains(termId))) {
+                continue;
+            }
+            VocabularyTerm term = this.termCache.get(termId);
+            if (term != null) {
+                resolved.put(termId, term);
+                continue;
+            }
+            if (missingIds == null) {
+                missingIds = new HashSet<>();
+                missing.put(prefix, missingIds);
+            }
+            missingIds.add(termId);
+        }
+
+        for (Map.Entry<String, Set<String>> entry : missing.entrySet()) {
+            Set<String> ids = entry.getValue();
+            Vocabulary vocabulary = entry.getKey().isEmpty() ? null : this.vocabularies.getVocabulary(entry.getKey());
+            if (vocabulary != null) {
+                for (VocabularyTerm term : vocabulary.getTerms(ids)) {
+                    if (term != null && ids.contains(term.getId())) {
+                        resolved.put(term.getId(), term);
+                        this.termCache.put(term.getId(), term);
+                    }
+                }
+            }
+            // Identifiers the bulk query didn't return as such, e.g. alternative ids, are resolved one by one
+            for (String termId : ids) {
+                if (!resolved.containsKey(termId)) {
+                    VocabularyTerm term = this.vocabularies.resolveTerm(termId);
+                    resolved.put(termId, term);
+                    if (term != null) {
+                        this.termCache.put(termId, term);
+                    }
+                }
+            }
+        }
+        this.metrics.recordTime(this.engineName + RESOLVE_STAGE, System.nanoTime() - start);
+    }
+
+    /**
+     * Annotates a single text and reports it to Flight Recorder, when available, which costs next to nothing when not
+     * recording.
+     */
+    private List<TermAnnotation> annotateDocument(String text, Map<String, VocabularyTerm> resolved)
+        throws AnnotationException
+    {
+        AnnotationEvent event = beginEvent();
+        long start = System.nanoTime();
+        List<RawAnnotation> hits = extractCached(text);
+        long extracted = System.nanoTime();
+        List<TermAnnotation> annotations = resolve(hits, resolved);
+        endEvent(event, text, hits.size(), annotations.size(), false, start, extracted);
+        return annotations;
+    }
+
+    /**
+     * Resolves the hits found within a time budget, records them, and reports them to Flight Recorder.
+     */
+    private AnnotationResult finishBudgeted(String text, List<RawAnnotation> hits, boolean truncated,
+        AnnotationEvent event, long start)
+    {
+        long extracted = System.nanoTime();
+        this.metrics.recordValue(this.engineName + INPUT_SIZE, text.length());
+        this.metrics.recordValue(this.engineName + HIT_COUNT, hits.size());
+        if (truncated) {
+            this.metrics.recordError(this.engineName + TIMEOUT_STAGE);
+        }
+        List<TermAnnotation> annotations = resolve(hits, new HashMap<String, VocabularyTerm>());
+        endEvent(event, text, hits.size(), annotations.size(), truncated, start, extracted);
+        return new AnnotationResult(annotations, truncated);
+    }
+
+    /**
+     * Starts a Flight Recorder event for annotating a text.
+     *
+     * @return the event, or {@code null} if Flight Recorder isn't available
+     */
+    private static AnnotationEvent beginEvent()
+    {
+        AnnotationEvent event = FlightRecorderSupport.isEnabled() ? new AnnotationEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        return event;
+    }
+
+    /**
+     * Ends and commits an event started by {@link #beginEvent()}, which costs next to nothing when not recording.
+     */
+    private void endEvent(AnnotationEvent event, String text, int rawHits, int resolvedHits, boolean truncated,
+        long start, long extracted)
+    {
+        if (event == null) {
+            return;
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.engine = this.engineName;
+            event.textLength = text.length();
+            event.rawHits = rawHits;
+            event.resolvedHits = resolvedHits;
+            event.truncated = truncated;
+            event.engineDuration = extracted - start;
+            event.resolutionDuration = System.nanoTime() - extracted;
+            event.commit();
+        }
+    }
+
+    /**
+     * Annotates a text sentence by sentence in the current thread, stopping after the sentence during which the
+     * deadline passed. Unlike {@link #annotate(String, long, TimeUnit)}, this doesn't hand the work over to another
+     * thread, so it may overrun the deadline by one sentence, but it can run on a worker of the pool itself.
+     */
+    private AnnotationResult annotateUntil(String text, long deadline) throws AnnotationException
+    {
+        AnnotationEvent event = beginEvent();
+        long start = System.nanoTime();
+        List<RawAnnotation> hits = new ArrayList<>();
+        boolean truncated = extractUntil(text, deadline, hits);
+        return finishBudgeted(text, hits, truncated, event, start);
+    }
+
+    /**
+     * Runs the engine on a text, or, when the sentence cache is enabled, only on the sentences of the text whose hits
+     * aren't cached yet. Either way, the positions of the hits returned are relative to the start of the text.
+     */
+    private List<RawAnnotation> extractCached(String text) throws AnnotationException
+    {
+        this.metrics.recordValue(this.engineName + INPUT_SIZE, text.length());
+        List<RawAnnotation> hits = this.configuration.isSentenceCacheEnabled() && isSentenceCacheSupported()
+            ? extractSentences(text) : timedExtract(text);
+        this.metrics.recordValue(this.engineName + HIT_COUNT, hits.size());
+        return hits;
+    }
+
+    private List<RawAnnotation> extractSentences(String text) throws AnnotationException
+    {
+        int[] boundaries = TermAnnotationSentenceDetector.getSentenceBoundaries(text);
+        List<Integer> starts = new ArrayList<>();
+        List<String> sentences = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        List<List<RawAnnotation>> found = new ArrayList<>();
+        boolean missed = false;
+        for (int i = 0; i + 1 < boundaries.length; ++i) {
+            int[] span = trim(text, boundaries[i], boundaries[i + 1]);
+            if (span[0] < span[1]) {
+                String sentence = text.substring(span[0], span[1]);
+                String key = this.sentenceCache.getKey(sentence, this.engineName);
+                List<RawAnnotation> cached = this.sentenceCache.get(key);
+                starts.add(span[0]);
+                sentences.add(sentence);
+                keys.add(key);
+                found.add(cached);
+                missed |= cached == null;
+            }
+        }
+        if (missed) {
+            // One permit covers all the sentences missing from the cache, so that a document only waits for the
+            // engine once, and can't be refused halfway through
+            EngineBulkhead engineBulkhead = acquire();
+            try {
+                for (int i = 0; i < sentences.size(); ++i) {
+                    if (found.get(i) == null) {
+                        found.set(i, Collections.unmodifiableList(measuredExtract(sentences.get(i))));
+                        this.sentenceCache.put(keys.get(i), found.get(i));
+                    }
+                }
+            } finally {
+                engineBulkhead.release();
+            }
+        }
+        List<RawAnnotation> hits = new ArrayList<>();
+        for (int i = 0; i < found.size(); ++i) {
+            hits.addAll(shift(found.get(i), starts.get(i)));
+        }
+        return hits;
+    }
+
+    /**
+     * Runs the engine on the sentences of a text one at a time, reusing their cached hits if possible, until all are
+     * done, the deadline passes, or the thread is interrupted. Like {@link #extractSentences(String)}, a single engine
+     * permit, taken with the first sentence whose hits aren't cached, covers the whole text.
+     *
+     * @param hits where the hits found are added, with positions relative to the start of the text
+     * @return whether some sentences were left out
+     */
+    private boolean extractUntil(String text, long deadline, List<RawAnnotation> hits) throws AnnotationException
+    {
+        boolean caching = this.configuration.isSentenceCacheEnabled() && isSentenceCacheSupported();
+        int[] boundaries = TermAnnotationSentenceDetector.getSentenceBoundaries(text);
+        EngineBulkhead engineBulkhead = null;
+        try {
+            for (int i = 0; i + 1 < boundaries.length; ++i) {
+                if (System.nanoTime() - deadline >= 0 || Thread.currentThread().isInterrupted()) {
+                    return true;
+                }
+                int[] span = trim(text, boundaries[i], boundaries[i + 1]);
+                if (span[0] == span[1]) {
+                    continue;
+                }
+                String sentence = text.substring(span[0], span[1]);
+                String key = caching ? this.sentenceCache.getKey(sentence, this.engineName) : null;
+                List<RawAnnotation> sentenceHits = caching ? this.sentenceCache.get(key) : null;
+                if (sentenceHits == null) {
+                    if (engineBulkhead == null) {
+                        engineBulkhead = acquire();
+                    }
+                    sentenceHits = Collections.unmodifiableList(measuredExtract(sentence));
+                    if (caching) {
+                        this.sentenceCache.put(key, sentenceHits);
+                    }
+                }
+                hits.addAll(shift(sentenceHits, span[0]));
+            }
+            return false;
+        } finally {
+            if (engineBulkhead != null) {
+                engineBulkhead.release();
+            }
+        }
+    }
+
+    /**
+     * Leaves the surrounding whitespace out of a sentence; it doesn't change the hits, so it shouldn't change the
+     * cache key either.
+     *
+     * @return the start and end of the trimmed sentence, equal if the sentence is blank
+     */
+    private static int[] trim(String text, int sentenceStart, int sentenceEnd)
+    {
+        int start = sentenceStart;
+        int end = sentenceEnd;
+        while (start < end && Character.isWhitespace(text.charAt(start))) {
+            ++start;
+        }
+        while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+            --end;
+        }
+        return new int[] { start, end };
+    }
+
+    /**
+     * Moves the hits found in a sentence to their position in the whole text.
+     */
+    private static List<RawAnnotation> shift(List<RawAnnotation> sentenceHits, int offset)
+    {
+        List<RawAnnotation> hits = new ArrayList<>(sentenceHits.size());
+        for (RawAnnotation hit : sentenceHits) {
+            hits.add(new RawAnnotation(hit.getTermId(), hit.getStart() + offset, hit.getEnd() + offset));
+        }
+        return hits;
+    }
+
+    private List<RawAnnotation> timedExtract(String text) throws AnnotationException
+    {
+        EngineBulkhead engineBulkhead = acquire();
+        try {
+            return measuredExtract(text);
+        } finally {
+            engineBulkhead.release();
+        }
+    }
+
+    /**
+     * Takes a permit to call the engine, which must be released once done.
+     */
+    private EngineBulkhead acquire() throws AnnotationException
+    {
+        EngineBulkhead engineBulkhead = getBulkhead();
+        try {
+            engineBulkhead.acquire();
+        } catch (EngineOverloadedException e) {
+            this.metrics.recordError(this.engineName + REJECTED_STAGE);
+            throw e;
+        }
+        return engineBulkhead;
+    }
+
+    /**
+     * Runs the engine and records how long it took; the caller must hold a permit.
+     */
+    private List<RawAnnotation> measuredExtract(String text) throws AnnotationException
+    {
+        long start = System.nanoTime();
+        try {
+            return extract(text);
+        } catch (AnnotationException | RuntimeException e) {
+            this.metrics.recordError(this.engineName + EXTRACT_STAGE);
+            throw e;
+        } finally {
+            this.metrics.recordTime(this.engineName + EXTRACT_STAGE, System.nanoTime() - start);
+        }
+    }
+
+    private List<List<RawAnnotation>> extractAll(List<String> texts) throws AnnotationException
+    {
+        if (texts.size() <= 1) {
+            List<List<RawAnnotation>> result = new ArrayList<>(texts.size());
+            for (String text : texts) {
+                result.add(extractCached(text));
+            }
+            return result;
+        }
+
+        List<Callable<List<RawAnnotation>>> tasks = new ArrayList<>(texts.size());
+        for (final String text : texts) {
+            tasks.add(new Callable<List<RawAnnotation>>()
+            {
+                @Override
+                public List<RawAnnotation> call() throws AnnotationException
+                {
+                    return extractCached(text);
+                }
+            });
+        }
+
+        List<List<RawAnnotation>> result = new ArrayList<>(texts.size());
+        try {
+            List<Future<List<RawAnnotation>>> futures = getBatchExecutor().invokeAll(tasks);
+            for (int i = 0; i < futures.size(); ++i) {
+                result.add(getBatchResult(futures.get(i), i));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AnnotationException("Interrupted while annotating batch", e);
+        }
+        return result;
+    }
+
+    private List<RawAnnotation> getBatchResult(Future<List<RawAnnotation>> future, int index)
+        throws AnnotationException, InterruptedException
+    {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            String message = "Failed to annotate document " + index + " of the batch: " + cause.getMessage();
+            throw new AnnotationException(message, cause instanceof Exception ? (Exception) cause : e);
+        }
+    }
+
+    private synchronized ExecutorService getBatchExecutor()
+    {
+        if (this.batchExecutor == null) {
+            int threads = this.configuration.getBatchThreads();
+            if (threads < 1) {
+                threads = Runtime.getRuntime().availableProcessors();
+            }
+            this.batchExecutor = Executors.newFixedThreadPool(threads, new WorkerThreadFactory("batch"));
+        }
+        return this.batchExecutor;
+    }
+
+    private synchronized EngineBulkhead getBulkhead()
+    {
+        if (this.bulkhead == null) {
+            int concurrency = this.configuration.getEngineConcurrency(this.engineName);
+            if (concurrency < 1) {
+                concurrency = Runtime.getRuntime().availableProcessors();
+            }
+            this.bulkhead = new EngineBulkhead(this.engineName, concurrency,
+                this.configuration.getEngineQueueSize(this.engineName),
+                this.configuration.getEngineQueueTimeout(this.engineName));
+        }
+        return this.bulkhead;
+    }
+
+    private synchronized ThreadPoolExecutor getAsyncExecutor()
+    {
+        if (this.asyncExecutor == null) {
+            int threads = this.configuration.getAsyncThreads();
+            if (threads < 1) {
+                threads = Runtime.getRuntime().availableProcessors();
+            }
+            int queueSize = Math.max(1, this.configuration.getAsyncQueueSize());
+            this.asyncExecutor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                new ArrayBlockingQueue<Runnable>(queueSize), new WorkerThreadFactory("async"));
+            this.asyncExecutor.allowCoreThreadTimeOut(true);
+        }
+        return this.asyncExecutor;
+    }
+
+    /**
+     * Creates named daemon threads, so that idle annotation workers never keep the JVM alive.
+     */
+    protected class WorkerThreadFactory implements ThreadFactory
+    {
+        private final String prefix;
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        /**
+         * @param purpose what the threads are used for, included in their name
+         */
+        public WorkerThreadFactory(String purpose)
+        {
+            this.prefix = AbstractTermAnnotationService.this.getClass().getSimpleName() + '-' + purpose + '-';
+        }
+
+        @Override
+        public Thread newThread(Runnable task)
+        {
+            Thread thread = new Thread(task, this.prefix + this.counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for annotating a text with an annotation service, lasting from the call to the engine to
+ * the resolved annotations.
+ *
+ * @version $Id$
+ */
+@Name("org.phenotips.textanalysis.Annotation")
+@Label("Text Annotation")
+@Category({ "PhenoTips", "Text Analysis" })
+@Description("Annotating a text, including looking up the terms found")
+public class AnnotationEvent extends Event
+{
+    /** The engine used. */
+    @Label("Engine")
+    public String engine;
+
+    /** The length of the annotated text. */
+    @Label("Text Length")
+    public int textLength;
+
+    /** How many hits the engine found. */
+    @Label("Raw Hits")
+    public int rawHits;
+
+    /** How many hits were resolved to a vocabulary term. */
+    @Label("Resolved Hits")
+    public int resolvedHits;
+
+    /** Whether the time budget ran out before the whole text was annotated. */
+    @Label("Truncated")
+    public boolean truncated;
+
+    /** Time spent in the engine, or looking up its cached hits. */
+    @Label("Engine Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    public long engineDuration;
+
+    /** Time spent resolving term identifiers. */
+    @Label("Resolution Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    public long resolutionDuration;
+}
@@ -0,0 +1,69 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.xwiki.component.annotation.Role;
+
+import java.util.Map;
+
+/**
+ * Collects latency, size and error metrics of the annotation pipeline, so that a slow request can be traced to the
+ * stage responsible for it. Metrics are identified by a dotted name, e.g. {@code scigraph.extract}.
+ *
+ * @version $Id$
+ */
+@Role
+public interface AnnotationMetrics
+{
+    /**
+     * Records how long a stage took.
+     *
+     * @param stage the name of the stage
+     * @param nanos the duration, in nanoseconds
+     */
+    void recordTime(String stage, long nanos);
+
+    /**
+     * Records a value of a distribution, for example the length of a text or the number of hits found in it.
+     *
+     * @param name the name of the distribution
+     * @param value the value
+     */
+    void recordValue(String name, long value);
+
+    /**
+     * Records the failure of a stage.
+     *
+     * @param stage the name of the stage
+     */
+    void recordError(String stage);
+
+    /**
+     * Returns a snapshot of all the metrics. Stage durations are listed as {@code <stage>.time}, in microseconds, and
+     * distributions under their name; each has a {@code count}, {@code mean}, {@code p50}, {@code p95}, {@code p99}
+     * and {@code max}. Error counters are listed by stage under {@code errors}.
+     *
+     * @return the metrics, by name
+     */
+    Map<String, Map<String, Long>> getMetrics();
+
+    /**
+     * Discards everything recorded so far.
+     */
+    void reset();
+}
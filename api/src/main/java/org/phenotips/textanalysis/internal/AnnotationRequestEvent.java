@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for an annotation request made through the script service, lasting for the whole request.
+ *
+ * @version $Id$
+ */
+@Name("org.phenotips.textanalysis.AnnotationRequest")
+@Label("Annotation Request")
+@Category({ "PhenoTips", "Text Analysis" })
+@Description("An annotation request from a script, including attaching sentences to the annotations")
+public class AnnotationRequestEvent extends Event
+{
+    /** The engine used. */
+    @Label("Engine")
+    public String engine;
+
+    /** The length of the annotated text. */
+    @Label("Text Length")
+    public int textLength;
+
+    /** How many annotations were returned. */
+    @Label("Annotations")
+    public int annotations;
+
+    /** Whether the result was already cached. */
+    @Label("Cached")
+    public boolean cached;
+
+    /** Whether the time budget ran out before the whole text was annotated. */
+    @Label("Truncated")
+    public boolean truncated;
+
+    /** Time spent attaching sentences to the annotations. */
+    @Label("Sentence Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    public long sentenceDuration;
+}
@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.TermAnnotation;
+
+import org.xwiki.component.annotation.Role;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of complete annotation results, keyed by the content of the annotated text, the engine that
+ * annotated it, and the version of the vocabulary used.
+ *
+ * @version $Id$
+ */
+@Role
+public interface AnnotationResultCache
+{
+    /**
+     * Computes the key under which the annotations of a text are cached.
+     *
+     * @param text the annotated text
+     * @param engine the name of the annotation engine
+     * @return a key combining a strong hash of the text, the engine and the current vocabulary version
+     */
+    String getKey(String text, String engine);
+
+    /**
+     * @param key the key returned by {@link #getKey(String, String)}
+     * @return the cached annotations, or {@code null} if there aren't any
+     */
+    List<TermAnnotation> get(String key);
+
+    /**
+     * Caches annotations, evicting the least recently used entries if the cache grows too large.
+     *
+     * @param key the key returned by {@link #getKey(String, String)}
+     * @param annotations the annotations to cache, which must not be modified afterwards
+     * @param textLength the length of the annotated text, which the annotations may reference until their sentences
+     *            are requested
+     */
+    void put(String key, List<TermAnnotation> annotations, int textLength);
+
+    /**
+     * @return counters for hits, misses and evictions, and the current size of the cache
+     */
+    Map<String, Long> getStatistics();
+
+    /**
+     * Empties the cache.
+     */
+    void clear();
+}
@@ -0,0 +1,68 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.TermAnnotation;
+
+import org.xwiki.component.annotation.Role;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent store of complete annotation results, kept on disk so that they survive restarts. Results are stored
+ * under the keys of the {@link AnnotationResultCache}, which include the vocabulary version; results of older
+ * vocabulary versions are discarded when the vocabulary is reindexed.
+ *
+ * @version $Id$
+ */
+@Role
+public interface AnnotationStore
+{
+    /**
+     * @param key the key returned by {@link AnnotationResultCache#getKey(String, String)}
+     * @return the stored annotations, without sentences, or {@code null} if there aren't any
+     */
+    List<TermAnnotation> get(String key);
+
+    /**
+     * Tells whether annotations are stored under a key, without reading them.
+     *
+     * @param key the key returned by {@link AnnotationResultCache#getKey(String, String)}
+     * @return {@code true} if annotations are stored under that key
+     */
+    boolean contains(String key);
+
+    /**
+     * Stores annotations, compacting the store if it grows too large.
+     *
+     * @param key the key returned by {@link AnnotationResultCache#getKey(String, String)}
+     * @param annotations the annotations to store
+     */
+    void put(String key, List<TermAnnotation> annotations);
+
+    /**
+     * @return counters for hits, misses, writes and compactions, and the current size of the store
+     */
+    Map<String, Long> getStatistics();
+
+    /**
+     * Empties the store.
+     */
+    void clear();
+}
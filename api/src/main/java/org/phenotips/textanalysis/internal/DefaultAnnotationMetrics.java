@@ -0,0 +1,184 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+
+/**
+ * In-memory implementation of {@link AnnotationMetrics}, also published over JMX as an
+ * {@link AnnotationMetricsMXBean}.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultAnnotationMetrics implements AnnotationMetrics, Initializable, Disposable
+{
+    /** The name under which the metrics are published over JMX. */
+    public static final String OBJECT_NAME = "org.phenotips.textanalysis:type=AnnotationMetrics";
+
+    private static final String TIME_SUFFIX = ".time";
+
+    private static final String ERRORS = "errors";
+
+    private static final long NANOS_PER_MICRO = 1000;
+
+    private static final char SEPARATOR = '.';
+
+    @Inject
+    private Logger logger;
+
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, AtomicLong> errors = new ConcurrentHashMap<>();
+
+    private ObjectName registeredName;
+
+    @Override
+    public void initialize()
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            // Left behind by a previous instance, e.g. when the extension is reinstalled
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new JmxView(), name);
+            this.registeredName = name;
+        } catch (JMException e) {
+            this.logger.warn("Failed to publish the annotation metrics over JMX: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (this.registeredName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.registeredName);
+            } catch (JMException e) {
+                // Already gone
+            }
+            this.registeredName = null;
+        }
+    }
+
+    @Override
+    public void recordTime(String stage, long nanos)
+    {
+        getHistogram(stage + TIME_SUFFIX).record(nanos);
+    }
+
+    @Override
+    public void recordValue(String name, long value)
+    {
+        getHistogram(name).record(value);
+    }
+
+    @Override
+    public void recordError(String stage)
+    {
+        AtomicLong counter = this.errors.get(stage);
+        if (counter == null) {
+            AtomicLong created = new AtomicLong();
+            counter = this.errors.putIfAbsent(stage, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    @Override
+    public Map<String, Map<String, Long>> getMetrics()
+    {
+        Map<String, Map<String, Long>> result = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : this.histograms.entrySet()) {
+            long scale = entry.getKey().endsWith(TIME_SUFFIX) ? NANOS_PER_MICRO : 1;
+            result.put(entry.getKey(), entry.getValue().getSnapshot(scale));
+        }
+        Map<String, Long> errorCounts = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : this.errors.entrySet()) {
+            errorCounts.put(entry.getKey(), entry.getValue().get());
+        }
+        result.put(ERRORS, errorCounts);
+        return result;
+    }
+
+    @Override
+    public void reset()
+    {
+        this.histograms.clear();
+        this.errors.clear();
+    }
+
+    private Histogram getHistogram(String name)
+    {
+        Histogram histogram = this.histograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = this.histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Flattens the metrics for JMX clients, which handle simple name-value pairs best.
+     */
+    private final class JmxView implements AnnotationMetricsMXBean
+    {
+        @Override
+        public Map<String, Long> getValues()
+        {
+            Map<String, Long> result = new TreeMap<>();
+            for (Map.Entry<String, Map<String, Long>> metric : getMetrics().entrySet()) {
+                for (Map.Entry<String, Long> value : metric.getValue().entrySet()) {
+                    result.put(metric.getKey() + SEPARATOR + value.getKey(), value.getValue());
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public void reset()
+        {
+            DefaultAnnotationMetrics.this.reset();
+        }
+    }
+}
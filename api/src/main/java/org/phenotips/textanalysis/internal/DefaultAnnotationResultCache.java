@@ -0,0 +1,145 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.TermAnnotation;
+
+import org.xwiki.component.annotation.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * LRU implementation of {@link AnnotationResultCache}, bounded both by the number of entries and by an estimate of
+ * the memory they use.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultAnnotationResultCache implements AnnotationResultCache
+{
+    /** Rough size of a cache entry, its key and the result list, not counting the annotations. */
+    private static final long ENTRY_OVERHEAD = 256;
+
+    /** Rough size of an annotation, not counting the text of its sentence. */
+    private static final long ANNOTATION_OVERHEAD = 64;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    @Inject
+    private VocabularyVersionProvider vocabularyVersion;
+
+    @Inject
+    private TermAnnotationConfiguration configuration;
+
+    /** Entries in access order, the least recently used first. */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+    private long weight;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    @Override
+    public String getKey(String text, String engine)
+    {
+        return TextDigest.digest(text) + '/' + engine + '/' + this.vocabularyVersion.getVersion();
+    }
+
+    @Override
+    public synchronized List<TermAnnotation> get(String key)
+    {
+        Entry entry = this.entries.get(key);
+        if (entry == null) {
+            ++this.misses;
+            return null;
+        }
+        ++this.hits;
+        return entry.annotations;
+    }
+
+    @Override
+    public synchronized void put(String key, List<TermAnnotation> annotations, int textLength)
+    {
+        int maxEntries = this.configuration.getResultCacheSize();
+        long maxWeight = this.configuration.getResultCacheMemory();
+        if (maxEntries <= 0 || maxWeight <= 0) {
+            return;
+        }
+        Entry entry = new Entry(annotations, textLength);
+        Entry previous = this.entries.put(key, entry);
+        if (previous != null) {
+            this.weight -= previous.weight;
+        }
+        this.weight += entry.weight;
+
+        Iterator<Entry> eldest = this.entries.values().iterator();
+        while (eldest.hasNext() && (this.entries.size() > maxEntries || this.weight > maxWeight)) {
+            this.weight -= eldest.next().weight;
+            eldest.remove();
+            ++this.evictions;
+        }
+    }
+
+    @Override
+    public synchronized Map<String, Long> getStatistics()
+    {
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("hits", this.hits);
+        result.put("misses", this.misses);
+        result.put("evictions", this.evictions);
+        result.put("entries", (long) this.entries.size());
+        result.put("estimatedMemory", this.weight);
+        return result;
+    }
+
+    @Override
+    public synchronized void clear()
+    {
+        this.entries.clear();
+        this.weight = 0;
+    }
+
+    /**
+     * A cached result along with the estimate of the memory it uses.
+     */
+    private static final class Entry
+    {
+        private final List<TermAnnotation> annotations;
+
+        private final long weight;
+
+        Entry(List<TermAnnotation> annotations, int textLength)
+        {
+            this.annotations = annotations;
+            // Sentences are views over the annotated text, so the text is counted once rather than per sentence
+            this.weight = ENTRY_OVERHEAD + 2L * textLength + ANNOTATION_OVERHEAD * annotations.size();
+        }
+    }
+}
@@ -0,0 +1,747 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.TermAnnotation;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.environment.Environment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+/**
+ * Append-only log implementation of {@link AnnotationStore}, kept in the permanent directory. An index of the
+ * records is rebuilt in memory when the store is first used, and the annotations themselves are read from disk on
+ * demand. When the log grows beyond its allowed size, or when the vocabulary is reindexed, it is compacted into a new
+ * file keeping only the most recently written results of the current vocabulary version. Compaction copies the records
+ * without holding the lock, so the store keeps answering meanwhile, and the new file is swapped in once complete.
+ * <p>
+ * The log starts with a format marker, followed by records made of the length of the key, the length of the payload,
+ * a CRC32 checksum of the key and payload, the UTF-8 key and the payload. A payload lists the distinct term
+ * identifiers, then each annotation as variable length integers: the distance from the previous start, the length
+ * and the index of the term. Records left incomplete by a crash are dropped when the log is loaded.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultAnnotationStore implements AnnotationStore, Disposable
+{
+    /** The directory, relative to the permanent directory, holding the store. */
+    private static final String DIRECTORY = "textanalysis";
+
+    private static final String FILE_NAME = "annotations.log";
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /** Identifies the file format: "PTA" followed by the format version. */
+    private static final int MAGIC = 0x50544101;
+
+    private static final int FILE_HEADER_SIZE = 4;
+
+    /** The key length, payload length and checksum preceding each record. */
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    /** Reported by the version provider when the vocabulary cannot tell its version. */
+    private static final String UNKNOWN_VERSION = "unknown";
+
+    private static final char KEY_SEPARATOR = '/';
+
+    private static final String ID_SEPARATOR = ":";
+
+    /** How long the store stays disabled after an I/O error, in milliseconds. */
+    private static final long RETRY_DELAY = 60000L;
+
+    private static final int VARINT_BITS = 7;
+
+    private static final int VARINT_MASK = 0x7F;
+
+    private static final int VARINT_MORE = 0x80;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private TermAnnotationConfiguration configuration;
+
+    @Inject
+    private VocabularyVersionProvider vocabularyVersion;
+
+    @Inject
+    private VocabularyManager vocabularies;
+
+    @Inject
+    private TermResolutionCache termCache;
+
+    @Inject
+    private Logger logger;
+
+    /** Where each stored result is in the log, in the order they were written. */
+    private final Map<String, Location> index = new LinkedHashMap<>();
+
+    private File file;
+
+    private FileChannel channel;
+
+    /** Set after an I/O error, so that a broken disk doesn't slow down every request until it is tried again. */
+    private long retryAfter;
+
+    /** Changes whenever the log is closed, emptied or replaced, so that a compaction started before is dropped. */
+    private long generation;
+
+    private boolean compactionNeeded;
+
+    private boolean compacting;
+
+    /** The vocabulary version of the results worth keeping. */
+    private String version;
+
+    private long size;
+
+    private long hits;
+
+    private long misses;
+
+    private long writes;
+
+    private long compactions;
+
+    @Override
+    public List<TermAnnotation> get(String key)
+    {
+        if (this.configuration.getResultStoreSize() <= 0) {
+            return null;
+        }
+        byte[] payload = null;
+        boolean compact;
+        synchronized (this) {
+            if (!open()) {
+                return null;
+            }
+            compact = checkVersion();
+            // Results of an older vocabulary are only dropped by the compaction, after the lock is released
+            Location location = isCurrent(key) ? this.index.get(key) : null;
+            if (location == null) {
+                ++this.misses;
+            } else {
+                try {
+                    payload = read(this.channel, location.getPayloadStart(), location.payloadLength).array();
+                    ++this.hits;
+                } catch (IOException e) {
+                    fail(e);
+                    return null;
+                }
+            }
+        }
+        if (compact) {
+            compact(this.configuration.getResultStoreSize());
+        }
+        if (payload == null) {
+            return null;
+        }
+        try {
+            return decode(payload);
+        } catch (IOException e) {
+            this.logger.debug("Ignoring unreadable stored annotations [{}]: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public boolean contains(String key)
+    {
+        if (this.configuration.getResultStoreSize() <= 0) {
+            return false;
+        }
+        boolean result;
+        boolean compact;
+        synchronized (this) {
+            if (!open()) {
+                return false;
+            }
+            compact = checkVersion();
+            result = isCurrent(key) && this.index.containsKey(key);
+        }
+        if (compact) {
+            compact(this.configuration.getResultStoreSize());
+        }
+        return result;
+    }
+
+    @Override
+    public void put(String key, List<TermAnnotation> annotations)
+    {
+        long maxSize = this.configuration.getResultStoreSize();
+        if (maxSize <= 0) {
+            return;
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] payload;
+        try {
+            payload = encode(annotations);
+        } catch (IOException e) {
+            // Writing to memory doesn't fail
+            return;
+        }
+        long recordSize = RECORD_HEADER_SIZE + keyBytes.length + payload.length;
+        long budget = 0;
+        synchronized (this) {
+            if (!open()) {
+                return;
+            }
+            boolean reindexed = checkVersion();
+            if (this.size + recordSize > maxSize) {
+                // Free half of the store at once, so that compactions stay rare
+                budget = maxSize / 2 - recordSize;
+            } else if (reindexed) {
+                budget = maxSize;
+            }
+        }
+        if (budget != 0) {
+            compact(budget);
+        }
+        synchronized (this) {
+            if (!open() || this.size + recordSize > maxSize) {
+                return;
+            }
+            try {
+                append(keyBytes, payload);
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized Map<String, Long> getStatistics()
+    {
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("hits", this.hits);
+        result.put("misses", this.misses);
+        result.put("writes", this.writes);
+        result.put("compactions", this.compactions);
+        result.put("entries", (long) this.index.size());
+        result.put("size", this.size);
+        return result;
+    }
+
+    @Override
+    public synchronized void clear()
+    {
+        if (this.channel != null) {
+            try {
+                reset();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void dispose()
+    {
+        close();
+    }
+
+    /**
+     * Opens the log and loads its index the first time the store is used.
+     *
+     * @return {@code false} if the store cannot be used
+     */
+    private boolean open()
+    {
+        if (this.channel != null) {
+            return true;
+        } else if (System.currentTimeMillis() < this.retryAfter) {
+            return false;
+        }
+        try {
+            File directory = new File(this.environment.getPermanentDirectory(), DIRECTORY);
+            directory.mkdirs();
+            this.file = new File(directory, FILE_NAME);
+            this.channel = openChannel(this.file);
+            this.version = this.vocabularyVersion.getVersion();
+            load();
+            long live = 0;
+            for (Map.Entry<String, Location> entry : this.index.entrySet()) {
+                if (isCurrent(entry.getKey())) {
+                    live += entry.getValue().getRecordSize();
+                }
+            }
+            // Mostly overwritten results or results of an older vocabulary
+            if (live < (this.size - FILE_HEADER_SIZE) / 2) {
+                this.compactionNeeded = true;
+            }
+            return true;
+        } catch (IOException e) {
+            fail(e);
+            return false;
+        }
+    }
+
+    private void load() throws IOException
+    {
+        this.index.clear();
+        long length = this.channel.size();
+        if (length < FILE_HEADER_SIZE || read(this.channel, 0, FILE_HEADER_SIZE).getInt() != MAGIC) {
+            reset();
+            return;
+        }
+        long position = FILE_HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= length) {
+            ByteBuffer header = read(this.channel, position, RECORD_HEADER_SIZE);
+            int keyLength = header.getInt();
+            int payloadLength = header.getInt();
+            int checksum = header.getInt();
+            if (keyLength < 0 || payloadLength < 0
+                || position + RECORD_HEADER_SIZE + keyLength + payloadLength > length) {
+                break;
+            }
+            ByteBuffer body = read(this.channel, position + RECORD_HEADER_SIZE, keyLength + payloadLength);
+            CRC32 crc = new CRC32();
+            crc.update(body.array());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            Location location = new Location(position, keyLength, payloadLength);
+            String key = new String(body.array(), 0, keyLength, StandardCharsets.UTF_8);
+            // A result written again replaces the previous one, and moves to the end of the write order
+            this.index.remove(key);
+            this.index.put(key, location);
+            position += location.getRecordSize();
+        }
+        if (position < length) {
+            this.logger.warn("Dropping [{}] bytes of incomplete annotation records from [{}]", length - position,
+                this.file);
+            this.channel.truncate(position);
+        }
+        this.size = position;
+    }
+
+    /**
+     * Checks whether the vocabulary was reindexed since the last call, in which case the results of the previous
+     * vocabulary version should be dropped.
+     *
+     * @return {@code true} if the log should be compacted, once the lock is released
+     */
+    private boolean checkVersion()
+    {
+        String current = this.vocabularyVersion.getVersion();
+        if (!current.equals(this.version)) {
+            this.version = current;
+            this.compactionNeeded |= !UNKNOWN_VERSION.equals(current);
+        }
+        return this.compactionNeeded;
+    }
+
+    /**
+     * Rewrites the log keeping only the most recent results of the current vocabulary version that fit in a budget.
+     * Must be called without holding the lock: the kept records are copied while other requests go on, and only the
+     * results written meanwhile are copied once the lock is taken again to swap in the new log.
+     *
+     * @param budget the maximum size of the new log, in bytes
+     */
+    private void compact(long budget)
+    {
+        FileChannel source;
+        long started;
+        long copied;
+        List<Map.Entry<String, Location>> kept = new ArrayList<>();
+        synchronized (this) {
+            if (this.channel == null || this.compacting) {
+                return;
+            }
+            this.compacting = true;
+            this.compactionNeeded = false;
+            source = this.channel;
+            started = this.generation;
+            copied = this.size;
+            List<Map.Entry<String, Location>> entries = new ArrayList<>(this.index.entrySet());
+            long keptSize = FILE_HEADER_SIZE;
+            for (int i = entries.size() - 1; i >= 0; --i) {
+                Map.Entry<String, Location> entry = entries.get(i);
+                if (!isCurrent(entry.getKey())) {
+                    continue;
+                }
+                if (keptSize + entry.getValue().getRecordSize() > budget) {
+                    break;
+                }
+                kept.add(entry);
+                keptSize += entry.getValue().getRecordSize();
+            }
+        }
+        Collections.reverse(kept);
+
+        File temporary = new File(this.file.getPath() + TEMPORARY_SUFFIX);
+        try {
+            try (FileChannel output = openChannel(temporary)) {
+                output.truncate(0);
+                write(output, 0, (ByteBuffer) ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).flip());
+                Map<String, Location> compacted = new LinkedHashMap<>();
+                long position = copy(source, output, kept, FILE_HEADER_SIZE, compacted);
+                output.force(true);
+                synchronized (this) {
+                    if (this.generation == started) {
+                        swap(source, output, copied, position, compacted, temporary);
+                    }
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    // Errors caused by the log being closed meanwhile aren't worth reporting
+                    if (this.generation == started) {
+                        fail(e);
+                    }
+                }
+            }
+        } finally {
+            temporary.delete();
+            synchronized (this) {
+                this.compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Completes a compaction with the results written since the kept records were selected, and replaces the log with
+     * the compacted one. Called with the lock held.
+     */
+    private void swap(FileChannel source, FileChannel output, long copied, long position,
+        Map<String, Location> compacted, File temporary) throws IOException
+    {
+        List<Map.Entry<String, Location>> written = new ArrayList<>();
+        for (Map.Entry<String, Location> entry : this.index.entrySet()) {
+            if (entry.getValue().start >= copied && isCurrent(entry.getKey())) {
+                written.add(entry);
+            }
+        }
+        long end = copy(source, output, written, position, compacted);
+        output.force(true);
+        source.close();
+        this.channel = null;
+        Files.move(temporary.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+        this.channel = openChannel(this.file);
+        this.index.clear();
+        this.index.putAll(compacted);
+        this.size = end;
+        ++this.generation;
+        ++this.compactions;
+    }
+
+    /**
+     * Copies records to another log, updating its index.
+     *
+     * @return the end of the last copied record
+     */
+    private static long copy(FileChannel source, FileChannel target, List<Map.Entry<String, Location>> entries,
+        long start, Map<String, Location> index) throws IOException
+    {
+        long position = start;
+        for (Map.Entry<String, Location> entry : entries) {
+            Location location = entry.getValue();
+            write(target, position, read(source, location.start, (int) location.getRecordSize()));
+            // A result written again moves to the end of the write order
+            index.remove(entry.getKey());
+            index.put(entry.getKey(), new Location(position, location.keyLength, location.payloadLength));
+            position += location.getRecordSize();
+        }
+        return position;
+    }
+
+    private void append(byte[] key, byte[] payload) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        crc.update(key);
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + key.length + payload.length);
+        record.putInt(key.length).putInt(payload.length).putInt((int) crc.getValue()).put(key).put(payload);
+        record.flip();
+        write(this.channel, this.size, record);
+        Location location = new Location(this.size, key.length, payload.length);
+        String keyString = new String(key, StandardCharsets.UTF_8);
+        // Keep the index in write order, which is what compaction relies on to keep the most recent results
+        this.index.remove(keyString);
+        this.index.put(keyString, location);
+        this.size += location.getRecordSize();
+        ++this.writes;
+    }
+
+    private void reset() throws IOException
+    {
+        this.channel.truncate(0);
+        write(this.channel, 0, (ByteBuffer) ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).flip());
+        this.index.clear();
+        this.size = FILE_HEADER_SIZE;
+        ++this.generation;
+    }
+
+    private boolean isCurrent(String key)
+    {
+        return UNKNOWN_VERSION.equals(this.version) || key.endsWith(KEY_SEPARATOR + this.version);
+    }
+
+    private void fail(IOException e)
+    {
+        this.logger.warn("Failed to use the annotation store [{}], trying again in a minute: {}", this.file,
+            e.getMessage());
+        this.retryAfter = System.currentTimeMillis() + RETRY_DELAY;
+        close();
+    }
+
+    private void close()
+    {
+        this.index.clear();
+        ++this.generation;
+        if (this.channel != null) {
+            try {
+                this.channel.close();
+            } catch (IOException e) {
+                this.logger.debug("Failed to close the annotation store: {}", e.getMessage());
+            }
+            this.channel = null;
+        }
+    }
+
+    private static FileChannel openChannel(File file) throws IOException
+    {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException
+    {
+        ByteBuffer result = ByteBuffer.allocate(length);
+        while (result.hasRemaining()) {
+            if (channel.read(result, position + result.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        result.flip();
+        return result;
+    }
+
+    private static void write(FileChannel channel, long position, ByteBuffer data) throws IOException
+    {
+        long offset = position;
+        while (data.hasRemaining()) {
+            offset += channel.write(data, offset);
+        }
+    }
+
+    private static byte[] encode(List<TermAnnotation> annotations) throws IOException
+    {
+        Map<String, Integer> terms = new LinkedHashMap<>();
+        List<TermAnnotation> encoded = new ArrayList<>(annotations.size());
+        for (TermAnnotation annotation : annotations) {
+            if (annotation.getTerm() == null) {
+                continue;
+            }
+            encoded.add(annotation);
+            if (!terms.containsKey(annotation.getTerm().getId())) {
+                terms.put(annotation.getTerm().getId(), terms.size());
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeVarLong(out, terms.size());
+        for (String termId : terms.keySet()) {
+            out.writeUTF(termId);
+        }
+        writeVarLong(out, encoded.size());
+        long previous = 0;
+        for (TermAnnotation annotation : encoded) {
+            // Annotations are mostly in text order, but not always, so the distance can be negative
+            writeVarLong(out, zigzag(annotation.getStartPos() - previous));
+            writeVarLong(out, zigzag(annotation.getEndPos() - annotation.getStartPos()));
+            writeVarLong(out, terms.get(annotation.getTerm().getId()));
+            previous = annotation.getStartPos();
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private List<TermAnnotation> decode(byte[] payload) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        int termCount = (int) readVarLong(in);
+        List<String> termIds = new ArrayList<>(termCount);
+        for (int i = 0; i < termCount; ++i) {
+            termIds.add(in.readUTF());
+        }
+        Map<String, VocabularyTerm> terms = resolve(termIds);
+        int count = (int) readVarLong(in);
+        List<TermAnnotation> result = new ArrayList<>(count);
+        long start = 0;
+        for (int i = 0; i < count; ++i) {
+            start += unzigzag(readVarLong(in));
+            long end = start + unzigzag(readVarLong(in));
+            int term = (int) readVarLong(in);
+            if (term < 0 || term >= termCount) {
+                throw new IOException("Invalid term index " + term);
+            }
+            // Terms removed from the vocabulary since the result was stored are dropped
+            VocabularyTerm resolved = terms.get(termIds.get(term));
+            if (resolved != null) {
+                result.add(new TermAnnotation(start, end, resolved));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Looks up the terms of a stored result which aren't cached, with one query per vocabulary.
+     */
+    private Map<String, VocabularyTerm> resolve(List<String> termIds)
+    {
+        Map<String, VocabularyTerm> result = new HashMap<>();
+        Map<String, Set<String>> missing = new HashMap<>();
+        for (String termId : termIds) {
+            VocabularyTerm term = this.termCache.get(termId);
+            if (term != null) {
+                result.put(termId, term);
+                continue;
+            }
+            String prefix = termId.indexOf(ID_SEPARATOR) > 0 ? StringUtils.substringBefore(termId, ID_SEPARATOR) : "";
+            Set<String> ids = missing.get(prefix);
+            if (ids == null) {
+                ids = new HashSet<>();
+                missing.put(prefix, ids);
+            }
+            ids.add(termId);
+        }
+
+        for (Map.Entry<String, Set<String>> entry : missing.entrySet()) {
+            Set<String> ids = entry.getValue();
+            Vocabulary vocabulary = entry.getKey().isEmpty() ? null : this.vocabularies.getVocabulary(entry.getKey());
+            if (vocabulary != null) {
+                for (VocabularyTerm term : vocabulary.getTerms(ids)) {
+                    if (term != null && ids.contains(term.getId())) {
+                        result.put(term.getId(), term);
+                        this.termCache.put(term.getId(), term);
+                    }
+                }
+            }
+            // Identifiers the bulk query didn't return as such, e.g. alternative ids, are resolved one by one
+            for (String termId : ids) {
+                if (!result.containsKey(termId)) {
+                    VocabularyTerm term = this.vocabularies.resolveTerm(termId);
+                    if (term != null) {
+                        result.put(termId, term);
+                        this.termCache.put(termId, term);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static long zigzag(long value)
+    {
+        return (value << 1) ^ (value >> (Long.SIZE - 1));
+    }
+
+    private static long unzigzag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(DataOutput out, long value) throws IOException
+    {
+        long remaining = value;
+        while ((remaining & ~VARINT_MASK) != 0) {
+            out.writeByte((int) (remaining & VARINT_MASK) | VARINT_MORE);
+            remaining >>>= VARINT_BITS;
+        }
+        out.writeByte((int) remaining);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException
+    {
+        long result = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += VARINT_BITS) {
+            int b = in.readUnsignedByte();
+            result |= (long) (b & VARINT_MASK) << shift;
+            if ((b & VARINT_MORE) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed variable length integer");
+    }
+
+    /**
+     * Where a record is in the log.
+     */
+    private static final class Location
+    {
+        private final long start;
+
+        private final int keyLength;
+
+        private final int payloadLength;
+
+        Location(long start, int keyLength, int payloadLength)
+        {
+            this.start = start;
+            this.keyLength = keyLength;
+            this.payloadLength = payloadLength;
+        }
+
+        long getRecordSize()
+        {
+            return RECORD_HEADER_SIZE + (long) this.keyLength + this.payloadLength;
+        }
+
+        long getPayloadStart()
+        {
+            return this.start + RECORD_HEADER_SIZE + this.keyLength;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.xwiki.component.annotation.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Singleton;
+
+/**
+ * Default {@link EngineReadiness}, keeping an immutable snapshot of the state of each engine so that it can be read
+ * without locking by every suggestion request.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultEngineReadiness implements EngineReadiness
+{
+    /** The phase reported once an engine is ready. */
+    private static final String READY = "ready";
+
+    private final ConcurrentMap<String, State> states = new ConcurrentHashMap<>();
+
+    @Override
+    public void progress(String engine, String phase, int done, int total)
+    {
+        this.states.put(engine, new State(false, phase, done, total, null));
+    }
+
+    @Override
+    public void ready(String engine)
+    {
+        State previous = this.states.get(engine);
+        int total = previous == null ? 0 : previous.total;
+        this.states.put(engine, new State(true, READY, total, total, null));
+    }
+
+    @Override
+    public void waiting(String engine, String phase)
+    {
+        this.states.put(engine, new State(true, phase, 0, 0, null));
+    }
+
+    @Override
+    public void failed(String engine, String phase, String error)
+    {
+        this.states.put(engine, new State(false, phase, 0, 0, error));
+    }
+
+    @Override
+    public boolean isReady(String engine)
+    {
+        State state = this.states.get(engine);
+        return state == null || state.ready;
+    }
+
+    @Override
+    public boolean isPreparing(String engine)
+    {
+        State state = this.states.get(engine);
+        return state != null && !state.ready && state.error == null;
+    }
+
+    @Override
+    public Map<String, Map<String, Object>> getStatus()
+    {
+        Map<String, Map<String, Object>> result = new TreeMap<>();
+        for (Map.Entry<String, State> entry : this.states.entrySet()) {
+            State state = entry.getValue();
+            Map<String, Object> status = new LinkedHashMap<>();
+            status.put(READY, state.ready);
+            status.put("phase", state.phase);
+            status.put("done", state.done);
+            status.put("total", state.total);
+            if (state.error != null) {
+                status.put("error", state.error);
+            }
+            result.put(entry.getKey(), status);
+        }
+        return result;
+    }
+
+    /**
+     * What an engine last reported.
+     */
+    private static final class State
+    {
+        private final boolean ready;
+
+        private final String phase;
+
+        private final int done;
+
+        private final int total;
+
+        private final String error;
+
+        State(boolean ready, String phase, int done, int total, String error)
+        {
+            this.ready = ready;
+            this.phase = phase;
+            this.done = done;
+            this.total = total;
+            this.error = error;
+        }
+    }
+}
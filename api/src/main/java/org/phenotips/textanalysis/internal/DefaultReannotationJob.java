@@ -0,0 +1,537 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.AnnotationResult;
+import org.phenotips.textanalysis.TermAnnotationService;
+import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+/**
+ * Default implementation of {@link ReannotationJob}. Patient records are listed in batches, in the order of their
+ * names, and their clinical notes are annotated on a small pool of workers; notes whose annotations are already
+ * stored for the current vocabulary version are skipped. The job goes through the same engine as interactive
+ * requests, so it shares the engine's concurrency limit with them, and backs off whenever the engine refuses a call
+ * because it is busy. After each batch the name of its last record is saved, so that a restart resumes from there.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultReannotationJob implements ReannotationJob, Disposable
+{
+    /** The job never ran. */
+    public static final String IDLE = "idle";
+
+    /** The job is annotating records, or was interrupted by a restart and will resume. */
+    public static final String RUNNING = "running";
+
+    /** The job was stopped on request. */
+    public static final String STOPPED = "stopped";
+
+    /** All the records were annotated. */
+    public static final String FINISHED = "finished";
+
+    /** The job could not go on, for instance because the records could not be listed. */
+    public static final String FAILED = "failed";
+
+    private static final String PATIENT_CLASS = "PhenoTips.PatientClass";
+
+    private static final String PATIENT_TEMPLATE = "PhenoTips.PatientTemplate";
+
+    private static final String FROM = "from Document doc, doc.object(PhenoTips.PatientClass) as patient"
+        + " where doc.fullName <> :template";
+
+    private static final String LIST_QUERY = "select doc.fullName " + FROM + " and doc.fullName > :last"
+        + " order by doc.fullName";
+
+    private static final String COUNT_QUERY = "select count(doc.fullName) " + FROM;
+
+    private static final String TEMPLATE_PARAMETER = "template";
+
+    /** The directory, relative to the permanent directory, holding the checkpoint. */
+    private static final String DIRECTORY = "textanalysis";
+
+    private static final String CHECKPOINT_FILE = "reannotation.properties";
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final String DEFAULT_ENGINE = "scigraph";
+
+    private static final String STATE = "state";
+
+    private static final String VERSION = "version";
+
+    private static final String ENGINE = "engine";
+
+    private static final String LAST = "last";
+
+    private static final String TOTAL = "total";
+
+    private static final String PROCESSED = "processed";
+
+    private static final String ANNOTATED = "annotated";
+
+    private static final String SKIPPED = "skipped";
+
+    private static final String FAILURES = "failed";
+
+    /** Reported by the version provider when the vocabulary cannot tell its version. */
+    private static final String UNKNOWN_VERSION = "unknown";
+
+    private static final long MIN_BACKOFF = 100;
+
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    @Inject
+    @Named("context")
+    private Provider<ComponentManager> componentManager;
+
+    @Inject
+    private TermAnnotationConfiguration configuration;
+
+    @Inject
+    private AnnotationResultCache cache;
+
+    @Inject
+    private AnnotationStore store;
+
+    @Inject
+    private VocabularyVersionProvider vocabularyVersion;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    private DocumentAccessBridge bridge;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> resolver;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager contextManager;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private Logger logger;
+
+    private final AtomicLong processed = new AtomicLong();
+
+    private final AtomicLong annotated = new AtomicLong();
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile String state = IDLE;
+
+    private volatile String version;
+
+    private volatile String engine;
+
+    /** The name of the last record of the last complete batch. */
+    private volatile String last;
+
+    private volatile long total;
+
+    private volatile long startTime;
+
+    private volatile long endTime;
+
+    /** How many records had already been processed when the job was started or resumed. */
+    private volatile long startProcessed;
+
+    private volatile boolean stopRequested;
+
+    /** Set while shutting down, so that the checkpoint is left as it is and the job resumes at the next start. */
+    private volatile boolean disposed;
+
+    private Thread runner;
+
+    @Override
+    public synchronized boolean start()
+    {
+        if (this.runner != null) {
+            return false;
+        }
+        launch(new Properties());
+        return true;
+    }
+
+    @Override
+    public synchronized void resume()
+    {
+        if (this.runner != null) {
+            return;
+        }
+        Properties checkpoint = loadCheckpoint();
+        String currentVersion = this.vocabularyVersion.getVersion();
+        boolean reindexed = !UNKNOWN_VERSION.equals(currentVersion)
+            && !currentVersion.equals(checkpoint.getProperty(VERSION));
+        if (RUNNING.equals(checkpoint.getProperty(STATE))) {
+            // Annotations made with an older vocabulary version are worthless, start over
+            launch(reindexed ? new Properties() : checkpoint);
+        } else if (reindexed && this.configuration.isReannotationAutomatic()) {
+            launch(new Properties());
+        } else {
+            restore(checkpoint);
+        }
+    }
+
+    @Override
+    public synchronized void stop()
+    {
+        if (this.runner != null) {
+            this.stopRequested = true;
+            this.runner.interrupt();
+        }
+    }
+
+    @Override
+    public Map<String, Object> getStatus()
+    {
+        Map<String, Object> result = new LinkedHashMap<>();
+        String currentState = this.state;
+        long done = this.processed.get();
+        result.put(STATE, currentState);
+        result.put(VERSION, this.version);
+        result.put(ENGINE, this.engine);
+        result.put(TOTAL, this.total);
+        result.put(PROCESSED, done);
+        result.put(ANNOTATED, this.annotated.get());
+        result.put(SKIPPED, this.skipped.get());
+        result.put(FAILURES, this.failed.get());
+        long elapsed = (RUNNING.equals(currentState) ? System.currentTimeMillis() : this.endTime) - this.startTime;
+        double throughput = this.startTime > 0 && elapsed > 0
+            ? (done - this.startProcessed) * MILLIS_PER_SECOND / elapsed : 0;
+        result.put("throughput", throughput);
+        result.put("eta", RUNNING.equals(currentState) && throughput > 0
+            ? (long) (Math.max(this.total - done, 0) / throughput) : -1L);
+        return result;
+    }
+
+    @Override
+    public synchronized void dispose()
+    {
+        if (this.runner != null) {
+            this.disposed = true;
+            this.runner.interrupt();
+        }
+    }
+
+    private void launch(Properties checkpoint)
+    {
+        restore(checkpoint);
+        this.state = RUNNING;
+        this.version = this.vocabularyVersion.getVersion();
+        String configured = this.configuration.getEngine();
+        this.engine = configured != null ? configured : DEFAULT_ENGINE;
+        this.stopRequested = false;
+        this.startTime = System.currentTimeMillis();
+        this.startProcessed = this.processed.get();
+        saveCheckpoint(RUNNING);
+        this.runner = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                runJob();
+            }
+        }, "TextAnalysis-reannotation");
+        this.runner.setDaemon(true);
+        this.runner.start();
+    }
+
+    private void runJob()
+    {
+        int threads = Math.max(this.configuration.getReannotationThreads(), 1);
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+        String outcome = FINISHED;
+        try {
+            this.contextManager.initialize(new ExecutionContext());
+            TermAnnotationService service =
+                this.componentManager.get().getInstance(TermAnnotationService.class, this.engine);
+            this.total = count();
+            List<String> batch = nextBatch();
+            while (!batch.isEmpty() && !this.stopRequested) {
+                processBatch(batch, service, workers);
+                this.last = batch.get(batch.size() - 1);
+                saveCheckpoint(RUNNING);
+                batch = nextBatch();
+            }
+            if (this.stopRequested) {
+                outcome = STOPPED;
+            }
+        } catch (InterruptedException e) {
+            outcome = STOPPED;
+        } catch (ComponentLookupException | QueryException | ExecutionContextException e) {
+            this.logger.warn("Failed to re-annotate clinical notes: {}", e.getMessage());
+            outcome = FAILED;
+        } finally {
+            workers.shutdownNow();
+            this.execution.removeContext();
+            this.endTime = System.currentTimeMillis();
+            if (!this.disposed) {
+                saveCheckpoint(outcome);
+                this.state = outcome;
+            }
+            synchronized (this) {
+                this.runner = null;
+            }
+        }
+    }
+
+    private void processBatch(List<String> batch, final TermAnnotationService service, ExecutorService workers)
+        throws InterruptedException
+    {
+        DocumentReference patientClass = this.resolver.resolve(PATIENT_CLASS);
+        List<Future<?>> tasks = new ArrayList<>();
+        try {
+            for (final String document : batch) {
+                final String text = getNotes(this.resolver.resolve(document), patientClass);
+                if (StringUtils.isBlank(text)) {
+                    continue;
+                }
+                final String key = this.cache.getKey(text, this.engine);
+                if (this.store.contains(key)) {
+                    this.skipped.incrementAndGet();
+                    continue;
+                }
+                tasks.add(workers.submit(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        annotate(service, document, text, key);
+                    }
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException e) {
+            // Annotation failures are counted by the tasks themselves
+            this.logger.debug("Unexpected re-annotation failure: {}", e.getMessage());
+        } finally {
+            for (Future<?> task : tasks) {
+                task.cancel(true);
+            }
+        }
+        this.processed.addAndGet(batch.size());
+    }
+
+    /**
+     * Builds the text annotated for a patient record the same way the clinical notes panel does, by joining the
+     * configured fields with new lines, so that the annotations stored are found by the panel's requests.
+     */
+    private String getNotes(DocumentReference reference, DocumentReference patientClass)
+    {
+        StringBuilder text = new StringBuilder();
+        List<String> fields = this.configuration.getReannotationFields();
+        for (int i = 0; i < fields.size(); ++i) {
+            if (i > 0) {
+                text.append('\n');
+            }
+            Object notes = this.bridge.getProperty(reference, patientClass, fields.get(i));
+            if (notes != null) {
+                text.append(notes);
+            }
+        }
+        return text.toString();
+    }
+
+    private void annotate(TermAnnotationService service, String document, String text, String key)
+    {
+        long backoff = Math.max(this.configuration.getReannotationBackoff(), MIN_BACKOFF);
+        try {
+            while (true) {
+                try {
+                    AnnotationResult result = service.annotate(text, 0, TimeUnit.MILLISECONDS);
+                    if (result.isTruncated()) {
+                        // Some engines didn't answer, the note will be annotated again by the next run
+                        this.failed.incrementAndGet();
+                        this.logger.warn("Incomplete annotations for the clinical notes of [{}], not stored", document);
+                    } else {
+                        this.store.put(key, result.getAnnotations());
+                        this.annotated.incrementAndGet();
+                    }
+                    return;
+                } catch (EngineOverloadedException e) {
+                    // Interactive requests come first
+                    Thread.sleep(backoff);
+                }
+            }
+        } catch (AnnotationException e) {
+            this.failed.incrementAndGet();
+            this.logger.warn("Failed to annotate the clinical notes of [{}]: {}", document, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long count() throws QueryException
+    {
+        Query query = this.queryManager.createQuery(COUNT_QUERY, Query.XWQL);
+        query.bindValue(TEMPLATE_PARAMETER, PATIENT_TEMPLATE);
+        List<Long> result = query.execute();
+        return result.isEmpty() || result.get(0) == null ? 0 : result.get(0);
+    }
+
+    private List<String> nextBatch() throws QueryException
+    {
+        Query query = this.queryManager.createQuery(LIST_QUERY, Query.XWQL);
+        query.bindValue(TEMPLATE_PARAMETER, PATIENT_TEMPLATE);
+        query.bindValue(LAST, this.last);
+        query.setLimit(Math.max(this.configuration.getReannotationBatchSize(), 1));
+        return query.execute();
+    }
+
+    private void restore(Properties checkpoint)
+    {
+        this.state = checkpoint.getProperty(STATE, IDLE);
+        this.version = checkpoint.getProperty(VERSION);
+        this.engine = checkpoint.getProperty(ENGINE);
+        this.last = checkpoint.getProperty(LAST, StringUtils.EMPTY);
+        this.total = getLong(checkpoint, TOTAL);
+        this.processed.set(getLong(checkpoint, PROCESSED));
+        this.annotated.set(getLong(checkpoint, ANNOTATED));
+        this.skipped.set(getLong(checkpoint, SKIPPED));
+        this.failed.set(getLong(checkpoint, FAILURES));
+    }
+
+    private Properties loadCheckpoint()
+    {
+        Properties result = new Properties();
+        File file = getCheckpointFile();
+        if (file.isFile()) {
+            try (InputStream in = new FileInputStream(file)) {
+                result.load(in);
+            } catch (IOException e) {
+                this.logger.warn("Failed to read the re-annotation checkpoint [{}]: {}", file, e.getMessage());
+            }
+        }
+        return result;
+    }
+
+    private void saveCheckpoint(String savedState)
+    {
+        Properties checkpoint = new Properties();
+        checkpoint.setProperty(STATE, savedState);
+        checkpoint.setProperty(VERSION, StringUtils.defaultString(this.version));
+        checkpoint.setProperty(ENGINE, StringUtils.defaultString(this.engine));
+        checkpoint.setProperty(LAST, StringUtils.defaultString(this.last));
+        checkpoint.setProperty(TOTAL, String.valueOf(this.total));
+        checkpoint.setProperty(PROCESSED, String.valueOf(this.processed.get()));
+        checkpoint.setProperty(ANNOTATED, String.valueOf(this.annotated.get()));
+        checkpoint.setProperty(SKIPPED, String.valueOf(this.skipped.get()));
+        checkpoint.setProperty(FAILURES, String.valueOf(this.failed.get()));
+        File file = getCheckpointFile();
+        File temporary = new File(file.getPath() + TEMPORARY_SUFFIX);
+        try {
+            file.getParentFile().mkdirs();
+            try (OutputStream out = new FileOutputStream(temporary)) {
+                checkpoint.store(out, "Clinical notes re-annotation progress");
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            this.logger.warn("Failed to save the re-annotation checkpoint [{}]: {}", file, e.getMessage());
+        }
+    }
+
+    private File getCheckpointFile()
+    {
+        return new File(new File(this.environment.getPermanentDirectory(), DIRECTORY), CHECKPOINT_FILE);
+    }
+
+    private static long getLong(Properties properties, String key)
+    {
+        try {
+            return Long.parseLong(properties.getProperty(key, "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Creates named daemon threads, so that the job never keeps the JVM alive.
+     */
+    private static final class WorkerThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task)
+        {
+            Thread thread = new Thread(task, "TextAnalysis-reannotation-" + this.counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.xwiki.component.annotation.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * LRU implementation of {@link SentenceAnnotationCache}, bounded by the number of cached sentences.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultSentenceAnnotationCache implements SentenceAnnotationCache
+{
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final float LOAD_FACTOR = 0.75f;
+
+    @Inject
+    private VocabularyVersionProvider vocabularyVersion;
+
+    @Inject
+    private TermAnnotationConfiguration configuration;
+
+    /** Entries in access order, the least recently used first. */
+    private final LinkedHashMap<String, List<RawAnnotation>> entries =
+        new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    @Override
+    public String getKey(String sentence, String engine)
+    {
+        return TextDigest.digest(sentence) + '/' + engine + '/' + this.vocabularyVersion.getVersion();
+    }
+
+    @Override
+    public synchronized List<RawAnnotation> get(String key)
+    {
+        List<RawAnnotation> result = this.entries.get(key);
+        if (result == null) {
+            ++this.misses;
+        } else {
+            ++this.hits;
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void put(String key, List<RawAnnotation> sentenceHits)
+    {
+        int maxEntries = this.configuration.getSentenceCacheSize();
+        if (maxEntries <= 0) {
+            return;
+        }
+        this.entries.put(key, sentenceHits);
+        Iterator<List<RawAnnotation>> eldest = this.entries.values().iterator();
+        while (eldest.hasNext() && this.entries.size() > maxEntries) {
+            eldest.next();
+            eldest.remove();
+            ++this.evictions;
+        }
+    }
+
+    @Override
+    public synchronized Map<String, Long> getStatistics()
+    {
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("hits", this.hits);
+        result.put("misses", this.misses);
+        result.put("evictions", this.evictions);
+        result.put("entries", (long) this.entries.size());
+        return result;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Default implementation of {@link TermAnnotationConfiguration}, reading values from {@code xwiki.properties}.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultTermAnnotationConfiguration implements TermAnnotationConfiguration
+{
+    /** Prefix shared by all the configuration keys of the text analysis extension. */
+    private static final String PREFIX = "phenotips.textanalysis.";
+
+    private static final int DEFAULT_ASYNC_QUEUE_SIZE = 100;
+
+    private static final int DEFAULT_STREAM_CHUNK_SIZE = 64 * 1024;
+
+    private static final int DEFAULT_RESULT_CACHE_SIZE = 1000;
+
+    private static final long DEFAULT_RESULT_CACHE_MEMORY = 32L * 1024 * 1024;
+
+    private static final long DEFAULT_RESULT_STORE_SIZE = 64L * 1024 * 1024;
+
+    private static final int DEFAULT_SENTENCE_CACHE_SIZE = 10000;
+
+    private static final int DEFAULT_TERM_CACHE_SIZE = 20000;
+
+    private static final String DEFAULT_ENGINE = "scigraph";
+
+    private static final String DEFAULT_ENSEMBLE_ENGINES = "scigraph,biolark";
+
+    private static final long DEFAULT_ENSEMBLE_TIMEOUT = 3000;
+
+    private static final long DEFAULT_REQUEST_TIMEOUT = 5000;
+
+    private static final int DEFAULT_ENGINE_QUEUE_SIZE = 20;
+
+    private static final long DEFAULT_ENGINE_QUEUE_TIMEOUT = 2000;
+
+    private static final long DEFAULT_ENGINE_INITIALIZATION_TIMEOUT = 2000;
+
+    private static final int DEFAULT_REANNOTATION_THREADS = 2;
+
+    private static final int DEFAULT_REANNOTATION_BATCH_SIZE = 100;
+
+    private static final long DEFAULT_REANNOTATION_BACKOFF = 1000;
+
+    /** The fields the clinical notes panel annotates, in the order it joins them. */
+    private static final String DEFAULT_REANNOTATION_FIELDS = "indication_for_referral,medical_history";
+
+    private static final int DEFAULT_WARMUP_ROUNDS = 3;
+
+    private static final String DEFAULT_WORKER_JVM_OPTIONS = "-Xmx2g";
+
+    private static final int DEFAULT_WORKER_BATCH_SIZE = 16;
+
+    private static final long DEFAULT_WORKER_TIMEOUT = 30000;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    @Override
+    public int getBatchThreads()
+    {
+        return getInt("batch.threads", 0);
+    }
+
+    @Override
+    public int getAsyncThreads()
+    {
+        return getInt("async.threads", 0);
+    }
+
+    @Override
+    public int getAsyncQueueSize()
+    {
+        return getInt("async.queueSize", DEFAULT_ASYNC_QUEUE_SIZE);
+    }
+
+    @Override
+    public int getStreamChunkSize()
+    {
+        return getInt("stream.chunkSize", DEFAULT_STREAM_CHUNK_SIZE);
+    }
+
+    @Override
+    public int getResultCacheSize()
+    {
+        return getInt("resultCache.size", DEFAULT_RESULT_CACHE_SIZE);
+    }
+
+    @Override
+    public long getResultCacheMemory()
+    {
+        return getLong("resultCache.memory", DEFAULT_RESULT_CACHE_MEMORY);
+    }
+
+    @Override
+    public long getResultStoreSize()
+    {
+        return getLong("resultStore.size", DEFAULT_RESULT_STORE_SIZE);
+    }
+
+    @Override
+    public boolean isSentenceCacheEnabled()
+    {
+        // Off by default: engines then run once per uncached sentence, and lose the context spanning sentences
+        return getBoolean("sentenceCache.enabled", false);
+    }
+
+    @Override
+    public int getSentenceCacheSize()
+    {
+        return getInt("sentenceCache.size", DEFAULT_SENTENCE_CACHE_SIZE);
+    }
+
+    @Override
+    public int getTermCacheSize()
+    {
+        return getInt("termCache.size", DEFAULT_TERM_CACHE_SIZE);
+    }
+
+    @Override
+    public String getEngine()
+    {
+        return this.configuration.getProperty(PREFIX + "engine", DEFAULT_ENGINE);
+    }
+
+    @Override
+    public List<String> getEnsembleEngines()
+    {
+        return getList("ensemble.engines", DEFAULT_ENSEMBLE_ENGINES);
+    }
+
+    @Override
+    public long getEnsembleTimeout()
+    {
+        return getLong("ensemble.timeout", DEFAULT_ENSEMBLE_TIMEOUT);
+    }
+
+    @Override
+    public long getRequestTimeout()
+    {
+        return getLong("request.timeout", DEFAULT_REQUEST_TIMEOUT);
+    }
+
+    @Override
+    public int getEngineConcurrency(String engine)
+    {
+        return getInt(engine + ".concurrency", 0);
+    }
+
+    @Override
+    public int getEngineQueueSize(String engine)
+    {
+        return getInt(engine + ".queueSize", DEFAULT_ENGINE_QUEUE_SIZE);
+    }
+
+    @Override
+    public long getEngineQueueTimeout(String engine)
+    {
+        return getLong(engine + ".queueTimeout", DEFAULT_ENGINE_QUEUE_TIMEOUT);
+    }
+
+    @Override
+    public int getEngineInstances(String engine)
+    {
+        return getInt(engine + ".instances", 0);
+    }
+
+    @Override
+    public String getEngineInitialization(String engine)
+    {
+        String mode = this.configuration.getProperty(PREFIX + engine + ".initialization", "");
+        if (StringUtils.isNotBlank(mode)) {
+            return mode.trim();
+        }
+        String used = getEngine();
+        boolean eager = engine.equals(used)
+            || (EnsembleAnnotationService.HINT.equals(used) && getEnsembleEngines().contains(engine));
+        return eager ? EngineInitializer.EAGER : EngineInitializer.LAZY;
+    }
+
+    @Override
+    public long getEngineInitializationTimeout(String engine)
+    {
+        return getLong(engine + ".initializationTimeout", DEFAULT_ENGINE_INITIALIZATION_TIMEOUT);
+    }
+
+    @Override
+    public int getReannotationThreads()
+    {
+        return getInt("reannotation.threads", DEFAULT_REANNOTATION_THREADS);
+    }
+
+    @Override
+    public int getReannotationBatchSize()
+    {
+        return getInt("reannotation.batchSize", DEFAULT_REANNOTATION_BATCH_SIZE);
+    }
+
+    @Override
+    public long getReannotationBackoff()
+    {
+        return getLong("reannotation.backoff", DEFAULT_REANNOTATION_BACKOFF);
+    }
+
+    @Override
+    public List<String> getReannotationFields()
+    {
+        return getList("reannotation.fields", DEFAULT_REANNOTATION_FIELDS);
+    }
+
+    @Override
+    public boolean isReannotationAutomatic()
+    {
+        return getBoolean("reannotation.automatic", false);
+    }
+
+    @Override
+    public int getWarmupRounds(String engine)
+    {
+        return getInt(engine + ".warmup.rounds", DEFAULT_WARMUP_ROUNDS);
+    }
+
+    @Override
+    public String getWarmupCorpus(String engine)
+    {
+        return this.configuration.getProperty(PREFIX + engine + ".warmup.corpus", "");
+    }
+
+    @Override
+    public int getWorkerProcesses(String engine)
+    {
+        return getInt(engine + ".workers", 0);
+    }
+
+    @Override
+    public String getWorkerJvmOptions(String engine)
+    {
+        return this.configuration.getProperty(PREFIX + engine + ".workers.jvmOptions", DEFAULT_WORKER_JVM_OPTIONS);
+    }
+
+    @Override
+    public String getWorkerClasspath(String engine)
+    {
+        return this.configuration.getProperty(PREFIX + engine + ".workers.classpath", "");
+    }
+
+    @Override
+    public int getWorkerBatchSize(String engine)
+    {
+        return getInt(engine + ".workers.batchSize", DEFAULT_WORKER_BATCH_SIZE);
+    }
+
+    @Override
+    public long getWorkerTimeout(String engine)
+    {
+        return getLong(engine + ".workers.timeout", DEFAULT_WORKER_TIMEOUT);
+    }
+
+    private int getInt(String key, int defaultValue)
+    {
+        return this.configuration.getProperty(PREFIX + key, Integer.valueOf(defaultValue)).intValue();
+    }
+
+    private boolean getBoolean(String key, boolean defaultValue)
+    {
+        return this.configuration.getProperty(PREFIX + key, Boolean.valueOf(defaultValue)).booleanValue();
+    }
+
+    private long getLong(String key, long defaultValue)
+    {
+        return this.configuration.getProperty(PREFIX + key, Long.valueOf(defaultValue)).longValue();
+    }
+
+    private List<String> getList(String key, String defaultValue)
+    {
+        String values = this.configuration.getProperty(PREFIX + key, defaultValue);
+        List<String> result = new ArrayList<>();
+        for (String value : StringUtils.split(values, ',')) {
+            if (StringUtils.isNotBlank(value)) {
+                result.add(value.trim());
+            }
+        }
+        return result;
+    }
+}
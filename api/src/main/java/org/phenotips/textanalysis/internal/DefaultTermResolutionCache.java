@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.annotation.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Concurrent implementation of {@link TermResolutionCache}. The whole HPO fits easily within the default size limit,
+ * so when the limit is reached arbitrary entries are evicted rather than paying for LRU bookkeeping on every read.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultTermResolutionCache implements TermResolutionCache
+{
+    @Inject
+    private VocabularyVersionProvider vocabularyVersion;
+
+    @Inject
+    private TermAnnotationConfiguration configuration;
+
+    private final ConcurrentMap<String, VocabularyTerm> terms = new ConcurrentHashMap<>();
+
+    /** The vocabulary version the cached terms were read from. */
+    private volatile String version;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @Override
+    public VocabularyTerm get(String termId)
+    {
+        checkVersion();
+        VocabularyTerm term = this.terms.get(termId);
+        if (term == null) {
+            this.misses.incrementAndGet();
+        } else {
+            this.hits.incrementAndGet();
+        }
+        return term;
+    }
+
+    @Override
+    public void put(String termId, VocabularyTerm term)
+    {
+        int maxSize = this.configuration.getTermCacheSize();
+        if (maxSize <= 0 || term == null) {
+            return;
+        }
+        checkVersion();
+        this.terms.put(termId, term);
+        Iterator<String> victims = this.terms.keySet().iterator();
+        while (this.terms.size() > maxSize && victims.hasNext()) {
+            victims.next();
+            victims.remove();
+            this.evictions.incrementAndGet();
+        }
+    }
+
+    @Override
+    public Map<String, Long> getStatistics()
+    {
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("hits", this.hits.get());
+        result.put("misses", this.misses.get());
+        result.put("evictions", this.evictions.get());
+        result.put("invalidations", this.invalidations.get());
+        result.put("entries", (long) this.terms.size());
+        return result;
+    }
+
+    /**
+     * Drops all the cached terms if the vocabulary was reindexed since they were cached.
+     */
+    private void checkVersion()
+    {
+        String current = this.vocabularyVersion.getVersion();
+        if (current != null && !current.equals(this.version)) {
+            synchronized (this) {
+                if (!current.equals(this.version)) {
+                    if (this.version != null) {
+                        this.invalidations.incrementAndGet();
+                    }
+                    this.terms.clear();
+                    this.version = current;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyManager;
+
+import org.xwiki.component.annotation.Component;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Default implementation of {@link VocabularyVersionProvider}. Asking the vocabulary for its version requires a
+ * query, so the answer is remembered for a minute.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultVocabularyVersionProvider implements VocabularyVersionProvider
+{
+    /** The vocabulary whose version is tracked. */
+    private static final String VOCABULARY = "hpo";
+
+    /** How long the vocabulary version is trusted before asking the vocabulary again. */
+    private static final long CHECK_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    private static final String UNKNOWN_VERSION = "unknown";
+
+    @Inject
+    private VocabularyManager vocabularies;
+
+    private volatile String version;
+
+    private volatile long lastCheck;
+
+    @Override
+    public String getVersion()
+    {
+        long now = System.nanoTime();
+        String result = this.version;
+        if (result == null || now - this.lastCheck > CHECK_INTERVAL) {
+            Vocabulary vocabulary = this.vocabularies.getVocabulary(VOCABULARY);
+            result = vocabulary == null ? null : vocabulary.getVersion();
+            if (result == null) {
+                result = UNKNOWN_VERSION;
+            }
+            this.version = result;
+            this.lastCheck = now;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits how many calls run at once in an annotation engine, and how many may wait for their turn. Calls beyond
+ * that, or waiting longer than allowed, are refused with an {@link EngineOverloadedException}, so that a burst of
+ * requests can't pile up threads and memory behind a single slow engine.
+ *
+ * @version $Id$
+ */
+public class EngineBulkhead
+{
+    private final String engine;
+
+    private final int maxConcurrent;
+
+    private final int maxWaiting;
+
+    private final long waitTimeout;
+
+    /** Fair, so that waiting calls are served in order. */
+    private final Semaphore permits;
+
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * @param engine the name of the engine, for error messages
+     * @param maxConcurrent how many calls may run at once, at least 1
+     * @param maxWaiting how many calls may wait for a free slot
+     * @param waitTimeout how long, in milliseconds, a call may wait for a free slot
+     */
+    public EngineBulkhead(String engine, int maxConcurrent, int maxWaiting, long waitTimeout)
+    {
+        this.engine = engine;
+        this.maxConcurrent = Math.max(1, maxConcurrent);
+        this.maxWaiting = Math.max(0, maxWaiting);
+        this.waitTimeout = Math.max(0, waitTimeout);
+        this.permits = new Semaphore(this.maxConcurrent, true);
+    }
+
+    /**
+     * Waits for a free slot. Each successful call must be followed by a call to {@link #release()}.
+     *
+     * @throws EngineOverloadedException if too many calls are already waiting, or no slot was freed in time
+     * @throws AnnotationException if interrupted while waiting
+     */
+    public void acquire() throws AnnotationException
+    {
+        if (this.permits.tryAcquire()) {
+            return;
+        }
+        if (this.waiting.incrementAndGet() > this.maxWaiting) {
+            this.waiting.decrementAndGet();
+            throw new EngineOverloadedException("The " + this.engine + " annotation engine is busy, try again later");
+        }
+        try {
+            if (!this.permits.tryAcquire(this.waitTimeout, TimeUnit.MILLISECONDS)) {
+                throw new EngineOverloadedException(
+                    "The " + this.engine + " annotation engine didn't become available in time, try again later");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AnnotationException("Interrupted while waiting for the " + this.engine + " engine", e);
+        } finally {
+            this.waiting.decrementAndGet();
+        }
+    }
+
+    /**
+     * Frees the slot taken by a successful {@link #acquire()}.
+     */
+    public void release()
+    {
+        this.permits.release();
+    }
+
+    /**
+     * @return how many calls are running
+     */
+    public int getActive()
+    {
+        return this.maxConcurrent - this.permits.availablePermits();
+    }
+
+    /**
+     * @return how many calls are waiting for a free slot
+     */
+    public int getWaiting()
+    {
+        return this.waiting.get();
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for a single call into an annotation engine library, lasting as long as the call.
+ *
+ * @version $Id$
+ */
+@Name("org.phenotips.textanalysis.EngineCall")
+@Label("Annotation Engine Call")
+@Category({ "PhenoTips", "Text Analysis" })
+@Description("A call into the SciGraph or BioLark library")
+public class EngineCallEvent extends Event
+{
+    /** The engine called. */
+    @Label("Engine")
+    public String engine;
+
+    /** The length of the text passed to the engine. */
+    @Label("Text Length")
+    @Description("Characters passed to the engine, or -1 if the engine reads the text from a stream")
+    public int textLength;
+
+    /** How many hits the engine returned. */
+    @Label("Hits")
+    public int hits;
+}
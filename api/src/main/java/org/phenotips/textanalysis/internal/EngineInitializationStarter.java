@@ -0,0 +1,76 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.ApplicationStartedEvent;
+import org.xwiki.observation.event.Event;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+
+/**
+ * Hook into phenotips startup to look up the wrapper of an annotation engine, which schedules the initialization of
+ * the engine, so that an engine configured as eager starts initializing in the background. Looking it up is quick,
+ * since the slow part of its initialization is left to an {@link EngineInitializer}. Each engine relying on an
+ * {@link EngineInitializer} registers its own subclass, looking up its wrapper.
+ *
+ * @version $Id$
+ */
+public abstract class EngineInitializationStarter implements EventListener
+{
+    @Inject
+    private Logger logger;
+
+    @Override
+    public String getName()
+    {
+        return "textanalysis-" + getEngine() + "-initialization";
+    }
+
+    @Override
+    public List<Event> getEvents()
+    {
+        return Arrays.<Event>asList(new ApplicationStartedEvent());
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        try {
+            lookupWrapper();
+            this.logger.debug("Looked up the {} annotation engine", getEngine());
+        } catch (RuntimeException e) {
+            this.logger.warn("Failed to look up the {} annotation engine: {}", getEngine(), e.getMessage());
+        }
+    }
+
+    /**
+     * @return the hint of the engine started
+     */
+    protected abstract String getEngine();
+
+    /**
+     * Looks up the wrapper of the engine, which schedules its initialization as soon as it is created.
+     */
+    protected abstract void lookupWrapper();
+}
@@ -0,0 +1,272 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+
+import org.xwiki.component.phase.InitializationException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+
+/**
+ * Initializes an annotation engine in a background thread, so that slow steps such as downloading resources or
+ * opening a graph database neither delay startup nor block the component manager. Depending on the configured mode,
+ * initialization starts right away ({@link #EAGER}), on the first request ({@link #LAZY}), or never
+ * ({@link #DISABLED}). Requests arriving meanwhile wait a bounded time, then are refused with an
+ * {@link EngineOverloadedException}. If initialization fails, requests fail too, until the first request arriving
+ * after {@link #getRetryDelay() a delay}, which starts initializing again. Progress is reported through
+ * {@link EngineReadiness}.
+ *
+ * @param <T> the type of the initialized engine
+ * @version $Id$
+ */
+public abstract class EngineInitializer<T>
+{
+    /** Initialization starts at startup. */
+    public static final String EAGER = "eager";
+
+    /** Initialization starts with the first request. */
+    public static final String LAZY = "lazy";
+
+    /** The engine is never initialized, and refuses all requests. */
+    public static final String DISABLED = "disabled";
+
+    /** The phase reported while initializing. */
+    private static final String INITIALIZING = "initializing";
+
+    /** The phase reported when initialization failed. */
+    private static final String FAILED = "failed";
+
+    /** How long to wait, in milliseconds, before initializing again after a failure. */
+    private static final long RETRY_DELAY = 60000L;
+
+    private final String engine;
+
+    private final EngineReadiness readiness;
+
+    private final Logger logger;
+
+    /** The engine being initialized; replaced when initializing again after a failure. */
+    private volatile CompletableFuture<T> instance = new CompletableFuture<>();
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    /** When initialization may be tried again after it failed. */
+    private volatile long retryAfter;
+
+    private volatile boolean disabled;
+
+    private volatile Thread thread;
+
+    /**
+     * @param engine the hint of the engine, for status reports and error messages
+     * @param readiness where the initialization progress is reported
+     * @param logger where initialization failures are logged
+     */
+    protected EngineInitializer(String engine, EngineReadiness readiness, Logger logger)
+    {
+        this.engine = engine;
+        this.readiness = readiness;
+        this.logger = logger;
+    }
+
+    /**
+     * Creates the engine; called once, from the initialization thread.
+     *
+     * @return the initialized engine
+     * @throws InitializationException if the engine can't be initialized
+     */
+    protected abstract T create() throws InitializationException;
+
+    /**
+     * Prepares the engine for real requests after it was created, for instance by filling its caches. Requests are
+     * already served meanwhile, but the engine is only reported as ready once this is done. Does nothing by default.
+     *
+     * @param created the engine returned by {@link #create()}
+     */
+    protected void warmup(T created)
+    {
+        // Nothing to do by default
+    }
+
+    /**
+     * How long to wait after a failed initialization before trying again, for instance once a missing resource was
+     * provided or a network failure is over.
+     *
+     * @return the delay in milliseconds
+     */
+    protected long getRetryDelay()
+    {
+        return RETRY_DELAY;
+    }
+
+    /**
+     * Applies the configured initialization mode: starts initializing if {@link #EAGER}, refuses all requests if
+     * {@link #DISABLED}, and waits for the first request otherwise.
+     *
+     * @param mode one of {@link #EAGER}, {@link #LAZY} or {@link #DISABLED}
+     */
+    public void schedule(String mode)
+    {
+        if (DISABLED.equals(mode)) {
+            this.disabled = true;
+            this.readiness.failed(this.engine, DISABLED, "The " + this.engine + " engine is disabled");
+        } else if (LAZY.equals(mode)) {
+            if (!this.started.get()) {
+                this.readiness.waiting(this.engine, LAZY);
+            }
+        } else {
+            start();
+        }
+    }
+
+    /**
+     * Starts initializing the engine in the background, unless it was already started or is disabled.
+     */
+    public void start()
+    {
+        if (this.disabled || !this.started.compareAndSet(false, true)) {
+            return;
+        }
+        final CompletableFuture<T> target = this.instance;
+        this.readiness.progress(this.engine, INITIALIZING, 0, 1);
+        Thread worker = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                initialize(target);
+            }
+        }, this.engine + " initialization");
+        worker.setDaemon(true);
+        this.thread = worker;
+        worker.start();
+    }
+
+    /**
+     * Returns the initialized engine, starting its initialization if it is lazy and waiting for it at most the given
+     * time.
+     *
+     * @param timeout how long, in milliseconds, to wait for an engine still initializing; 0 or less fails right away
+     * @return the initialized engine
+     * @throws EngineOverloadedException if the engine is still initializing, so that the request may be retried later
+     * @throws AnnotationException if the engine is disabled, failed to initialize less than the retry delay ago, or if
+     *             interrupted while waiting
+     */
+    public T get(long timeout) throws AnnotationException
+    {
+        if (this.disabled) {
+            throw new AnnotationException("The " + this.engine + " annotation engine is disabled");
+        }
+        CompletableFuture<T> current = this.instance;
+        if (current.isCompletedExceptionally() && System.currentTimeMillis() >= this.retryAfter) {
+            current = retry(current);
+        } else if (!current.isDone()) {
+            start();
+        }
+        try {
+            if (timeout <= 0 && !current.isDone()) {
+                throw notReady();
+            }
+            return current.get(Math.max(0, timeout), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw notReady();
+        } catch (ExecutionException e) {
+            throw new AnnotationException("The " + this.engine + " annotation engine failed to initialize",
+                e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AnnotationException("Interrupted while waiting for the " + this.engine + " engine", e);
+        }
+    }
+
+    /**
+     * @return whether the engine was created successfully, though it may still be warming up
+     */
+    public boolean isInitialized()
+    {
+        CompletableFuture<T> current = this.instance;
+        return current.isDone() && !current.isCompletedExceptionally();
+    }
+
+    /**
+     * Interrupts the initialization or the warm-up, if still running.
+     */
+    public void stop()
+    {
+        Thread worker = this.thread;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Starts initializing again after a failure, unless another request already did.
+     *
+     * @return the engine being initialized again
+     */
+    private synchronized CompletableFuture<T> retry(CompletableFuture<T> failed)
+    {
+        if (this.instance == failed) {
+            this.logger.info("Initializing the {} annotation engine again", this.engine);
+            this.instance = new CompletableFuture<>();
+            this.started.set(false);
+            start();
+        }
+        return this.instance;
+    }
+
+    private EngineOverloadedException notReady()
+    {
+        return new EngineOverloadedException("The " + this.engine + " annotation engine is still initializing, "
+            + "try again later");
+    }
+
+    private void initialize(CompletableFuture<T> target)
+    {
+        long start = System.currentTimeMillis();
+        T created;
+        try {
+            created = create();
+        } catch (InitializationException | RuntimeException e) {
+            this.logger.error("Failed to initialize the {} annotation engine: {}", this.engine, e.getMessage(), e);
+            this.readiness.failed(this.engine, FAILED, e.getMessage());
+            this.retryAfter = System.currentTimeMillis() + getRetryDelay();
+            target.completeExceptionally(e);
+            this.thread = null;
+            return;
+        }
+        target.complete(created);
+        this.logger.info("The {} annotation engine was initialized in {} ms", this.engine,
+            System.currentTimeMillis() - start);
+        try {
+            warmup(created);
+        } catch (RuntimeException e) {
+            this.logger.warn("Failed to warm up the {} annotation engine: {}", this.engine, e.getMessage());
+        } finally {
+            this.readiness.ready(this.engine);
+            this.thread = null;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Instances of an annotation engine that isn't safe, or doesn't scale, when called from several threads at once. Each
+ * call checks out an idle instance, and returns it when done; calls finding no idle instance wait a bounded time,
+ * then are refused with an {@link EngineOverloadedException}. The time spent waiting is recorded as
+ * {@code <engine>.checkout}, and the number of instances in use at each checkout as {@code <engine>.busy}.
+ * <p>
+ * A pool may also hold a single instance shared by all the calls at once, for engines known to be thread-safe; then
+ * checking out never waits.
+ * </p>
+ *
+ * @param <T> the type of the engine instances
+ * @version $Id$
+ */
+public class EnginePool<T>
+{
+    private static final String CHECKOUT_STAGE = ".checkout";
+
+    private static final String BUSY_VALUE = ".busy";
+
+    private final String engine;
+
+    private final List<T> instances;
+
+    private final BlockingQueue<T> idle;
+
+    private final boolean shared;
+
+    private final long waitTimeout;
+
+    private final AnnotationMetrics metrics;
+
+    /**
+     * @param engine the name of the engine, for error messages and metrics
+     * @param instances the engine instances; a single instance is shared by all calls if {@code shared} is set
+     * @param shared whether instances may serve several calls at once
+     * @param waitTimeout how long, in milliseconds, a call may wait for an idle instance
+     * @param metrics where checkout times are recorded
+     */
+    public EnginePool(String engine, Collection<T> instances, boolean shared, long waitTimeout,
+        AnnotationMetrics metrics)
+    {
+        if (instances.isEmpty()) {
+            throw new IllegalArgumentException("No instances of the " + engine + " engine");
+        }
+        this.engine = engine;
+        this.instances = Collections.unmodifiableList(new ArrayList<>(instances));
+        this.idle = new ArrayBlockingQueue<>(this.instances.size(), true, this.instances);
+        this.shared = shared;
+        this.waitTimeout = Math.max(0, waitTimeout);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Tells how many instances of an engine to create, from its configuration.
+     *
+     * @param configuration the configuration
+     * @param engine the hint of the engine
+     * @return how many instances to pool, at least 1; one per call the engine may run at once if the configured
+     *         number is lower than 0
+     * @see TermAnnotationConfiguration#getEngineInstances(String)
+     */
+    public static int getPoolSize(TermAnnotationConfiguration configuration, String engine)
+    {
+        int size = configuration.getEngineInstances(engine);
+        if (size < 0) {
+            size = configuration.getEngineConcurrency(engine);
+            if (size < 1) {
+                size = Runtime.getRuntime().availableProcessors();
+            }
+        }
+        return Math.max(1, size);
+    }
+
+    /**
+     * Checks out an idle instance, waiting for one if needed. Each successful call must be followed by a call to
+     * {@link #release(Object)}.
+     *
+     * @return the instance to use
+     * @throws EngineOverloadedException if no instance was returned in time
+     * @throws AnnotationException if interrupted while waiting
+     */
+    public T acquire() throws AnnotationException
+    {
+        if (this.shared) {
+            return this.instances.get(0);
+        }
+        T instance = this.idle.poll();
+        if (instance == null) {
+            long start = System.nanoTime();
+            try {
+                instance = this.idle.poll(this.waitTimeout, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AnnotationException("Interrupted while waiting for the " + this.engine + " engine", e);
+            } finally {
+                this.metrics.recordTime(this.engine + CHECKOUT_STAGE, System.nanoTime() - start);
+            }
+            if (instance == null) {
+                this.metrics.recordError(this.engine + CHECKOUT_STAGE);
+                throw new EngineOverloadedException(
+                    "All the " + this.engine + " engine instances are busy, try again later");
+            }
+        } else {
+            this.metrics.recordTime(this.engine + CHECKOUT_STAGE, 0);
+        }
+        this.metrics.recordValue(this.engine + BUSY_VALUE, getBusy());
+        return instance;
+    }
+
+    /**
+     * Returns an instance checked out by {@link #acquire()}.
+     *
+     * @param instance the instance, which must not be used any more by the caller
+     */
+    public void release(T instance)
+    {
+        if (!this.shared) {
+            this.idle.offer(instance);
+        }
+    }
+
+    /**
+     * @return all the instances, idle or not, for instance to close them
+     */
+    public List<T> getInstances()
+    {
+        return this.instances;
+    }
+
+    /**
+     * @return how many instances there are
+     */
+    public int getSize()
+    {
+        return this.instances.size();
+    }
+
+    /**
+     * @return how many instances are checked out; always 0 for a shared instance
+     */
+    public int getBusy()
+    {
+        return this.shared ? 0 : this.instances.size() - this.idle.size();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.xwiki.component.annotation.Role;
+
+import java.util.Map;
+
+/**
+ * Keeps track of the annotation engines that are still getting ready to serve requests, for instance while they warm
+ * up their caches after startup, so that the user interface and load balancers can wait for them instead of sending
+ * real requests to a cold engine. Engines that never reported anything are considered ready.
+ *
+ * @version $Id$
+ */
+@Role
+public interface EngineReadiness
+{
+    /**
+     * Marks an engine as not ready yet, and records how far it got in its preparation.
+     *
+     * @param engine the hint of the annotation service
+     * @param phase what the engine is doing, e.g. {@code warmup}
+     * @param done how many steps of that phase are done
+     * @param total how many steps that phase has
+     */
+    void progress(String engine, String phase, int done, int total);
+
+    /**
+     * Marks an engine as ready to serve requests.
+     *
+     * @param engine the hint of the annotation service
+     */
+    void ready(String engine);
+
+    /**
+     * Records that an engine doesn't prepare anything until something happens, for instance an engine initialized on
+     * its first request. Such an engine is considered ready, since keeping requests away would leave it idle forever.
+     *
+     * @param engine the hint of the annotation service
+     * @param phase what the engine is waiting for, e.g. {@code lazy}
+     */
+    void waiting(String engine, String phase);
+
+    /**
+     * Marks an engine as unable to serve requests, either because it failed to get ready or because it was disabled.
+     *
+     * @param engine the hint of the annotation service
+     * @param phase the phase that failed, e.g. {@code failed} or {@code disabled}
+     * @param error a description of the problem
+     */
+    void failed(String engine, String phase, String error);
+
+    /**
+     * @param engine the hint of an annotation service
+     * @return {@code false} if that engine is still getting ready, or can't serve requests
+     */
+    boolean isReady(String engine);
+
+    /**
+     * @param engine the hint of an annotation service
+     * @return {@code true} if that engine is still getting ready, {@code false} if it is ready or failed
+     */
+    boolean isPreparing(String engine);
+
+    /**
+     * @return for each engine that reported its readiness, whether it is {@code ready}, its current {@code phase}, how
+     *         many steps of that phase are {@code done} out of the {@code total}, and the {@code error} that made it
+     *         fail, if any
+     */
+    Map<String, Map<String, Object>> getStatus();
+}
@@ -0,0 +1,253 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.AnnotationResult;
+import org.phenotips.textanalysis.TermAnnotation;
+import org.phenotips.textanalysis.TermAnnotationService;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+
+/**
+ * Implementation of {@link TermAnnotationService} running several other annotation services concurrently on the
+ * same text, and merging their hits. The engines share a deadline: the hits of those that didn't finish in time are
+ * left out, so a request costs about as much as the slowest engine that answers in time, not the sum of all of them.
+ * Such a partial answer depends on how busy the engines were, so {@link #annotate(String, long, TimeUnit)} reports it
+ * as truncated, and it must not be kept; the methods returning plain lists of annotations can't tell it apart. The
+ * annotations returned by the engines are merged as they are, without looking up their terms again; only the
+ * streaming and compact batch methods, which go through {@link #extract(String)}, resolve the merged hits again,
+ * mostly from the shared term cache.
+ *
+ * @version $Id$
+ * @since 1.3
+ */
+@Component
+@Named(EnsembleAnnotationService.HINT)
+@Singleton
+public class EnsembleAnnotationService extends AbstractTermAnnotationService
+{
+    /** The hint of this service. */
+    public static final String HINT = "ensemble";
+
+    @Inject
+    @Named("context")
+    private Provider<ComponentManager> componentManager;
+
+    @Inject
+    private Logger logger;
+
+    /**
+     * The annotations merged from the engines which answered in time.
+     */
+    private static final class Merged
+    {
+        private final List<TermAnnotation> annotations;
+
+        /** Whether some of the engines didn't answer in time or failed. */
+        private final boolean truncated;
+
+        Merged(List<TermAnnotation> annotations, boolean truncated)
+        {
+            this.annotations = annotations;
+            this.truncated = truncated;
+        }
+    }
+
+    @Override
+    public List<TermAnnotation> annotate(String text) throws AnnotationException
+    {
+        return run(text, getBudget(0, TimeUnit.MILLISECONDS)).annotations;
+    }
+
+    @Override
+    public AnnotationResult annotate(String text, long timeout, TimeUnit unit) throws AnnotationException
+    {
+        Merged merged = run(text, getBudget(timeout, unit));
+        return new AnnotationResult(merged.annotations, merged.truncated);
+    }
+
+    @Override
+    public List<List<TermAnnotation>> annotateBatch(List<String> texts) throws AnnotationException
+    {
+        // The engines already annotate each text concurrently, and resolve their own terms
+        List<List<TermAnnotation>> result = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            result.add(annotate(text));
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<AnnotationResult> annotateAsync(final String text, final long timeout,
+        final TimeUnit unit)
+    {
+        // The engines run on their own workers, so the whole document is annotated at once, within the shared deadline
+        return submit(new Callable<AnnotationResult>()
+        {
+            @Override
+            public AnnotationResult call() throws AnnotationException
+            {
+                return annotate(text, timeout, unit);
+            }
+        });
+    }
+
+    @Override
+    protected List<RawAnnotation> extract(String text) throws AnnotationException
+    {
+        List<TermAnnotation> annotations = run(text, getBudget(0, TimeUnit.MILLISECONDS)).annotations;
+        List<RawAnnotation> hits = new ArrayList<>(annotations.size());
+        for (TermAnnotation annotation : annotations) {
+            hits.add(new RawAnnotation(annotation.getTerm().getId(), (int) annotation.getStartPos(),
+                (int) annotation.getEndPos()));
+        }
+        return hits;
+    }
+
+    /**
+     * Hits depend on which engines finished in time, so they can't be cached; the engines cache their own hits anyway.
+     */
+    @Override
+    protected boolean isSentenceCacheSupported()
+    {
+        return false;
+    }
+
+    /**
+     * Combines the configured ensemble timeout with the budget of the request, either of which may be unlimited.
+     *
+     * @return how long, in milliseconds, to wait for the engines, or 0 to wait for all of them
+     */
+    private long getBudget(long timeout, TimeUnit unit)
+    {
+        long budget = Math.max(0, getConfiguration().getEnsembleTimeout());
+        if (timeout > 0) {
+            long requested = Math.max(1, unit.toMillis(timeout));
+            budget = budget > 0 ? Math.min(budget, requested) : requested;
+        }
+        return budget;
+    }
+
+    /**
+     * Runs all the engines on the text and merges the annotations of those answering within the timeout.
+     *
+     * @param timeout how long, in milliseconds, to wait for the engines, or 0 to wait for all of them
+     */
+    private Merged run(String text, long timeout) throws AnnotationException
+    {
+        List<String> names = new ArrayList<>();
+        List<CompletableFuture<List<TermAnnotation>>> pending = new ArrayList<>();
+        for (Map.Entry<String, TermAnnotationService> engine : getEngines().entrySet()) {
+            names.add(engine.getKey());
+            pending.add(engine.getValue().annotateAsync(text));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        // Keyed by span and term, so that a hit found by several engines is only reported once
+        Map<String, TermAnnotation> hits = new LinkedHashMap<>();
+        int answered = 0;
+        int refused = 0;
+        Exception failure = null;
+        try {
+            for (int i = 0; i < pending.size(); ++i) {
+                try {
+                    List<TermAnnotation> found = timeout > 0
+                        ? pending.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)
+                        : pending.get(i).get();
+                    ++answered;
+                    merge(found, hits);
+                } catch (TimeoutException e) {
+                    this.logger.debug("Annotation engine [{}] didn't finish within {} ms", names.get(i), timeout);
+                } catch (ExecutionException e) {
+                    this.logger.warn("Annotation engine [{}] failed: {}", names.get(i), e.getCause().getMessage());
+                    failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    if (failure instanceof EngineOverloadedException) {
+                        ++refused;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AnnotationException("Interrupted while waiting for the annotation engines", e);
+        } finally {
+            // Late engines are not waited for, so stop them instead of letting them use a worker for nothing
+            for (CompletableFuture<List<TermAnnotation>> future : pending) {
+                future.cancel(true);
+            }
+        }
+        if (refused > 0 && refused == pending.size()) {
+            throw new EngineOverloadedException("All the annotation engines are busy, try again later");
+        } else if (answered == 0 && failure != null) {
+            throw new AnnotationException("All annotation engines failed", failure);
+        }
+        return new Merged(new ArrayList<>(hits.values()), answered < pending.size());
+    }
+
+    private Map<String, TermAnnotationService> getEngines() throws AnnotationException
+    {
+        Map<String, TermAnnotationService> engines = new LinkedHashMap<>();
+        List<String> names = getConfiguration().getEnsembleEngines();
+        if (names != null) {
+            for (String name : names) {
+                if (HINT.equals(name) || engines.containsKey(name)) {
+                    continue;
+                }
+                try {
+                    engines.put(name,
+                        this.componentManager.get().<TermAnnotationService>getInstance(TermAnnotationService.class,
+                            name));
+                } catch (ComponentLookupException e) {
+                    this.logger.debug("Annotation engine [{}] is not available: {}", name, e.getMessage());
+                }
+            }
+        }
+        if (engines.isEmpty()) {
+            throw new AnnotationException("None of the configured annotation engines is available");
+        }
+        return engines;
+    }
+
+    private void merge(List<TermAnnotation> found, Map<String, TermAnnotation> hits)
+    {
+        for (TermAnnotation annotation : found) {
+            String key = annotation.getStartPos() + "-" + annotation.getEndPos() + '/' + annotation.getTerm().getId();
+            if (!hits.containsKey(key)) {
+                hits.put(key, annotation);
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+/**
+ * Tells whether Flight Recorder events can be used. The event classes extend {@code jdk.jfr.Event}, which older or
+ * non-OpenJDK runtimes lack, so they must only be instantiated when {@link #isEnabled()} is {@code true}; the check is
+ * done once, when this class is first used.
+ *
+ * @version $Id$
+ */
+public final class FlightRecorderSupport
+{
+    private static final boolean ENABLED = check();
+
+    private FlightRecorderSupport()
+    {
+        // Utility class
+    }
+
+    /**
+     * Whether the Flight Recorder API is available in this JVM.
+     *
+     * @return {@code true} if events can be created
+     */
+    public static boolean isEnabled()
+    {
+        return ENABLED;
+    }
+
+    private static boolean check()
+    {
+        try {
+            Class.forName("jdk.jfr.Event", false, FlightRecorderSupport.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+/**
+ * A hit reported by an annotation engine, before its term identifier has been resolved against a vocabulary.
+ *
+ * @version $Id$
+ */
+public final class RawAnnotation
+{
+    private final String termId;
+
+    private final int start;
+
+    private final int end;
+
+    /**
+     * Constructs a raw annotation.
+     *
+     * @param termId the identifier of the term found, e.g. {@code HP:0000478}
+     * @param start position in text where the term occurs
+     * @param end position in text where the term occurrence ends
+     */
+    public RawAnnotation(String termId, int start, int end)
+    {
+        this.termId = termId;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * @return the identifier of the term found
+     */
+    public String getTermId()
+    {
+        return this.termId;
+    }
+
+    /**
+     * @return position in text where the term occurs
+     */
+    public int getStart()
+    {
+        return this.start;
+    }
+
+    /**
+     * @return position in text where the term occurrence ends
+     */
+    public int getEnd()
+    {
+        return this.end;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.xwiki.component.annotation.Role;
+
+import java.util.Map;
+
+/**
+ * Background job annotating the clinical notes of every patient record again, typically after a new release of the
+ * vocabulary, so that page views find the results in the {@link AnnotationStore}. Progress is saved regularly, so
+ * that an interrupted job resumes where it stopped after a restart.
+ *
+ * @version $Id$
+ */
+@Role
+public interface ReannotationJob
+{
+    /**
+     * Starts annotating all the patient records from the beginning, unless the job is already running.
+     *
+     * @return {@code false} if the job was already running
+     */
+    boolean start();
+
+    /**
+     * Resumes a job interrupted by a restart, or starts a new one if automatic re-annotation is enabled and the
+     * vocabulary was reindexed since the last complete run.
+     */
+    void resume();
+
+    /**
+     * Stops the running job, which won't be resumed at the next restart.
+     */
+    void stop();
+
+    /**
+     * @return the state of the job ({@code state}), the vocabulary version and engine used, how many records there
+     *         are ({@code total}), were processed, annotated, skipped because their notes were already stored, and
+     *         failed, the processing rate in records per second ({@code throughput}) and the estimated remaining time
+     *         in seconds ({@code eta})
+     */
+    Map<String, Object> getStatus();
+}
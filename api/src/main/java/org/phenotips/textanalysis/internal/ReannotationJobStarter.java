@@ -15,11 +15,8 @@
  * You should have received a copy of the GNU Affero General Public License
  * along with this program.  If not, see http://www.gnu.org/licenses/
  */
-
 package org.phenotips.textanalysis.internal;
 
-import org.phenotips.textanalysis.TermAnnotationService;
-
 import org.xwiki.component.annotation.Component;
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.event.ApplicationStartedEvent;
@@ -33,25 +30,26 @@
 import javax.inject.Singleton;
 
 /**
- * Hook into phenotips startup to pre-initialize Term Annotation Service.
+ * Hook into phenotips startup to resume a bulk re-annotation interrupted by the last shutdown, or to start one when
+ * the vocabulary was reindexed and automatic re-annotation is enabled.
  *
- * @since 1.1M1
  * @version $Id$
  */
-
 @Component
-@Named("termannotationserviceinitializer")
+@Named(ReannotationJobStarter.NAME)
 @Singleton
-public class TermAnnotationServiceInitializer implements EventListener
+public class ReannotationJobStarter implements EventListener
 {
+    /** The name of this listener. */
+    public static final String NAME = "textanalysis-reannotation";
+
     @Inject
-    @Named("biolark")
-    private TermAnnotationService service;
+    private ReannotationJob job;
 
     @Override
     public String getName()
     {
-        return "termannotationserviceinitializer";
+        return NAME;
     }
 
     @Override
@@ -61,8 +59,8 @@ public List<Event> getEvents()
     }
 
     @Override
-    public void onEvent(Event event, Object o, Object o2)
+    public void onEvent(Event event, Object source, Object data)
     {
-        // don't do anything, just injecting the service.
+        this.job.resume();
     }
 }
@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.xwiki.component.annotation.Role;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of the raw hits an engine found in single sentences, keyed by the content of the sentence. Since
+ * clinical notes are edited a sentence at a time, most sentences of a re-annotated note are found here.
+ *
+ * @version $Id$
+ */
+@Role
+public interface SentenceAnnotationCache
+{
+    /**
+     * Computes the key under which the hits found in a sentence are cached.
+     *
+     * @param sentence the annotated sentence
+     * @param engine the name of the annotation engine
+     * @return a key combining a strong hash of the sentence, the engine and the current vocabulary version
+     */
+    String getKey(String sentence, String engine);
+
+    /**
+     * @param key the key returned by {@link #getKey(String, String)}
+     * @return the cached hits, with positions relative to the start of the sentence, or {@code null} if the sentence
+     *         isn't cached
+     */
+    List<RawAnnotation> get(String key);
+
+    /**
+     * Caches the hits found in a sentence, evicting the least recently used sentences if the cache grows too large.
+     *
+     * @param key the key returned by {@link #getKey(String, String)}
+     * @param hits the hits, with positions relative to the start of the sentence
+     */
+    void put(String key, List<RawAnnotation> hits);
+
+    /**
+     * @return counters for hits, misses and evictions, and the current size of the cache
+     */
+    Map<String, Long> getStatistics();
+}
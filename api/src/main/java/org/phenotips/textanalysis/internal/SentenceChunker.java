@@ -0,0 +1,117 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.BreakIterator;
+import java.util.Locale;
+
+/**
+ * Splits the text read from a {@link Reader} into chunks that end on a sentence boundary, holding at most one chunk
+ * in memory at a time. A single sentence longer than the chunk size is cut at its last whitespace instead.
+ *
+ * @version $Id$
+ */
+public class SentenceChunker
+{
+    private final Reader reader;
+
+    private final char[] buffer;
+
+    /** How many characters of the buffer are filled. */
+    private int length;
+
+    /** Position in the whole text of the first character in the buffer. */
+    private long bufferOffset;
+
+    /** Position in the whole text of the last chunk returned. */
+    private long chunkOffset;
+
+    private boolean eof;
+
+    /**
+     * @param reader where to read the text from
+     * @param chunkSize the maximum number of characters in a chunk
+     */
+    public SentenceChunker(Reader reader, int chunkSize)
+    {
+        this.reader = reader;
+        this.buffer = new char[chunkSize];
+    }
+
+    /**
+     * Reads the next chunk of text.
+     *
+     * @return the next chunk, or {@code null} when the whole text has been read
+     * @throws IOException if reading fails
+     */
+    public String next() throws IOException
+    {
+        fill();
+        if (this.length == 0) {
+            return null;
+        }
+        String window = new String(this.buffer, 0, this.length);
+        int cut = this.eof ? this.length : findCut(window);
+        this.chunkOffset = this.bufferOffset;
+        System.arraycopy(this.buffer, cut, this.buffer, 0, this.length - cut);
+        this.length -= cut;
+        this.bufferOffset += cut;
+        return cut == window.length() ? window : window.substring(0, cut);
+    }
+
+    /**
+     * @return the position in the whole text where the last chunk returned by {@link #next()} starts
+     */
+    public long getChunkOffset()
+    {
+        return this.chunkOffset;
+    }
+
+    private void fill() throws IOException
+    {
+        while (!this.eof && this.length < this.buffer.length) {
+            int read = this.reader.read(this.buffer, this.length, this.buffer.length - this.length);
+            if (read < 0) {
+                this.eof = true;
+            } else {
+                this.length += read;
+            }
+        }
+    }
+
+    /**
+     * Finds where to end the current chunk: before the last, possibly incomplete, sentence in the buffer.
+     */
+    private int findCut(String window)
+    {
+        BreakIterator sentences = BreakIterator.getSentenceInstance(Locale.US);
+        sentences.setText(window);
+        int cut = sentences.preceding(window.length());
+        if (cut > 0) {
+            return cut;
+        }
+        for (int i = window.length() - 1; i > 0; --i) {
+            if (Character.isWhitespace(window.charAt(i))) {
+                return i + 1;
+            }
+        }
+        return window.length();
+    }
+}
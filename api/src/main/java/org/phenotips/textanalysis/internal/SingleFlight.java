@@ -0,0 +1,197 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical concurrent computations: while a computation for a key is running, other callers asking for
+ * the same key share it instead of starting their own. Each caller gets its own future, so one caller cancelling
+ * doesn't affect the others; the shared computation is only cancelled once all its callers have cancelled. Failures
+ * are reported to all the callers. Nothing is kept once a computation is over, this is not a cache.
+ *
+ * @param <K> the type of the keys identifying computations
+ * @param <V> the type of the results
+ * @version $Id$
+ */
+public class SingleFlight<K, V>
+{
+    private final ConcurrentMap<K, Flight> flights = new ConcurrentHashMap<>();
+
+    private final AtomicLong started = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Joins the running computation for a key, or starts a new one. A new computation is started in the calling
+     * thread, so a computation that blocks will block the first caller, while the others wait on their future.
+     *
+     * @param key identifies the computation
+     * @param computation starts the computation, called only if none is running for the key
+     * @return a future result, private to the caller
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> computation)
+    {
+        while (true) {
+            Flight flight = new Flight(key);
+            Flight running = this.flights.putIfAbsent(key, flight);
+            if (running == null) {
+                CompletableFuture<V> result = flight.attach();
+                this.started.incrementAndGet();
+                flight.start(computation);
+                return result;
+            }
+            CompletableFuture<V> result = running.attach();
+            if (result != null) {
+                this.coalesced.incrementAndGet();
+                return result;
+            }
+            // Abandoned by all its callers and being torn down, start over
+            this.flights.remove(key, running);
+        }
+    }
+
+    /**
+     * @return the number of computations started, the number of calls that joined a running computation instead, and
+     *         the number of computations running now
+     */
+    public Map<String, Long> getStatistics()
+    {
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("started", this.started.get());
+        result.put("coalesced", this.coalesced.get());
+        result.put("running", (long) this.flights.size());
+        return result;
+    }
+
+    private static Throwable unwrap(Throwable error)
+    {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    /**
+     * A running computation and the callers waiting for it.
+     */
+    private final class Flight
+    {
+        private final K key;
+
+        private final CompletableFuture<V> result = new CompletableFuture<>();
+
+        /** The computation itself, cancelled when all the callers have cancelled. */
+        private CompletableFuture<V> source;
+
+        private int callers;
+
+        private boolean abandoned;
+
+        Flight(K key)
+        {
+            this.key = key;
+        }
+
+        void start(Supplier<CompletableFuture<V>> computation)
+        {
+            CompletableFuture<V> started;
+            try {
+                started = computation.get();
+            } catch (RuntimeException e) {
+                started = new CompletableFuture<>();
+                started.completeExceptionally(e);
+            }
+            boolean cancel;
+            synchronized (this) {
+                this.source = started;
+                cancel = this.abandoned;
+            }
+            if (cancel) {
+                started.cancel(true);
+            }
+            started.whenComplete(new BiConsumer<V, Throwable>()
+            {
+                @Override
+                public void accept(V value, Throwable error)
+                {
+                    SingleFlight.this.flights.remove(Flight.this.key, Flight.this);
+                    if (error != null) {
+                        Flight.this.result.completeExceptionally(unwrap(error));
+                    } else {
+                        Flight.this.result.complete(value);
+                    }
+                }
+            });
+        }
+
+        synchronized CompletableFuture<V> attach()
+        {
+            if (this.abandoned) {
+                return null;
+            }
+            ++this.callers;
+            final CompletableFuture<V> view = new CompletableFuture<>();
+            this.result.whenComplete(new BiConsumer<V, Throwable>()
+            {
+                @Override
+                public void accept(V value, Throwable error)
+                {
+                    if (error != null) {
+                        view.completeExceptionally(unwrap(error));
+                    } else {
+                        view.complete(value);
+                    }
+                }
+            });
+            view.whenComplete(new BiConsumer<V, Throwable>()
+            {
+                @Override
+                public void accept(V value, Throwable error)
+                {
+                    if (view.isCancelled()) {
+                        detach();
+                    }
+                }
+            });
+            return view;
+        }
+
+        void detach()
+        {
+            CompletableFuture<V> toCancel = null;
+            synchronized (this) {
+                if (--this.callers > 0 || this.result.isDone()) {
+                    return;
+                }
+                this.abandoned = true;
+                toCancel = this.source;
+            }
+            SingleFlight.this.flights.remove(this.key, this);
+            this.result.cancel(false);
+            if (toCancel != null) {
+                toCancel.cancel(true);
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.xwiki.component.annotation.Role;
+
+import java.util.List;
+
+/**
+ * Tuning options for the term annotation services, read from {@code xwiki.properties}.
+ *
+ * @version $Id$
+ */
+@Role
+public interface TermAnnotationConfiguration
+{
+    /**
+     * @return the number of worker threads used to annotate documents in a batch; a value lower than 1 means one
+     *         thread per available processor
+     */
+    int getBatchThreads();
+
+    /**
+     * @return the number of worker threads serving asynchronous annotation requests; a value lower than 1 means one
+     *         thread per available processor
+     */
+    int getAsyncThreads();
+
+    /**
+     * @return how many asynchronous annotation requests may wait for a free worker before new ones are rejected
+     */
+    int getAsyncQueueSize();
+
+    /**
+     * @return the maximum number of characters of a streamed text that are annotated at once
+     */
+    int getStreamChunkSize();
+
+    /**
+     * @return the maximum number of complete annotation results kept in memory; 0 disables the result cache
+     */
+    int getResultCacheSize();
+
+    /**
+     * @return an upper bound, in bytes, for the estimated memory used by cached annotation results
+     */
+    long getResultCacheMemory();
+
+    /**
+     * @return an upper bound, in bytes, for the size of the file where annotation results are kept across restarts;
+     *         0 disables the persistent store
+     */
+    long getResultStoreSize();
+
+    /**
+     * @return whether texts are annotated sentence by sentence, reusing the hits cached for unchanged sentences;
+     *         disabled by default, since engines then see each sentence apart from the rest of the text
+     */
+    boolean isSentenceCacheEnabled();
+
+    /**
+     * @return the maximum number of sentences whose hits are kept in memory
+     */
+    int getSentenceCacheSize();
+
+    /**
+     * @return the maximum number of resolved vocabulary terms kept in memory; 0 disables the term cache
+     */
+    int getTermCacheSize();
+
+    /**
+     * @return the hint of the annotation service used by scripts, e.g. {@code scigraph} or {@code ensemble}
+     */
+    String getEngine();
+
+    /**
+     * @return the hints of the annotation services combined by the {@code ensemble} service
+     */
+    List<String> getEnsembleEngines();
+
+    /**
+     * @return how long, in milliseconds, the {@code ensemble} service waits for its engines before returning the hits
+     *         of those that finished; 0 or less waits for all of them, within the budget of the request if any
+     */
+    long getEnsembleTimeout();
+
+    /**
+     * @return the time budget, in milliseconds, of annotation requests made from the user interface; when it runs
+     *         out, the annotations found so far are returned; 0 or less means no limit
+     */
+    long getRequestTimeout();
+
+    /**
+     * @param engine the hint of an annotation service
+     * @return how many calls may run at once in that engine; a value lower than 1 means one per available processor
+     */
+    int getEngineConcurrency(String engine);
+
+    /**
+     * @param engine the hint of an annotation service
+     * @return how many calls may wait for that engine when it is already running as many as it is allowed to; calls
+     *         beyond that are refused
+     */
+    int getEngineQueueSize(String engine);
+
+    /**
+     * @param engine the hint of an annotation service
+     * @return how long, in milliseconds, a call may wait for that engine before being refused
+     */
+    long getEngineQueueTimeout(String engine);
+
+    /**
+     * @param engine the hint of an annotation service
+     * @return how many instances of that engine serve calls in parallel, each used by one call at a time; 0 means a
+     *         single instance, used by all the calls at once if the engine is safe to share, and a value lower than 0
+     *         means one instance per call the engine may run at once
+     */
+    int getEngineInstances(String engine);
+
+    /**
+     * @param engine the hint of an annotation service
+     * @return when that engine is initialized: {@code eager} at startup, {@code lazy} on its first request, or
+     *         {@code disabled} never; unless configured, engines used by scripts are eager and the others lazy
+     */
+    String getEngineInitialization(String engine);
+
+    /**
+     * @param engine the hint of an annotation service
+     * @return how long, in milliseconds, a call may wait for that engine to finish initializing before being refused;
+     *         0 or less refuses it right away
+     */
+    long getEngineInitializationTimeout(String engine);
+
+    /**
+     * @return the number of worker threads annotating documents during a bulk re-annotation; a value lower than 1
+     *         means a single thread
+     */
+    int getReannotationThreads();
+
+    /**
+     * @return how many documents a bulk re-annotation reads at once; progress is saved after each such batch
+     */
+    int getReannotationBatchSize();
+
+    /**
+     * @return how long, in milliseconds, a bulk re-annotation backs off when the engine refuses a call because it is
+     *         busy with interactive requests
+     */
+    long getReannotationBackoff();
+
+    /**
+     * @return the names of the patient record properties holding the clinical notes re-annotated in bulk; their values
+     *         are joined with new lines and annotated as one text, like the clinical notes panel does
+     */
+    List<String> getReannotationFields();
+
+    /**
+     * @return whether all the clinical notes are re-annotated in bulk at startup when the vocabulary was reindexed
+     *         since the last complete re-annotation
+     */
+    boolean isReannotationAutomatic();
+
+    /**
+     * @param engine the hint of an annotation service
+     * @return how many times the warm-up corpus is run through that engine after startup, before it is reported as
+     *         ready; 0 disables the warm-up
+     */
+    int getWarmupRounds(String engine);
+
+    /**
+     * @param engine the hint of an annotation service
+     * @return the path of a text file with one clinical phrase per line, used to warm up that engine instead of the
+     *         bundled corpus; empty to use the bundled corpus
+     */
+    String getWarmupCorpus(String engine);
+
+    /**
+     * @param engine the hint of an annotation service
+     * @return how many child JVMs run that engine outside the wiki JVM, for engines that support it; 0 runs the engine
+     *         inside the wiki JVM
+     */
+    int getWorkerProcesses(String engine);
+
+    /**
+     * @param engine the hint of an annotation service
+     * @return the options passed to the child JVMs running that engine, separated by whitespace, such as their heap
+     *         size
+     */
+    String getWorkerJvmOptions(String engine);
+
+    /**
+     * @param engine the hint of an annotation service
+     * @return the classpath of the child JVMs running that engine; empty to use the libraries of the wiki
+     */
+    String getWorkerClasspath(String engine);
+
+    /**
+     * @param engine the hint of an annotation service
+     * @return how many queued texts are sent at once to a child JVM running that engine
+     */
+    int getWorkerBatchSize(String engine);
+
+    /**
+     * @param engine the hint of an annotation service
+     * @return how long, in milliseconds, a call waits for a child JVM running that engine to answer
+     */
+    long getWorkerTimeout(String engine);
+}
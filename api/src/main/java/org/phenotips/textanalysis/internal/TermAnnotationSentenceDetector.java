@@ -20,6 +20,7 @@
 import org.phenotips.textanalysis.TermAnnotation;
 
 import java.text.BreakIterator;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
@@ -30,41 +31,61 @@
  */
 public class TermAnnotationSentenceDetector
 {
+    private static final int INITIAL_BOUNDARIES = 16;
+
+    /**
+     * Finds where the sentences of a text start and end.
+     *
+     * @param text the text to split
+     * @return the sentence boundaries in increasing order: sentence {@code i} spans from {@code boundaries[i]} to
+     *         {@code boundaries[i + 1]}; the first element is always 0 and the last one the length of the text
+     */
+    public static int[] getSentenceBoundaries(String text)
+    {
+        BreakIterator sentences = BreakIterator.getSentenceInstance(Locale.US);
+        sentences.setText(text);
+        int[] boundaries = new int[INITIAL_BOUNDARIES];
+        int count = 0;
+        for (int boundary = sentences.first(); boundary != BreakIterator.DONE; boundary = sentences.next()) {
+            if (count == boundaries.length) {
+                boundaries = Arrays.copyOf(boundaries, 2 * count);
+            }
+            boundaries[count++] = boundary;
+        }
+        return Arrays.copyOf(boundaries, count);
+    }
+
     /**
-     * Attaches sentences to the term annotations given.
+     * Attaches sentences to the term annotations given. Sentence boundaries are computed once for the whole text and
+     * each annotation is then placed with a binary search; the sentences themselves are only extracted from the text
+     * when {@link TermAnnotation#getSentence()} is called.
+     *
      * @param annotations the annotations
      * @param text the text where the annotations appear
      */
     public void detectSentences(List<TermAnnotation> annotations, String text)
     {
-        BreakIterator sentences = BreakIterator.getSentenceInstance(Locale.US);
-        sentences.setText(text);
         Collections.sort(annotations);
-        int currentAnnotation = 0;
-        int currentSentence = 0;
-        while (currentSentence != BreakIterator.DONE && currentAnnotation < annotations.size()) {
-            TermAnnotation annotation = annotations.get(currentAnnotation);
-            int nextSentence = sentences.next();
-            sentences.previous();
-            if (annotation.getStartPos() >= currentSentence && annotation.getStartPos() < nextSentence) {
-                long start = annotation.getStartPos() - currentSentence;
-                long end = annotation.getEndPos() - currentSentence;
-                String sentence;
-                if (annotation.getEndPos() <= nextSentence) {
-                    /* Yay, straightforward! */
-                    sentence = text.substring(currentSentence, nextSentence);
-                } else {
-                    /* Uh-oh, cross sentence annotation */
-                    int crossSentenceEnd = sentences.following((int) annotation.getEndPos());
-                    sentence = text.substring(currentSentence, crossSentenceEnd);
-                    /* Rewind the iterator */
-                    sentences.preceding(currentSentence + 1);
-                }
-                annotation.setSentence(sentence, start, end);
-                currentAnnotation++;
-            } else {
-                currentSentence = sentences.next();
+        int[] boundaries = getSentenceBoundaries(text);
+        int last = boundaries.length - 1;
+        for (TermAnnotation annotation : annotations) {
+            long start = annotation.getStartPos();
+            if (start < 0 || start >= text.length()) {
+                continue;
+            }
+            int first = Arrays.binarySearch(boundaries, (int) start);
+            if (first < 0) {
+                // Not a boundary itself, so the sentence starts at the boundary just before
+                first = -first - 2;
+            }
+            int end = (int) Math.min(annotation.getEndPos(), text.length());
+            int following = Arrays.binarySearch(boundaries, first, boundaries.length, end);
+            if (following < 0) {
+                following = -following - 1;
             }
+            /* Annotations spanning several sentences get all of them */
+            int sentenceEnd = boundaries[Math.max(Math.min(following, last), first + 1)];
+            annotation.setSentenceBounds(text, boundaries[first], sentenceEnd);
         }
     }
 }
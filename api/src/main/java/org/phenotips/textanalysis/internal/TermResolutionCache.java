@@ -0,0 +1,53 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.annotation.Role;
+
+import java.util.Map;
+
+/**
+ * Cache of vocabulary terms shared by all the annotation services, so that the terms engines report over and over
+ * aren't looked up in the vocabulary index each time. The cache is emptied when the vocabulary is reindexed.
+ *
+ * @version $Id$
+ */
+@Role
+public interface TermResolutionCache
+{
+    /**
+     * @param termId the identifier of a term, e.g. {@code HP:0000478}
+     * @return the cached term, or {@code null} if it isn't cached
+     */
+    VocabularyTerm get(String termId);
+
+    /**
+     * Caches a term.
+     *
+     * @param termId the identifier under which the term was looked up
+     * @param term the term
+     */
+    void put(String termId, VocabularyTerm term);
+
+    /**
+     * @return counters for hits, misses, evictions and invalidations, and the current size of the cache
+     */
+    Map<String, Long> getStatistics();
+}
@@ -0,0 +1,67 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes strong content hashes of texts, used to key cached annotations.
+ *
+ * @version $Id$
+ */
+public final class TextDigest
+{
+    private static final String ALGORITHM = "SHA-256";
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final int NIBBLE = 4;
+
+    private static final int NIBBLE_MASK = 0xF;
+
+    private TextDigest()
+    {
+        // Utility class
+    }
+
+    /**
+     * Computes the SHA-256 digest of a text.
+     *
+     * @param text the text to hash
+     * @return the digest, as a lowercase hexadecimal string
+     */
+    public static String digest(CharSequence text)
+    {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        byte[] hash = digest.digest(text.toString().getBytes(StandardCharsets.UTF_8));
+        char[] result = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; ++i) {
+            result[2 * i] = HEX[(hash[i] >> NIBBLE) & NIBBLE_MASK];
+            result[2 * i + 1] = HEX[hash[i] & NIBBLE_MASK];
+        }
+        return new String(result);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Tells which version of the HPO vocabulary is currently indexed, so that cached annotations can be discarded when
+ * the vocabulary is reindexed.
+ *
+ * @version $Id$
+ */
+@Role
+public interface VocabularyVersionProvider
+{
+    /**
+     * @return the current vocabulary version, or {@code "unknown"} if it cannot be determined; never {@code null}
+     */
+    String getVersion();
+}
@@ -17,18 +17,48 @@
  */
 package org.phenotips.textanalysis.script;
 
+import org.phenotips.textanalysis.AnnotationResult;
 import org.phenotips.textanalysis.TermAnnotation;
 import org.phenotips.textanalysis.TermAnnotationService;
 import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+import org.phenotips.textanalysis.internal.AnnotationMetrics;
+import org.phenotips.textanalysis.internal.AnnotationRequestEvent;
+import org.phenotips.textanalysis.internal.AnnotationResultCache;
+import org.phenotips.textanalysis.internal.AnnotationStore;
+import org.phenotips.textanalysis.internal.EngineOverloadedException;
+import org.phenotips.textanalysis.internal.EngineReadiness;
+import org.phenotips.textanalysis.internal.EnsembleAnnotationService;
+import org.phenotips.textanalysis.internal.FlightRecorderSupport;
+import org.phenotips.textanalysis.internal.ReannotationJob;
+import org.phenotips.textanalysis.internal.SentenceAnnotationCache;
+import org.phenotips.textanalysis.internal.SingleFlight;
+import org.phenotips.textanalysis.internal.TermAnnotationConfiguration;
 import org.phenotips.textanalysis.internal.TermAnnotationSentenceDetector;
+import org.phenotips.textanalysis.internal.TermResolutionCache;
 
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.context.Execution;
 import org.xwiki.script.service.ScriptService;
+import org.xwiki.security.authorization.ContextualAuthorizationManager;
+import org.xwiki.security.authorization.Right;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 import javax.inject.Inject;
 import javax.inject.Named;
+import javax.inject.Provider;
 import javax.inject.Singleton;
 
 /**
@@ -43,9 +73,63 @@
 @Singleton
 public class TermAnnotationScriptService implements ScriptService
 {
+    /** The annotation engine used when none is configured. */
+    private static final String DEFAULT_ENGINE = "scigraph";
+
+    /** The key under which the last error is stored in the current execution context. */
+    private static final String ERROR_KEY = "scriptservice.annotations.error";
+
+    /** Metric name for whole annotation requests. */
+    private static final String REQUEST = "request";
+
+    /** Metric name for attaching sentences to annotations. */
+    private static final String SENTENCES = "sentences";
+
+    /** Metric name for the number of annotations returned. */
+    private static final String ANNOTATIONS = "request.annotations";
+
+    /** Metric name for the length of the texts annotated. */
+    private static final String INPUT_SIZE = "request.input";
+
+    /** The stages that scripts may time; any other name would add a new metric, kept for as long as the server runs. */
+    private static final Set<String> SCRIPT_STAGES = Collections.singleton("serialization");
+
+    @Inject
+    @Named("context")
+    private Provider<ComponentManager> componentManager;
+
+    @Inject
+    private TermAnnotationConfiguration configuration;
+
+    @Inject
+    private AnnotationResultCache cache;
+
+    @Inject
+    private AnnotationStore store;
+
+    @Inject
+    private SentenceAnnotationCache sentenceCache;
+
+    @Inject
+    private TermResolutionCache termCache;
+
+    @Inject
+    private AnnotationMetrics metrics;
+
     @Inject
-    @Named("scigraph")
-    private TermAnnotationService service;
+    private Execution execution;
+
+    @Inject
+    private ReannotationJob reannotation;
+
+    @Inject
+    private EngineReadiness readiness;
+
+    @Inject
+    private ContextualAuthorizationManager authorization;
+
+    /** Annotation requests currently running, so that identical concurrent requests can share them. */
+    private final SingleFlight<String, AnnotationResult> flights = new SingleFlight<>();
 
     /**
      * Returns a list of annotations of phenotypes found in text.
@@ -55,13 +139,492 @@ public class TermAnnotationScriptService implements ScriptService
      */
     public List<TermAnnotation> get(String text)
     {
+        AnnotationResult result = annotate(text, 0);
+        return result != null ? result.getAnnotations() : null;
+    }
+
+    /**
+     * Returns the annotations of phenotypes found in text within the time budget configured for requests. When the
+     * budget runs out, the annotations found so far are returned, and the result is marked as truncated.
+     *
+     * @param text Free form text
+     * @return the annotations found, or {@code null} if annotating failed
+     * @since 1.3
+     */
+    public AnnotationResult getWithTimeout(String text)
+    {
+        return annotate(text, this.configuration.getRequestTimeout());
+    }
+
+    /**
+     * Returns the annotations of phenotypes found in text within a time budget. When the budget runs out, the
+     * annotations found so far are returned, and the result is marked as truncated.
+     *
+     * @param text Free form text
+     * @param timeout the time budget, in milliseconds; 0 or less means no limit
+     * @return the annotations found, or {@code null} if annotating failed
+     * @since 1.3
+     */
+    public AnnotationResult getWithTimeout(String text, long timeout)
+    {
+        return annotate(text, timeout);
+    }
+
+    /**
+     * Returns usage statistics of the annotation caches. Requires administration rights.
+     *
+     * @return counters for cache hits, misses and evictions, and the current cache size, for the complete results
+     *         cache ({@code results}), the per sentence cache ({@code sentences}), the vocabulary term cache
+     *         ({@code terms}) and the persistent store ({@code store}), and how many identical concurrent requests
+     *         were served by a single computation ({@code inflight}); an empty map if the current user isn't allowed
+     *         to see them
+     * @since 1.3
+     */
+    public Map<String, Map<String, Long>> getCacheStatistics()
+    {
+        if (!this.authorization.hasAccess(Right.ADMIN)) {
+            return Collections.emptyMap();
+        }
+        Map<String, Map<String, Long>> result = new LinkedHashMap<>();
+        result.put("results", this.cache.getStatistics());
+        result.put("sentences", this.sentenceCache.getStatistics());
+        result.put("terms", this.termCache.getStatistics());
+        result.put("store", this.store.getStatistics());
+        result.put("inflight", this.flights.getStatistics());
+        return result;
+    }
+
+    /**
+     * Starts looking for phenotypes in text without blocking the current request. Sentences are attached to the
+     * annotations before the returned future completes.
+     *
+     * @param text Free form text
+     * @return a future list of annotations, which can be cancelled if the result isn't needed anymore
+     * @since 1.3
+     */
+    public CompletableFuture<List<TermAnnotation>> getAsync(final String text)
+    {
+        final long start = System.nanoTime();
+        this.metrics.recordValue(INPUT_SIZE, text.length());
+        final String engine = getEngine();
+        final String key = this.cache.getKey(text, engine);
+        List<TermAnnotation> cached = getCached(key, text);
+        if (cached != null) {
+            this.metrics.recordValue(ANNOTATIONS, cached.size());
+            this.metrics.recordTime(REQUEST, System.nanoTime() - start);
+            return CompletableFuture.completedFuture(cached);
+        }
+        final CompletableFuture<AnnotationResult> flight = this.flights.execute(getFlightKey(key, 0),
+            new Supplier<CompletableFuture<AnnotationResult>>()
+            {
+                @Override
+                public CompletableFuture<AnnotationResult> get()
+                {
+                    return computeAsync(key, text, engine);
+                }
+            });
+        final CompletableFuture<List<TermAnnotation>> result = flight.thenApply(
+            new Function<AnnotationResult, List<TermAnnotation>>()
+            {
+                @Override
+                public List<TermAnnotation> apply(AnnotationResult found)
+                {
+                    TermAnnotationScriptService.this.metrics.recordValue(ANNOTATIONS, found.getAnnotations().size());
+                    return found.getAnnotations();
+                }
+            });
+        // Dependent futures don't propagate cancellation upstream on their own
+        result.whenComplete(new BiConsumer<List<TermAnnotation>, Throwable>()
+        {
+            @Override
+            public void accept(List<TermAnnotation> found, Throwable error)
+            {
+                if (result.isCancelled()) {
+                    flight.cancel(true);
+                } else if (error != null) {
+                    TermAnnotationScriptService.this.metrics.recordError(REQUEST);
+                }
+                TermAnnotationScriptService.this.metrics.recordTime(REQUEST, System.nanoTime() - start);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Starts annotating again the clinical notes of all the patient records in the background, for instance after a
+     * new release of the vocabulary. Requires administration rights.
+     *
+     * @return {@code true} if the job was started, {@code false} if it was already running or the current user isn't
+     *         allowed to start it
+     * @since 1.3
+     */
+    public boolean startReannotation()
+    {
+        return this.authorization.hasAccess(Right.ADMIN) && this.reannotation.start();
+    }
+
+    /**
+     * Stops the background re-annotation of clinical notes. Requires administration rights.
+     *
+     * @since 1.3
+     */
+    public void stopReannotation()
+    {
+        if (this.authorization.hasAccess(Right.ADMIN)) {
+            this.reannotation.stop();
+        }
+    }
+
+    /**
+     * Reports the progress of the background re-annotation of clinical notes.
+     *
+     * @return the state and progress of the job; see {@link ReannotationJob#getStatus()} for their structure
+     * @since 1.3
+     */
+    public Map<String, Object> getReannotationStatus()
+    {
+        return this.reannotation.getStatus();
+    }
+
+    /**
+     * Checks whether the configured engine is ready to serve requests, or is still initializing or warming up after
+     * startup. The {@code ensemble} engine is ready once none of the engines it combines is still getting ready, and
+     * at least one of them is ready, since it can do without the engines that failed or are disabled.
+     *
+     * @return {@code false} if requests made now would pay the cost of a cold engine, or can't be served
+     * @since 1.3
+     */
+    public boolean isReady()
+    {
+        String engine = getEngine();
+        if (!EnsembleAnnotationService.HINT.equals(engine)) {
+            return this.readiness.isReady(engine);
+        }
+        boolean ready = false;
+        for (String member : this.configuration.getEnsembleEngines()) {
+            if (this.readiness.isPreparing(member)) {
+                return false;
+            }
+            ready |= this.readiness.isReady(member);
+        }
+        return ready;
+    }
+
+    /**
+     * Checks whether the configured engine is still initializing or warming up, so that requests refused now may
+     * succeed shortly. Unlike an engine still getting ready, an engine which failed or is disabled isn't worth waiting
+     * for. The {@code ensemble} engine is preparing as long as one of the engines it combines is.
+     *
+     * @return {@code true} if the configured engine will be ready shortly
+     * @since 1.3
+     */
+    public boolean isPreparing()
+    {
+        String engine = getEngine();
+        if (!EnsembleAnnotationService.HINT.equals(engine)) {
+            return this.readiness.isPreparing(engine);
+        }
+        for (String member : this.configuration.getEnsembleEngines()) {
+            if (this.readiness.isPreparing(member)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reports whether the configured engine is ready, and how far each engine got in getting ready.
+     *
+     * @return {@code ready} for the configured engine, and the status of each engine under {@code engines}; see
+     *         {@link EngineReadiness#getStatus()} for their structure
+     * @since 1.3
+     */
+    public Map<String, Object> getReadiness()
+    {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("ready", isReady());
+        result.put("engines", this.readiness.getStatus());
+        return result;
+    }
+
+    /**
+     * Returns latency, size and error metrics of the annotation pipeline, for monitoring. Requires administration
+     * rights.
+     *
+     * @return the metrics, by name; see {@link AnnotationMetrics#getMetrics()} for their structure; an empty map if the
+     *         current user isn't allowed to see them
+     * @since 1.3
+     */
+    public Map<String, Map<String, Long>> getMetrics()
+    {
+        if (!this.authorization.hasAccess(Right.ADMIN)) {
+            return Collections.emptyMap();
+        }
+        return this.metrics.getMetrics();
+    }
+
+    /**
+     * Starts timing a stage done by a script, such as serializing the annotations.
+     *
+     * @return the start time, to pass to {@link #stopTimer(String, long)}
+     * @since 1.3
+     */
+    public long startTimer()
+    {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the duration of a stage done by a script. Only known stages are recorded, currently
+     * {@code serialization}; the duration of other stages is only returned.
+     *
+     * @param stage the name of the stage
+     * @param start the start time, as returned by {@link #startTimer()}
+     * @return the duration of the stage, in nanoseconds
+     * @since 1.3
+     */
+    public long stopTimer(String stage, long start)
+    {
+        long duration = System.nanoTime() - start;
+        if (SCRIPT_STAGES.contains(stage)) {
+            this.metrics.recordTime(stage, duration);
+        }
+        return duration;
+    }
+
+    private AnnotationResult annotate(final String text, final long timeout)
+    {
+        final AnnotationRequestEvent event =
+            FlightRecorderSupport.isEnabled() ? new AnnotationRequestEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        long start = System.nanoTime();
+        this.metrics.recordValue(INPUT_SIZE, text.length());
+        AnnotationResult result = null;
+        final String engine = getEngine();
+        clearError();
         try {
-            List<TermAnnotation> retval = this.service.annotate(text);
-            TermAnnotationSentenceDetector detector = new TermAnnotationSentenceDetector();
-            detector.detectSentences(retval, text);
-            return retval;
+            final String key = this.cache.getKey(text, engine);
+            List<TermAnnotation> cached = getCached(key, text);
+            if (cached != null) {
+                if (event != null) {
+                    event.cached = true;
+                }
+                result = new AnnotationResult(cached, false);
+            } else {
+                // Identical requests running at the same time share the work of the first one
+                result = await(this.flights.execute(getFlightKey(key, timeout),
+                    new Supplier<CompletableFuture<AnnotationResult>>()
+                    {
+                        @Override
+                        public CompletableFuture<AnnotationResult> get()
+                        {
+                            CompletableFuture<AnnotationResult> computed = new CompletableFuture<>();
+                            try {
+                                computed.complete(compute(key, text, engine, timeout, event));
+                            } catch (AnnotationException | RuntimeException e) {
+                                computed.completeExceptionally(e);
+                            }
+                            return computed;
+                        }
+                    }));
+            }
+            this.metrics.recordValue(ANNOTATIONS, result.getAnnotations().size());
+            return result;
         } catch (AnnotationException e) {
+            this.metrics.recordError(REQUEST);
+            setError(e);
             return null;
+        } finally {
+            this.metrics.recordTime(REQUEST, System.nanoTime() - start);
+            if (event != null) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.engine = engine;
+                    event.textLength = text.length();
+                    event.annotations = result != null ? result.getAnnotations().size() : 0;
+                    event.truncated = result != null && result.isTruncated();
+                    event.commit();
+                }
+            }
         }
     }
+
+    /**
+     * Get the error generated while performing the previously called action.
+     *
+     * @return an eventual exception or {@code null} if no exception was thrown
+     * @since 1.3
+     */
+    public Exception getLastError()
+    {
+        return (Exception) this.execution.getContext().getProperty(ERROR_KEY);
+    }
+
+    /**
+     * Tells whether the previous request was refused because the annotation engine was overloaded, in which case it
+     * can be retried a moment later.
+     *
+     * @return {@code true} if the last error was caused by an overloaded engine
+     * @since 1.3
+     */
+    public boolean isLastRequestRejected()
+    {
+        return getLastError() instanceof EngineOverloadedException;
+    }
+
+    private void setError(Exception e)
+    {
+        this.execution.getContext().setProperty(ERROR_KEY, e);
+    }
+
+    private void clearError()
+    {
+        this.execution.getContext().removeProperty(ERROR_KEY);
+    }
+
+    private String getEngine()
+    {
+        String engine = this.configuration.getEngine();
+        return engine != null ? engine : DEFAULT_ENGINE;
+    }
+
+    private TermAnnotationService getService(String engine) throws AnnotationException
+    {
+        try {
+            return this.componentManager.get().getInstance(TermAnnotationService.class, engine);
+        } catch (ComponentLookupException e) {
+            throw new AnnotationException("Unknown annotation engine: " + engine, e);
+        }
+    }
+
+    /**
+     * Looks for the annotations of a text in memory, then on disk; annotations found on disk get their sentences
+     * attached and are kept in memory for the next requests.
+     */
+    private List<TermAnnotation> getCached(String key, String text)
+    {
+        List<TermAnnotation> result = this.cache.get(key);
+        if (result == null) {
+            List<TermAnnotation> stored = this.store.get(key);
+            if (stored != null) {
+                detectSentences(stored, text);
+                result = Collections.unmodifiableList(stored);
+                this.cache.put(key, result, text.length());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Runs the annotation engine in the current thread, attaches sentences and caches the result. The event is
+     * {@code null} when Flight Recorder isn't available.
+     */
+    private AnnotationResult compute(String key, String text, String engine, long timeout,
+        AnnotationRequestEvent event) throws AnnotationException
+    {
+        TermAnnotationService service = getService(engine);
+        AnnotationResult result = service.annotate(text, timeout, TimeUnit.MILLISECONDS);
+        List<TermAnnotation> annotations = result.getAnnotations();
+        long sentenceDuration = detectSentences(annotations, text);
+        if (event != null) {
+            event.sentenceDuration = sentenceDuration;
+        }
+        result = new AnnotationResult(Collections.unmodifiableList(annotations), result.isTruncated());
+        // A truncated result depends on how busy the engine was, so don't serve it again
+        if (!result.isTruncated()) {
+            this.cache.put(key, result.getAnnotations(), text.length());
+            this.store.put(key, result.getAnnotations());
+        }
+        return result;
+    }
+
+    /**
+     * Starts the annotation engine in the background; sentences are attached and the result is cached before the
+     * returned future completes, and cancelling it cancels the engine call.
+     */
+    private CompletableFuture<AnnotationResult> computeAsync(final String key, final String text, String engine)
+    {
+        final CompletableFuture<AnnotationResult> annotations;
+        try {
+            annotations = getService(engine).annotateAsync(text, 0, TimeUnit.MILLISECONDS);
+        } catch (AnnotationException e) {
+            CompletableFuture<AnnotationResult> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        final CompletableFuture<AnnotationResult> result = annotations.thenApply(
+            new Function<AnnotationResult, AnnotationResult>()
+            {
+                @Override
+                public AnnotationResult apply(AnnotationResult found)
+                {
+                    detectSentences(found.getAnnotations(), text);
+                    List<TermAnnotation> shared = Collections.unmodifiableList(found.getAnnotations());
+                    // Some engines may not have answered, so don't serve or keep a partial result
+                    if (!found.isTruncated()) {
+                        TermAnnotationScriptService.this.cache.put(key, shared, text.length());
+                        TermAnnotationScriptService.this.store.put(key, shared);
+                    }
+                    return new AnnotationResult(shared, found.isTruncated());
+                }
+            });
+        result.whenComplete(new BiConsumer<AnnotationResult, Throwable>()
+        {
+            @Override
+            public void accept(AnnotationResult found, Throwable error)
+            {
+                if (result.isCancelled()) {
+                    annotations.cancel(true);
+                }
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Waits for a shared annotation request; if the current thread is interrupted, only its own wait is cancelled.
+     */
+    private AnnotationResult await(CompletableFuture<AnnotationResult> flight) throws AnnotationException
+    {
+        try {
+            return flight.get();
+        } catch (InterruptedException e) {
+            flight.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new AnnotationException("Interrupted while waiting for annotations", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof AnnotationException) {
+                throw (AnnotationException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new AnnotationException(cause.getMessage(), (Exception) cause);
+        }
+    }
+
+    /**
+     * Identifies a request by its text, engine and vocabulary version, as in the result cache, and by its options.
+     */
+    private String getFlightKey(String cacheKey, long timeout)
+    {
+        return cacheKey + '/' + Math.max(timeout, 0);
+    }
+
+    /**
+     * Attaches sentences to annotations, returning how long it took.
+     */
+    private long detectSentences(List<TermAnnotation> annotations, String text)
+    {
+        long start = System.nanoTime();
+        TermAnnotationSentenceDetector detector = new TermAnnotationSentenceDetector();
+        detector.detectSentences(annotations, text);
+        long duration = System.nanoTime() - start;
+        this.metrics.recordTime(SENTENCES, duration);
+        return duration;
+    }
 }
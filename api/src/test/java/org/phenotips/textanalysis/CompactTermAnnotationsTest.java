@@ -0,0 +1,111 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis;
+
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link CompactTermAnnotations}.
+ *
+ * @version $Id$
+ */
+public class CompactTermAnnotationsTest
+{
+    @Test
+    public void termsAreSharedThroughTheDictionary()
+    {
+        TermDictionary dictionary = new TermDictionary();
+        VocabularyTerm blueEyes = term("HP:0000635");
+        CompactTermAnnotations first = new CompactTermAnnotations(dictionary);
+        CompactTermAnnotations second = new CompactTermAnnotations(dictionary);
+        first.add(0, 9, blueEyes);
+        second.add(4, 13, term("HP:0000635"));
+
+        assertEquals(1, dictionary.size());
+        assertEquals(first.getTermIndex(0), second.getTermIndex(0));
+        assertSame(blueEyes, second.getTerm(0));
+    }
+
+    @Test
+    public void annotationsAreSortedByPosition()
+    {
+        CompactTermAnnotations annotations = new CompactTermAnnotations(new TermDictionary(), 1);
+        VocabularyTerm a = term("HP:0000001");
+        VocabularyTerm b = term("HP:0000002");
+        VocabularyTerm c = term("HP:0000003");
+        annotations.add(40, 50, c);
+        annotations.add(10, 30, b);
+        annotations.add(10, 20, a);
+        annotations.sort();
+
+        assertEquals(3, annotations.size());
+        assertEquals(10, annotations.getStart(0));
+        assertEquals(20, annotations.getEnd(0));
+        assertSame(a, annotations.getTerm(0));
+        assertEquals(30, annotations.getEnd(1));
+        assertSame(b, annotations.getTerm(1));
+        assertEquals(40, annotations.getStart(2));
+        assertSame(c, annotations.getTerm(2));
+    }
+
+    @Test
+    public void listViewCreatesAnnotations()
+    {
+        VocabularyTerm blueEyes = term("HP:0000635");
+        CompactTermAnnotations annotations = new CompactTermAnnotations(new TermDictionary());
+        annotations.add(0, 9, blueEyes);
+        List<TermAnnotation> list = annotations.asList();
+
+        assertEquals(1, list.size());
+        assertEquals(new TermAnnotation(0, 9, blueEyes), list.get(0));
+    }
+
+    @Test
+    public void farApartAnnotationsCompareCorrectly()
+    {
+        VocabularyTerm t = term("HP:0000635");
+        TermAnnotation near = new TermAnnotation(0, 9, t);
+        TermAnnotation far = new TermAnnotation(Integer.MAX_VALUE * 4L, Integer.MAX_VALUE * 4L + 9, t);
+
+        assertTrue(near.compareTo(far) < 0);
+        assertTrue(far.compareTo(near) > 0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void accessOutsideTheAnnotationsFails()
+    {
+        new CompactTermAnnotations(new TermDictionary()).getStart(0);
+    }
+
+    private VocabularyTerm term(String id)
+    {
+        VocabularyTerm term = mock(VocabularyTerm.class);
+        when(term.getId()).thenReturn(id);
+        return term;
+    }
+}
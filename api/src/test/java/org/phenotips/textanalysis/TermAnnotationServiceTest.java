@@ -0,0 +1,113 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis;
+
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the default methods of {@link TermAnnotationService}, which implementations written before they were
+ * added rely on.
+ *
+ * @version $Id$
+ */
+public class TermAnnotationServiceTest
+{
+    private final VocabularyTerm seizure = term("HP:0001250");
+
+    /** Only implements the original method, finding "seizure" wherever it appears. */
+    private final TermAnnotationService service = new TermAnnotationService()
+    {
+        @Override
+        public List<TermAnnotation> annotate(String text)
+        {
+            List<TermAnnotation> result = new ArrayList<>();
+            for (int i = text.indexOf("seizure"); i >= 0; i = text.indexOf("seizure", i + 1)) {
+                result.add(new TermAnnotation(i, i + 7, TermAnnotationServiceTest.this.seizure));
+            }
+            return result;
+        }
+    };
+
+    @Test
+    public void batchesAnnotateEachText() throws Exception
+    {
+        List<List<TermAnnotation>> result = this.service.annotateBatch(Arrays.asList("a seizure", "none", "seizure"));
+
+        assertEquals(3, result.size());
+        assertEquals(2, result.get(0).get(0).getStartPos());
+        assertEquals(Collections.emptyList(), result.get(1));
+        assertEquals(0, result.get(2).get(0).getStartPos());
+
+        List<CompactTermAnnotations> compact = this.service.annotateBatchCompact(Arrays.asList("a seizure", "none"));
+        assertEquals(1, compact.get(0).size());
+        assertSame(this.seizure, compact.get(0).getTerm(0));
+        assertEquals(0, compact.get(1).size());
+    }
+
+    @Test
+    public void asyncAndBudgetedRequestsAnnotateTheWholeText() throws Exception
+    {
+        assertEquals(1, this.service.annotateAsync("one seizure").get().size());
+
+        AnnotationResult result = this.service.annotate("seizure, then another seizure", 1, TimeUnit.MILLISECONDS);
+        assertEquals(2, result.getAnnotations().size());
+        assertFalse(result.isTruncated());
+    }
+
+    @Test
+    public void streamsGetSentencesAttached() throws Exception
+    {
+        final List<TermAnnotation> found = new ArrayList<>();
+        this.service.annotateStream(new StringReader("Nothing here. A seizure at night."),
+            new Consumer<TermAnnotation>()
+            {
+                @Override
+                public void accept(TermAnnotation annotation)
+                {
+                    found.add(annotation);
+                }
+            });
+
+        assertEquals(1, found.size());
+        assertEquals(16, found.get(0).getStartPos());
+        assertEquals("A seizure at night.", found.get(0).getSentence().trim());
+    }
+
+    private static VocabularyTerm term(String id)
+    {
+        VocabularyTerm term = mock(VocabularyTerm.class);
+        when(term.getId()).thenReturn(id);
+        return term;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link DefaultAnnotationMetrics}.
+ *
+ * @version $Id$
+ */
+public class DefaultAnnotationMetricsTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<AnnotationMetrics> mocker =
+        new MockitoComponentMockingRule<AnnotationMetrics>(DefaultAnnotationMetrics.class);
+
+    private AnnotationMetrics metrics;
+
+    @Before
+    public void setUp() throws ComponentLookupException
+    {
+        this.metrics = this.mocker.getComponentUnderTest();
+    }
+
+    @Test
+    public void percentilesAreEstimated()
+    {
+        for (int i = 1; i <= 1000; ++i) {
+            this.metrics.recordValue("scigraph.hits", i);
+        }
+
+        Map<String, Long> hits = this.metrics.getMetrics().get("scigraph.hits");
+        assertEquals(Long.valueOf(1000), hits.get("count"));
+        assertEquals(Long.valueOf(500), hits.get("mean"));
+        assertEquals(Long.valueOf(1000), hits.get("max"));
+        assertWithin(500, hits.get("p50"));
+        assertWithin(950, hits.get("p95"));
+        assertWithin(990, hits.get("p99"));
+    }
+
+    @Test
+    public void timesAreReportedInMicroseconds()
+    {
+        this.metrics.recordTime("request", 5000000L);
+
+        Map<String, Long> request = this.metrics.getMetrics().get("request.time");
+        assertEquals(Long.valueOf(1), request.get("count"));
+        assertEquals(Long.valueOf(5000), request.get("max"));
+        assertEquals(Long.valueOf(5000), request.get("p99"));
+    }
+
+    @Test
+    public void errorsAreCountedByStage()
+    {
+        this.metrics.recordError("scigraph.extract");
+        this.metrics.recordError("scigraph.extract");
+        this.metrics.recordError("request");
+
+        Map<String, Long> errors = this.metrics.getMetrics().get("errors");
+        assertEquals(Long.valueOf(2), errors.get("scigraph.extract"));
+        assertEquals(Long.valueOf(1), errors.get("request"));
+
+        this.metrics.reset();
+        assertTrue(this.metrics.getMetrics().get("errors").isEmpty());
+    }
+
+    @Test
+    public void metricsArePublishedOverJmx() throws Exception
+    {
+        this.metrics.recordValue("request.input", 42);
+
+        ObjectName name = new ObjectName(DefaultAnnotationMetrics.OBJECT_NAME);
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        assertTrue(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Values") != null);
+    }
+
+    /** Estimates are never below the actual value, and at most 12.5% above. */
+    private static void assertWithin(long expected, long actual)
+    {
+        assertTrue("Expected about " + expected + ", got " + actual,
+            actual >= expected && actual <= expected + expected / 8);
+    }
+}
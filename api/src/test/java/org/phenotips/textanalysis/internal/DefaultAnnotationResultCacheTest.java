@@ -0,0 +1,103 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.TermAnnotation;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link DefaultAnnotationResultCache}.
+ *
+ * @version $Id$
+ */
+public class DefaultAnnotationResultCacheTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<AnnotationResultCache> mocker =
+        new MockitoComponentMockingRule<AnnotationResultCache>(DefaultAnnotationResultCache.class);
+
+    private AnnotationResultCache cache;
+
+    @Before
+    public void setUp() throws ComponentLookupException
+    {
+        this.cache = this.mocker.getComponentUnderTest();
+        TermAnnotationConfiguration configuration = this.mocker.getInstance(TermAnnotationConfiguration.class);
+        when(configuration.getResultCacheSize()).thenReturn(2);
+        when(configuration.getResultCacheMemory()).thenReturn(1024L * 1024);
+        VocabularyVersionProvider version = this.mocker.getInstance(VocabularyVersionProvider.class);
+        when(version.getVersion()).thenReturn("2016-01-01");
+    }
+
+    @Test
+    public void keysDependOnTextAndEngine()
+    {
+        assertEquals(this.cache.getKey("blue eyes", "scigraph"), this.cache.getKey("blue eyes", "scigraph"));
+        assertNotEquals(this.cache.getKey("blue eyes", "scigraph"), this.cache.getKey("blue eyes.", "scigraph"));
+        assertNotEquals(this.cache.getKey("blue eyes", "scigraph"), this.cache.getKey("blue eyes", "biolark"));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted()
+    {
+        List<TermAnnotation> first = new ArrayList<>();
+        List<TermAnnotation> second = new ArrayList<>();
+        List<TermAnnotation> third = new ArrayList<>();
+        this.cache.put("first", first, 100);
+        this.cache.put("second", second, 100);
+        // Touch the first entry, so that the second one becomes the eldest
+        assertSame(first, this.cache.get("first"));
+        this.cache.put("third", third, 100);
+
+        assertSame(first, this.cache.get("first"));
+        assertNull(this.cache.get("second"));
+        assertSame(third, this.cache.get("third"));
+
+        Map<String, Long> statistics = this.cache.getStatistics();
+        assertEquals(Long.valueOf(3), statistics.get("hits"));
+        assertEquals(Long.valueOf(1), statistics.get("misses"));
+        assertEquals(Long.valueOf(1), statistics.get("evictions"));
+        assertEquals(Long.valueOf(2), statistics.get("entries"));
+    }
+
+    @Test
+    public void nothingIsCachedWhenDisabled() throws ComponentLookupException
+    {
+        TermAnnotationConfiguration configuration = this.mocker.getInstance(TermAnnotationConfiguration.class);
+        when(configuration.getResultCacheSize()).thenReturn(0);
+        this.cache.put("first", new ArrayList<TermAnnotation>(), 100);
+
+        assertNull(this.cache.get("first"));
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.TermAnnotation;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.environment.Environment;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link DefaultAnnotationStore}.
+ *
+ * @version $Id$
+ */
+public class DefaultAnnotationStoreTest
+{
+    private static final String VERSION = "2016-01-01";
+
+    private static final String KEY = "digest/scigraph/" + VERSION;
+
+    @Rule
+    public final MockitoComponentMockingRule<AnnotationStore> mocker =
+        new MockitoComponentMockingRule<AnnotationStore>(DefaultAnnotationStore.class);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private AnnotationStore store;
+
+    private TermAnnotationConfiguration configuration;
+
+    private VocabularyVersionProvider version;
+
+    private VocabularyTerm eyes;
+
+    private VocabularyTerm hands;
+
+    private VocabularyManager vocabularies;
+
+    @Before
+    public void setUp() throws ComponentLookupException
+    {
+        this.store = this.mocker.getComponentUnderTest();
+        Environment environment = this.mocker.getInstance(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(this.folder.getRoot());
+        this.configuration = this.mocker.getInstance(TermAnnotationConfiguration.class);
+        when(this.configuration.getResultStoreSize()).thenReturn(1024L * 1024);
+        this.version = this.mocker.getInstance(VocabularyVersionProvider.class);
+        when(this.version.getVersion()).thenReturn(VERSION);
+
+        this.vocabularies = this.mocker.getInstance(VocabularyManager.class);
+        this.eyes = term(this.vocabularies, "HP:0000478");
+        this.hands = term(this.vocabularies, "HP:0001155");
+    }
+
+    @Test
+    public void storedAnnotationsAreReturned()
+    {
+        this.store.put(KEY, Arrays.asList(new TermAnnotation(30, 35, this.eyes), new TermAnnotation(4, 9, this.hands),
+            new TermAnnotation(120, 125, this.eyes)));
+
+        List<TermAnnotation> stored = this.store.get(KEY);
+        assertEquals(3, stored.size());
+        assertEquals(30, stored.get(0).getStartPos());
+        assertEquals(35, stored.get(0).getEndPos());
+        assertSame(this.eyes, stored.get(0).getTerm());
+        assertEquals(4, stored.get(1).getStartPos());
+        assertSame(this.hands, stored.get(1).getTerm());
+        assertEquals(120, stored.get(2).getStartPos());
+        assertNull(this.store.get("other/scigraph/" + VERSION));
+    }
+
+    @Test
+    public void storedTermsAreLookedUpTogether()
+    {
+        Vocabulary hpo = mock(Vocabulary.class);
+        when(this.vocabularies.getVocabulary("HP")).thenReturn(hpo);
+        when(hpo.getTerms(anyCollectionOf(String.class)))
+            .thenReturn(new HashSet<>(Arrays.asList(this.eyes, this.hands)));
+        this.store.put(KEY, Arrays.asList(new TermAnnotation(30, 35, this.eyes), new TermAnnotation(4, 9, this.hands)));
+
+        List<TermAnnotation> stored = this.store.get(KEY);
+        assertEquals(2, stored.size());
+        assertSame(this.eyes, stored.get(0).getTerm());
+        assertSame(this.hands, stored.get(1).getTerm());
+        verify(hpo).getTerms(anyCollectionOf(String.class));
+        verify(this.vocabularies, never()).resolveTerm(anyString());
+    }
+
+    @Test
+    public void annotationsSurviveRestarts() throws Exception
+    {
+        this.store.put(KEY, Arrays.asList(new TermAnnotation(4, 9, this.hands)));
+        ((Disposable) this.store).dispose();
+
+        List<TermAnnotation> stored = this.store.get(KEY);
+        assertEquals(1, stored.size());
+        assertSame(this.hands, stored.get(0).getTerm());
+    }
+
+    @Test
+    public void incompleteRecordsAreDropped() throws Exception
+    {
+        this.store.put(KEY, Arrays.asList(new TermAnnotation(4, 9, this.hands)));
+        ((Disposable) this.store).dispose();
+        File log = new File(this.folder.getRoot(), "textanalysis/annotations.log");
+        long length = log.length();
+        Files.write(log.toPath(), new byte[] { 0, 0, 0, 5, 0 }, StandardOpenOption.APPEND);
+
+        assertNotNull(this.store.get(KEY));
+        assertEquals(length, log.length());
+    }
+
+    @Test
+    public void reindexingDiscardsStoredAnnotations()
+    {
+        this.store.put(KEY, Arrays.asList(new TermAnnotation(4, 9, this.hands)));
+        when(this.version.getVersion()).thenReturn("2016-02-01");
+
+        assertNull(this.store.get(KEY));
+        assertEquals(Long.valueOf(0), this.store.getStatistics().get("entries"));
+    }
+
+    @Test
+    public void storeSizeIsBounded()
+    {
+        when(this.configuration.getResultStoreSize()).thenReturn(1000L);
+        List<TermAnnotation> annotations = Arrays.asList(new TermAnnotation(4, 9, this.hands));
+        for (int i = 0; i < 100; ++i) {
+            this.store.put(i + "/scigraph/" + VERSION, annotations);
+        }
+
+        assertTrue(this.store.getStatistics().get("size") <= 1000);
+        assertTrue(this.store.getStatistics().get("compactions") > 0);
+        // The most recent results are kept
+        assertNotNull(this.store.get("99/scigraph/" + VERSION));
+        assertNull(this.store.get("0/scigraph/" + VERSION));
+    }
+
+    @Test
+    public void nothingIsStoredWhenDisabled()
+    {
+        when(this.configuration.getResultStoreSize()).thenReturn(0L);
+        this.store.put(KEY, Arrays.asList(new TermAnnotation(4, 9, this.hands)));
+
+        assertNull(this.store.get(KEY));
+        assertEquals(0, this.folder.getRoot().list().length);
+    }
+
+    private static VocabularyTerm term(VocabularyManager vocabularies, String id)
+    {
+        VocabularyTerm result = mock(VocabularyTerm.class);
+        when(result.getId()).thenReturn(id);
+        when(vocabularies.resolveTerm(id)).thenReturn(result);
+        return result;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.AnnotationResult;
+import org.phenotips.textanalysis.TermAnnotation;
+import org.phenotips.textanalysis.TermAnnotationService;
+
+import org.xwiki.bridge.DocumentAccessBridge;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.environment.Environment;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link DefaultReannotationJob}.
+ *
+ * @version $Id$
+ */
+public class DefaultReannotationJobTest
+{
+    private static final String NOTES = "The lady has blue eyes";
+
+    private static final String KEY = "digest/scigraph/2016-01-01";
+
+    private static final String FIELD = "indication_for_referral";
+
+    @Rule
+    public final MockitoComponentMockingRule<ReannotationJob> mocker =
+        new MockitoComponentMockingRule<ReannotationJob>(DefaultReannotationJob.class);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ReannotationJob job;
+
+    private TermAnnotationService service;
+
+    private AnnotationStore store;
+
+    private Query list;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.job = this.mocker.getComponentUnderTest();
+        this.service = mock(TermAnnotationService.class);
+        when(this.service.annotate(eq(NOTES), anyLong(), any(TimeUnit.class)))
+            .thenReturn(new AnnotationResult(Collections.<TermAnnotation>emptyList(), false));
+        ComponentManager componentManager = mock(ComponentManager.class);
+        when(componentManager.<TermAnnotationService>getInstance(TermAnnotationService.class, "scigraph"))
+            .thenReturn(this.service);
+        this.mocker.registerComponent(ComponentManager.class, "context", componentManager);
+
+        TermAnnotationConfiguration configuration = this.mocker.getInstance(TermAnnotationConfiguration.class);
+        when(configuration.getEngine()).thenReturn("scigraph");
+        when(configuration.getReannotationThreads()).thenReturn(2);
+        when(configuration.getReannotationBatchSize()).thenReturn(2);
+        when(configuration.getReannotationFields()).thenReturn(Arrays.asList(FIELD));
+        VocabularyVersionProvider version = this.mocker.getInstance(VocabularyVersionProvider.class);
+        when(version.getVersion()).thenReturn("2016-01-01");
+        Environment environment = this.mocker.getInstance(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(this.folder.getRoot());
+        AnnotationResultCache cache = this.mocker.getInstance(AnnotationResultCache.class);
+        when(cache.getKey(NOTES, "scigraph")).thenReturn(KEY);
+        this.store = this.mocker.getInstance(AnnotationStore.class);
+
+        QueryManager queries = this.mocker.getInstance(QueryManager.class);
+        Query count = mock(Query.class);
+        doReturn(Arrays.asList(3L)).when(count).execute();
+        when(queries.createQuery(startsWith("select count"), eq(Query.XWQL))).thenReturn(count);
+        this.list = mock(Query.class);
+        when(queries.createQuery(startsWith("select doc.fullName"), eq(Query.XWQL))).thenReturn(this.list);
+
+        DocumentAccessBridge bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        when(bridge.getProperty(any(DocumentReference.class), any(DocumentReference.class), eq(FIELD)))
+            .thenReturn(NOTES);
+    }
+
+    @Test
+    public void allRecordsAreAnnotated() throws Exception
+    {
+        doReturn(Arrays.asList("data.P0000001", "data.P0000002"), Arrays.asList("data.P0000003"),
+            Collections.emptyList()).when(this.list).execute();
+
+        this.job.start();
+        Map<String, Object> status = waitForJob();
+
+        assertEquals(DefaultReannotationJob.FINISHED, status.get("state"));
+        assertEquals(3L, status.get("total"));
+        assertEquals(3L, status.get("processed"));
+        assertEquals(3L, status.get("annotated"));
+        verify(this.store, times(3)).put(eq(KEY), any(List.class));
+        verify(this.list).bindValue("last", "data.P0000002");
+
+        Properties checkpoint = readCheckpoint();
+        assertEquals(DefaultReannotationJob.FINISHED, checkpoint.getProperty("state"));
+        assertEquals("data.P0000003", checkpoint.getProperty("last"));
+    }
+
+    @Test
+    public void storedNotesAreSkipped() throws Exception
+    {
+        doReturn(Arrays.asList("data.P0000001"), Collections.emptyList()).when(this.list).execute();
+        when(this.store.contains(KEY)).thenReturn(true);
+
+        this.job.start();
+        Map<String, Object> status = waitForJob();
+
+        assertEquals(1L, status.get("skipped"));
+        assertEquals(0L, status.get("annotated"));
+        verify(this.service, never()).annotate(anyString(), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void notesAreKeyedLikeTheRequestsOfTheClinicalNotesPanel() throws Exception
+    {
+        // The panel asks the script service for both fields joined with a new line
+        String history = "Seizures since birth";
+        String requested = NOTES + "\n" + history;
+        String requestKey = "panel-digest/scigraph/2016-01-01";
+        TermAnnotationConfiguration configuration = this.mocker.getInstance(TermAnnotationConfiguration.class);
+        when(configuration.getReannotationFields()).thenReturn(Arrays.asList(FIELD, "medical_history"));
+        DocumentAccessBridge bridge = this.mocker.getInstance(DocumentAccessBridge.class);
+        when(bridge.getProperty(any(DocumentReference.class), any(DocumentReference.class), eq("medical_history")))
+            .thenReturn(history);
+        AnnotationResultCache cache = this.mocker.getInstance(AnnotationResultCache.class);
+        when(cache.getKey(requested, "scigraph")).thenReturn(requestKey);
+        when(this.service.annotate(eq(requested), anyLong(), any(TimeUnit.class)))
+            .thenReturn(new AnnotationResult(Collections.<TermAnnotation>emptyList(), false));
+        doReturn(Arrays.asList("data.P0000001"), Collections.emptyList()).when(this.list).execute();
+
+        this.job.start();
+        Map<String, Object> status = waitForJob();
+
+        assertEquals(1L, status.get("annotated"));
+        verify(this.service).annotate(eq(requested), anyLong(), any(TimeUnit.class));
+        verify(this.store).put(eq(requestKey), any(List.class));
+        verify(this.store, never()).put(eq(KEY), any(List.class));
+    }
+
+    @Test
+    public void truncatedResultsAreNotStored() throws Exception
+    {
+        doReturn(Arrays.asList("data.P0000001"), Collections.emptyList()).when(this.list).execute();
+        when(this.service.annotate(eq(NOTES), anyLong(), any(TimeUnit.class)))
+            .thenReturn(new AnnotationResult(Collections.<TermAnnotation>emptyList(), true));
+
+        this.job.start();
+        Map<String, Object> status = waitForJob();
+
+        assertEquals(DefaultReannotationJob.FINISHED, status.get("state"));
+        assertEquals(0L, status.get("annotated"));
+        assertEquals(1L, status.get("failed"));
+        verify(this.store, never()).put(eq(KEY), any(List.class));
+    }
+
+    @Test
+    public void interruptedJobResumesFromCheckpoint() throws Exception
+    {
+        File checkpoint = new File(this.folder.getRoot(), "textanalysis/reannotation.properties");
+        checkpoint.getParentFile().mkdirs();
+        Properties saved = new Properties();
+        saved.setProperty("state", DefaultReannotationJob.RUNNING);
+        saved.setProperty("version", "2016-01-01");
+        saved.setProperty("engine", "scigraph");
+        saved.setProperty("last", "data.P0000002");
+        saved.setProperty("processed", "2");
+        try (OutputStream out = new FileOutputStream(checkpoint)) {
+            saved.store(out, null);
+        }
+        doReturn(Arrays.asList("data.P0000003"), Collections.emptyList()).when(this.list).execute();
+
+        this.job.resume();
+        Map<String, Object> status = waitForJob();
+
+        assertEquals(DefaultReannotationJob.FINISHED, status.get("state"));
+        assertEquals(3L, status.get("processed"));
+        assertEquals(1L, status.get("annotated"));
+        verify(this.list).bindValue("last", "data.P0000002");
+    }
+
+    private Map<String, Object> waitForJob() throws InterruptedException
+    {
+        Map<String, Object> status = this.job.getStatus();
+        for (int i = 0; i < 500 && DefaultReannotationJob.RUNNING.equals(status.get("state")); ++i) {
+            Thread.sleep(10);
+            status = this.job.getStatus();
+        }
+        return status;
+    }
+
+    private Properties readCheckpoint() throws Exception
+    {
+        Properties result = new Properties();
+        try (InputStream in =
+            new FileInputStream(new File(this.folder.getRoot(), "textanalysis/reannotation.properties"))) {
+            result.load(in);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link DefaultTermResolutionCache}.
+ *
+ * @version $Id$
+ */
+public class DefaultTermResolutionCacheTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<TermResolutionCache> mocker =
+        new MockitoComponentMockingRule<TermResolutionCache>(DefaultTermResolutionCache.class);
+
+    private TermResolutionCache cache;
+
+    private VocabularyVersionProvider version;
+
+    @Before
+    public void setUp() throws ComponentLookupException
+    {
+        this.cache = this.mocker.getComponentUnderTest();
+        TermAnnotationConfiguration configuration = this.mocker.getInstance(TermAnnotationConfiguration.class);
+        when(configuration.getTermCacheSize()).thenReturn(100);
+        this.version = this.mocker.getInstance(VocabularyVersionProvider.class);
+        when(this.version.getVersion()).thenReturn("2016-01-01");
+    }
+
+    @Test
+    public void cachedTermsAreReturned()
+    {
+        VocabularyTerm term = mock(VocabularyTerm.class);
+        assertNull(this.cache.get("HP:0000478"));
+        this.cache.put("HP:0000478", term);
+
+        assertSame(term, this.cache.get("HP:0000478"));
+        Map<String, Long> statistics = this.cache.getStatistics();
+        assertEquals(Long.valueOf(1), statistics.get("hits"));
+        assertEquals(Long.valueOf(1), statistics.get("misses"));
+        assertEquals(Long.valueOf(1), statistics.get("entries"));
+    }
+
+    @Test
+    public void reindexingInvalidatesTheCache()
+    {
+        this.cache.put("HP:0000478", mock(VocabularyTerm.class));
+        when(this.version.getVersion()).thenReturn("2016-02-01");
+
+        assertNull(this.cache.get("HP:0000478"));
+        assertEquals(Long.valueOf(1), this.cache.getStatistics().get("invalidations"));
+    }
+
+    @Test
+    public void sizeIsBounded() throws ComponentLookupException
+    {
+        TermAnnotationConfiguration configuration = this.mocker.getInstance(TermAnnotationConfiguration.class);
+        when(configuration.getTermCacheSize()).thenReturn(2);
+        this.cache.put("HP:0000001", mock(VocabularyTerm.class));
+        this.cache.put("HP:0000002", mock(VocabularyTerm.class));
+        this.cache.put("HP:0000003", mock(VocabularyTerm.class));
+
+        assertEquals(Long.valueOf(2), this.cache.getStatistics().get("entries"));
+        assertEquals(Long.valueOf(1), this.cache.getStatistics().get("evictions"));
+    }
+}
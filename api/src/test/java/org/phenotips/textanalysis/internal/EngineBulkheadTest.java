@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link EngineBulkhead}.
+ *
+ * @version $Id$
+ */
+public class EngineBulkheadTest
+{
+    @Test
+    public void callsBeyondTheLimitAreRefusedWithoutAQueue() throws AnnotationException
+    {
+        EngineBulkhead bulkhead = new EngineBulkhead("scigraph", 2, 0, 1000);
+        bulkhead.acquire();
+        bulkhead.acquire();
+        assertEquals(2, bulkhead.getActive());
+        try {
+            bulkhead.acquire();
+            throw new AssertionError("The third call should have been refused");
+        } catch (EngineOverloadedException e) {
+            assertTrue(e.getMessage().contains("scigraph"));
+        }
+
+        bulkhead.release();
+        bulkhead.acquire();
+        assertEquals(2, bulkhead.getActive());
+    }
+
+    @Test(expected = EngineOverloadedException.class)
+    public void waitingCallsGiveUpAfterTheTimeout() throws AnnotationException
+    {
+        EngineBulkhead bulkhead = new EngineBulkhead("biolark", 1, 1, 50);
+        bulkhead.acquire();
+        bulkhead.acquire();
+    }
+
+    @Test
+    public void waitingCallsRunWhenASlotIsFreed() throws Exception
+    {
+        final EngineBulkhead bulkhead = new EngineBulkhead("biolark", 1, 1, 10000);
+        bulkhead.acquire();
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    bulkhead.acquire();
+                    acquired.countDown();
+                } catch (AnnotationException e) {
+                    // The latch stays closed and the test fails
+                }
+            }
+        });
+        waiter.start();
+        while (bulkhead.getWaiting() == 0) {
+            Thread.sleep(5);
+        }
+
+        // The queue is full, so another call is refused right away
+        try {
+            bulkhead.acquire();
+            throw new AssertionError("The call should have been refused");
+        } catch (EngineOverloadedException e) {
+            // Expected
+        }
+
+        bulkhead.release();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        assertEquals(0, bulkhead.getWaiting());
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+
+import org.xwiki.component.phase.InitializationException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests for {@link EngineInitializer}.
+ *
+ * @version $Id$
+ */
+public class EngineInitializerTest
+{
+    private static final String ENGINE = "test";
+
+    private static final String CREATED = "engine";
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final AtomicInteger created = new AtomicInteger();
+
+    private EngineReadiness readiness;
+
+    private EngineInitializer<String> initializer;
+
+    private volatile boolean failing;
+
+    private long retryDelay = 60000L;
+
+    @Before
+    public void setUp()
+    {
+        this.readiness = new DefaultEngineReadiness();
+        this.initializer = new EngineInitializer<String>(ENGINE, this.readiness, mock(Logger.class))
+        {
+            @Override
+            protected String create() throws InitializationException
+            {
+                EngineInitializerTest.this.created.incrementAndGet();
+                try {
+                    EngineInitializerTest.this.release.await();
+                } catch (InterruptedException e) {
+                    throw new InitializationException("Interrupted", e);
+                }
+                if (EngineInitializerTest.this.failing) {
+                    throw new InitializationException("Missing resources");
+                }
+                return CREATED;
+            }
+
+            @Override
+            protected long getRetryDelay()
+            {
+                return EngineInitializerTest.this.retryDelay;
+            }
+        };
+    }
+
+    @After
+    public void tearDown()
+    {
+        this.release.countDown();
+        this.initializer.stop();
+    }
+
+    @Test
+    public void eagerEngineStartsRightAwayAndWaitingRequestsGetIt() throws AnnotationException
+    {
+        this.initializer.schedule(EngineInitializer.EAGER);
+        assertTrue(this.readiness.isPreparing(ENGINE));
+
+        this.release.countDown();
+
+        assertEquals(CREATED, this.initializer.get(5000));
+        assertEquals(1, this.created.get());
+        assertTrue(this.initializer.isInitialized());
+        assertTrue(awaitReady());
+    }
+
+    @Test
+    public void requestsDuringInitializationAreRefusedAfterTheTimeout() throws AnnotationException
+    {
+        this.initializer.schedule(EngineInitializer.EAGER);
+        try {
+            this.initializer.get(10);
+            fail("The engine isn't initialized yet");
+        } catch (EngineOverloadedException e) {
+            // Expected
+        }
+        try {
+            this.initializer.get(0);
+            fail("The engine isn't initialized yet");
+        } catch (EngineOverloadedException e) {
+            // Expected
+        }
+        assertFalse(this.readiness.isReady(ENGINE));
+    }
+
+    @Test
+    public void lazyEngineStartsWithTheFirstRequest() throws AnnotationException
+    {
+        this.initializer.schedule(EngineInitializer.LAZY);
+        assertEquals(0, this.created.get());
+        assertTrue(this.readiness.isReady(ENGINE));
+
+        this.release.countDown();
+
+        assertEquals(CREATED, this.initializer.get(5000));
+        assertEquals(1, this.created.get());
+    }
+
+    @Test(expected = AnnotationException.class)
+    public void disabledEngineRefusesRequests() throws AnnotationException
+    {
+        this.initializer.schedule(EngineInitializer.DISABLED);
+        assertFalse(this.readiness.isReady(ENGINE));
+        assertFalse(this.readiness.isPreparing(ENGINE));
+
+        this.initializer.get(5000);
+    }
+
+    @Test
+    public void failedInitializationIsReported() throws AnnotationException
+    {
+        this.failing = true;
+        this.initializer.schedule(EngineInitializer.EAGER);
+        this.release.countDown();
+        try {
+            this.initializer.get(5000);
+            fail("The engine failed to initialize");
+        } catch (EngineOverloadedException e) {
+            fail("The failure is final");
+        } catch (AnnotationException e) {
+            assertEquals("Missing resources", e.getCause().getMessage());
+        }
+        assertFalse(this.initializer.isInitialized());
+        assertFalse(this.readiness.isReady(ENGINE));
+        assertFalse(this.readiness.isPreparing(ENGINE));
+        assertEquals("Missing resources", this.readiness.getStatus().get(ENGINE).get("error"));
+    }
+
+    @Test
+    public void failedInitializationIsRetriedAfterTheDelay() throws AnnotationException
+    {
+        this.failing = true;
+        this.retryDelay = 0;
+        this.initializer.schedule(EngineInitializer.EAGER);
+        this.release.countDown();
+        try {
+            this.initializer.get(5000);
+            fail("The engine failed to initialize");
+        } catch (EngineOverloadedException e) {
+            fail("The engine failed to initialize");
+        } catch (AnnotationException e) {
+            assertEquals("Missing resources", e.getCause().getMessage());
+        }
+
+        this.failing = false;
+
+        assertEquals(CREATED, this.initializer.get(5000));
+        assertEquals(2, this.created.get());
+        assertTrue(this.initializer.isInitialized());
+        assertTrue(awaitReady());
+    }
+
+    /** The engine is reported ready by the initialization thread, right after the engine is handed over. */
+    private boolean awaitReady()
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!this.readiness.isReady(ENGINE) && System.nanoTime() < deadline) {
+            Thread.yield();
+        }
+        return this.readiness.isReady(ENGINE);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link EnginePool}.
+ *
+ * @version $Id$
+ */
+public class EnginePoolTest
+{
+    private static final String ENGINE = "test";
+
+    private AnnotationMetrics metrics;
+
+    @Before
+    public void setUp()
+    {
+        this.metrics = mock(AnnotationMetrics.class);
+    }
+
+    @Test
+    public void instancesAreCheckedOutOneCallAtATime() throws AnnotationException
+    {
+        EnginePool<Object> pool = new EnginePool<>(ENGINE, Arrays.asList(new Object(), new Object()), false, 10,
+            this.metrics);
+
+        Object first = pool.acquire();
+        Object second = pool.acquire();
+        assertNotSame(first, second);
+        assertEquals(2, pool.getBusy());
+
+        pool.release(first);
+        assertSame(first, pool.acquire());
+        verify(this.metrics).recordValue("test.busy", 1);
+        verify(this.metrics, times(2)).recordValue("test.busy", 2);
+    }
+
+    @Test(expected = EngineOverloadedException.class)
+    public void callsAreRefusedWhenNoInstanceIsReturnedInTime() throws AnnotationException
+    {
+        EnginePool<Object> pool = new EnginePool<>(ENGINE, Collections.singletonList(new Object()), false, 10,
+            this.metrics);
+        pool.acquire();
+
+        try {
+            pool.acquire();
+        } finally {
+            verify(this.metrics).recordError("test.checkout");
+        }
+    }
+
+    @Test
+    public void sharedInstanceServesAllCallsAtOnce() throws AnnotationException
+    {
+        Object instance = new Object();
+        EnginePool<Object> pool = new EnginePool<>(ENGINE, Collections.singletonList(instance), true, 0,
+            this.metrics);
+
+        assertSame(instance, pool.acquire());
+        assertSame(instance, pool.acquire());
+        assertEquals(0, pool.getBusy());
+    }
+
+    @Test
+    public void poolSizeFollowsTheConfiguration()
+    {
+        TermAnnotationConfiguration configuration = mock(TermAnnotationConfiguration.class);
+        when(configuration.getEngineInstances(ENGINE)).thenReturn(3);
+        assertEquals(3, EnginePool.getPoolSize(configuration, ENGINE));
+
+        when(configuration.getEngineInstances(ENGINE)).thenReturn(-1);
+        when(configuration.getEngineConcurrency(ENGINE)).thenReturn(5);
+        assertEquals(5, EnginePool.getPoolSize(configuration, ENGINE));
+
+        when(configuration.getEngineConcurrency(ENGINE)).thenReturn(0);
+        assertEquals(Runtime.getRuntime().availableProcessors(), EnginePool.getPoolSize(configuration, ENGINE));
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.AnnotationResult;
+import org.phenotips.textanalysis.TermAnnotation;
+import org.phenotips.textanalysis.TermAnnotationService;
+import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link EnsembleAnnotationService}.
+ *
+ * @version $Id$
+ */
+public class EnsembleAnnotationServiceTest
+{
+    private static final String TEXT = "The lady has blue eyes and short stature";
+
+    @Rule
+    public final MockitoComponentMockingRule<TermAnnotationService> mocker =
+        new MockitoComponentMockingRule<TermAnnotationService>(EnsembleAnnotationService.class);
+
+    private TermAnnotationService scigraph;
+
+    private TermAnnotationService biolark;
+
+    private VocabularyTerm blueEyes;
+
+    private VocabularyTerm shortStature;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.scigraph = mock(TermAnnotationService.class);
+        this.biolark = mock(TermAnnotationService.class);
+        ComponentManager componentManager = mock(ComponentManager.class);
+        when(componentManager.<TermAnnotationService>getInstance(TermAnnotationService.class, "scigraph"))
+            .thenReturn(this.scigraph);
+        when(componentManager.<TermAnnotationService>getInstance(TermAnnotationService.class, "biolark"))
+            .thenReturn(this.biolark);
+        this.mocker.registerComponent(ComponentManager.class, "context", componentManager);
+
+        TermAnnotationConfiguration configuration = this.mocker.getInstance(TermAnnotationConfiguration.class);
+        when(configuration.getEnsembleEngines()).thenReturn(Arrays.asList("scigraph", "biolark"));
+        when(configuration.getEnsembleTimeout()).thenReturn(200L);
+
+        this.blueEyes = term("HP:0000635");
+        this.shortStature = term("HP:0004322");
+    }
+
+    @Test
+    public void hitsAreMergedAndDeduplicated() throws Exception
+    {
+        when(this.scigraph.annotateAsync(TEXT)).thenReturn(done(new TermAnnotation(13, 22, this.blueEyes)));
+        when(this.biolark.annotateAsync(TEXT)).thenReturn(done(new TermAnnotation(13, 22, this.blueEyes),
+            new TermAnnotation(27, 40, this.shortStature)));
+
+        List<TermAnnotation> result = this.mocker.getComponentUnderTest().annotate(TEXT);
+
+        assertEquals(2, result.size());
+        assertTrue(result.contains(new TermAnnotation(13, 22, this.blueEyes)));
+        assertTrue(result.contains(new TermAnnotation(27, 40, this.shortStature)));
+    }
+
+    @Test
+    public void engineAnnotationsAreNotResolvedAgain() throws Exception
+    {
+        when(this.scigraph.annotateAsync(TEXT)).thenReturn(done(new TermAnnotation(13, 22, this.blueEyes)));
+        when(this.biolark.annotateAsync(TEXT)).thenReturn(done(new TermAnnotation(27, 40, this.shortStature)));
+
+        AnnotationResult result = this.mocker.getComponentUnderTest().annotate(TEXT, 0, TimeUnit.MILLISECONDS);
+
+        assertEquals(2, result.getAnnotations().size());
+        VocabularyManager vocabularies = this.mocker.getInstance(VocabularyManager.class);
+        verify(vocabularies, never()).resolveTerm(anyString());
+        verify(vocabularies, never()).getVocabulary(anyString());
+    }
+
+    @Test
+    public void withoutEnsembleTimeoutAllEnginesAreWaitedFor() throws Exception
+    {
+        TermAnnotationConfiguration configuration = this.mocker.getInstance(TermAnnotationConfiguration.class);
+        when(configuration.getEnsembleTimeout()).thenReturn(0L);
+        final CompletableFuture<List<TermAnnotation>> slow = new CompletableFuture<>();
+        when(this.scigraph.annotateAsync(TEXT)).thenReturn(done(new TermAnnotation(13, 22, this.blueEyes)));
+        when(this.biolark.annotateAsync(TEXT)).thenReturn(slow);
+        new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                slow.complete(Arrays.asList(new TermAnnotation(27, 40,
+                    EnsembleAnnotationServiceTest.this.shortStature)));
+            }
+        }.start();
+
+        AnnotationResult result = this.mocker.getComponentUnderTest().annotate(TEXT, 0, TimeUnit.MILLISECONDS);
+
+        assertEquals(2, result.getAnnotations().size());
+        assertFalse(result.isTruncated());
+    }
+
+    @Test
+    public void lateEnginesAreLeftOut() throws Exception
+    {
+        CompletableFuture<List<TermAnnotation>> late = new CompletableFuture<>();
+        when(this.scigraph.annotateAsync(TEXT)).thenReturn(done(new TermAnnotation(13, 22, this.blueEyes)));
+        when(this.biolark.annotateAsync(TEXT)).thenReturn(late);
+
+        List<TermAnnotation> result = this.mocker.getComponentUnderTest().annotate(TEXT);
+
+        assertEquals(Collections.singletonList(new TermAnnotation(13, 22, this.blueEyes)), result);
+        assertTrue(late.isCancelled());
+    }
+
+    @Test
+    public void failingEnginesAreLeftOut() throws Exception
+    {
+        when(this.scigraph.annotateAsync(TEXT)).thenReturn(failed());
+        when(this.biolark.annotateAsync(TEXT)).thenReturn(done(new TermAnnotation(27, 40, this.shortStature)));
+
+        List<TermAnnotation> result = this.mocker.getComponentUnderTest().annotate(TEXT);
+
+        assertEquals(Collections.singletonList(new TermAnnotation(27, 40, this.shortStature)), result);
+    }
+
+    @Test
+    public void completeResultsAreNotTruncated() throws Exception
+    {
+        when(this.scigraph.annotateAsync(TEXT)).thenReturn(done(new TermAnnotation(13, 22, this.blueEyes)));
+        when(this.biolark.annotateAsync(TEXT)).thenReturn(done(new TermAnnotation(27, 40, this.shortStature)));
+
+        AnnotationResult result = this.mocker.getComponentUnderTest().annotate(TEXT, 0, TimeUnit.MILLISECONDS);
+
+        assertEquals(2, result.getAnnotations().size());
+        assertFalse(result.isTruncated());
+    }
+
+    @Test
+    public void resultsMissingLateEnginesAreTruncated() throws Exception
+    {
+        when(this.scigraph.annotateAsync(TEXT)).thenReturn(done(new TermAnnotation(13, 22, this.blueEyes)));
+        when(this.biolark.annotateAsync(TEXT)).thenReturn(new CompletableFuture<List<TermAnnotation>>());
+
+        AnnotationResult result = this.mocker.getComponentUnderTest().annotate(TEXT, 0, TimeUnit.MILLISECONDS);
+
+        assertEquals(Collections.singletonList(new TermAnnotation(13, 22, this.blueEyes)), result.getAnnotations());
+        assertTrue(result.isTruncated());
+    }
+
+    @Test
+    public void resultsMissingFailingEnginesAreTruncated() throws Exception
+    {
+        when(this.scigraph.annotateAsync(TEXT)).thenReturn(failed());
+        when(this.biolark.annotateAsync(TEXT)).thenReturn(done(new TermAnnotation(27, 40, this.shortStature)));
+
+        AnnotationResult result = this.mocker.getComponentUnderTest().annotate(TEXT, 0, TimeUnit.MILLISECONDS);
+
+        assertEquals(Collections.singletonList(new TermAnnotation(27, 40, this.shortStature)),
+            result.getAnnotations());
+        assertTrue(result.isTruncated());
+    }
+
+    @Test(expected = EngineOverloadedException.class)
+    public void failsWhenAllEnginesAreBusy() throws Exception
+    {
+        when(this.scigraph.annotateAsync(TEXT)).thenReturn(failed(new EngineOverloadedException("Busy")));
+        when(this.biolark.annotateAsync(TEXT)).thenReturn(failed(new EngineOverloadedException("Busy")));
+
+        this.mocker.getComponentUnderTest().annotate(TEXT);
+    }
+
+    @Test(expected = AnnotationException.class)
+    public void failsWhenAllEnginesFail() throws Exception
+    {
+        when(this.scigraph.annotateAsync(TEXT)).thenReturn(failed());
+        when(this.biolark.annotateAsync(TEXT)).thenReturn(failed());
+
+        this.mocker.getComponentUnderTest().annotate(TEXT);
+    }
+
+    private VocabularyTerm term(String id) throws Exception
+    {
+        VocabularyTerm term = mock(VocabularyTerm.class);
+        when(term.getId()).thenReturn(id);
+        VocabularyManager vocabularies = this.mocker.getInstance(VocabularyManager.class);
+        when(vocabularies.resolveTerm(id)).thenReturn(term);
+        return term;
+    }
+
+    private static CompletableFuture<List<TermAnnotation>> done(TermAnnotation... annotations)
+    {
+        return CompletableFuture.completedFuture(Arrays.asList(annotations));
+    }
+
+    private static CompletableFuture<List<TermAnnotation>> failed()
+    {
+        return failed(new AnnotationException("Engine down"));
+    }
+
+    private static CompletableFuture<List<TermAnnotation>> failed(AnnotationException error)
+    {
+        CompletableFuture<List<TermAnnotation>> result = new CompletableFuture<>();
+        result.completeExceptionally(error);
+        return result;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link SentenceChunker}.
+ *
+ * @version $Id$
+ */
+public class SentenceChunkerTest
+{
+    private static final String TEXT = "The patient has blue eyes. Her brother is very tall. No seizures were noted.";
+
+    @Test
+    public void chunksEndOnSentenceBoundaries() throws IOException
+    {
+        SentenceChunker chunker = new SentenceChunker(new StringReader(TEXT), 60);
+
+        assertEquals("The patient has blue eyes. Her brother is very tall. ", chunker.next());
+        assertEquals(0, chunker.getChunkOffset());
+        assertEquals("No seizures were noted.", chunker.next());
+        assertEquals(53, chunker.getChunkOffset());
+        assertNull(chunker.next());
+    }
+
+    @Test
+    public void wholeTextFitsInOneChunk() throws IOException
+    {
+        SentenceChunker chunker = new SentenceChunker(new StringReader(TEXT), 1024);
+
+        assertEquals(TEXT, chunker.next());
+        assertEquals(0, chunker.getChunkOffset());
+        assertNull(chunker.next());
+    }
+
+    @Test
+    public void longSentencesAreCutOnWhitespace() throws IOException
+    {
+        SentenceChunker chunker = new SentenceChunker(new StringReader("aaa bbb ccc ddd"), 10);
+
+        assertEquals("aaa bbb ", chunker.next());
+        assertEquals("ccc ddd", chunker.next());
+        assertEquals(8, chunker.getChunkOffset());
+        assertNull(chunker.next());
+    }
+
+    @Test
+    public void emptyText() throws IOException
+    {
+        assertNull(new SentenceChunker(new StringReader(""), 10).next());
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for {@link SingleFlight}.
+ *
+ * @version $Id$
+ */
+public class SingleFlightTest
+{
+    private final SingleFlight<String, String> flights = new SingleFlight<>();
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    public void concurrentCallsShareOneComputation() throws Exception
+    {
+        CompletableFuture<String> source = new CompletableFuture<>();
+        CompletableFuture<String> first = this.flights.execute("key", starter(source));
+        CompletableFuture<String> second = this.flights.execute("key", starter(source));
+        assertEquals(1, this.calls.get());
+        assertFalse(first.isDone());
+
+        source.complete("result");
+        assertEquals("result", first.get());
+        assertEquals("result", second.get());
+        assertEquals(Long.valueOf(1), this.flights.getStatistics().get("coalesced"));
+        assertEquals(Long.valueOf(0), this.flights.getStatistics().get("running"));
+    }
+
+    @Test
+    public void finishedComputationsAreNotReused() throws Exception
+    {
+        this.flights.execute("key", starter(CompletableFuture.completedFuture("first"))).get();
+        assertEquals("second", this.flights.execute("key", starter(CompletableFuture.completedFuture("second"))).get());
+        assertEquals(2, this.calls.get());
+    }
+
+    @Test
+    public void differentKeysAreNotShared()
+    {
+        this.flights.execute("one", starter(new CompletableFuture<String>()));
+        this.flights.execute("two", starter(new CompletableFuture<String>()));
+        assertEquals(2, this.calls.get());
+    }
+
+    @Test
+    public void failuresAreReportedToAllCallers() throws Exception
+    {
+        CompletableFuture<String> source = new CompletableFuture<>();
+        CompletableFuture<String> first = this.flights.execute("key", starter(source));
+        CompletableFuture<String> second = this.flights.execute("key", starter(source));
+        IllegalStateException error = new IllegalStateException();
+        source.completeExceptionally(error);
+
+        for (CompletableFuture<String> result : Arrays.asList(first, second)) {
+            try {
+                result.get();
+                fail("The failure should have been propagated");
+            } catch (ExecutionException e) {
+                assertSame(error, e.getCause());
+            }
+        }
+    }
+
+    @Test
+    public void cancellingOneCallerDoesNotCancelTheOthers() throws Exception
+    {
+        CompletableFuture<String> source = new CompletableFuture<>();
+        CompletableFuture<String> first = this.flights.execute("key", starter(source));
+        CompletableFuture<String> second = this.flights.execute("key", starter(source));
+        first.cancel(true);
+
+        assertFalse(source.isCancelled());
+        source.complete("result");
+        assertEquals("result", second.get());
+    }
+
+    @Test
+    public void computationIsCancelledWhenAllCallersCancel()
+    {
+        CompletableFuture<String> source = new CompletableFuture<>();
+        CompletableFuture<String> first = this.flights.execute("key", starter(source));
+        CompletableFuture<String> second = this.flights.execute("key", starter(source));
+        first.cancel(true);
+        second.cancel(true);
+
+        assertTrue(source.isCancelled());
+        // A new caller starts a new computation
+        this.flights.execute("key", starter(new CompletableFuture<String>()));
+        assertEquals(2, this.calls.get());
+    }
+
+    private Supplier<CompletableFuture<String>> starter(final CompletableFuture<String> result)
+    {
+        return new Supplier<CompletableFuture<String>>()
+        {
+            @Override
+            public CompletableFuture<String> get()
+            {
+                SingleFlightTest.this.calls.incrementAndGet();
+                return result;
+            }
+        };
+    }
+}
@@ -108,4 +108,23 @@ public void testBasic()
         assertEquals(148, nimbly.getStartInSentence());
         assertEquals(154, nimbly.getEndInSentence());
     }
+
+    @Test
+    public void testCrossSentence()
+    {
+        client = new TermAnnotationSentenceDetector();
+
+        List<TermAnnotation> annotations = new ArrayList<>(1);
+        VocabularyTerm buriedTerm = mock(VocabularyTerm.class);
+        when(buriedTerm.getId()).thenReturn("buried");
+        /* "buried. Now" */
+        TermAnnotation buried = new TermAnnotation(156, 167, buriedTerm);
+        annotations.add(buried);
+
+        client.detectSentences(annotations, TEXT);
+
+        assertEquals(TEXT.substring(0, 342), buried.getSentence());
+        assertEquals(156, buried.getStartInSentence());
+        assertEquals(167, buried.getEndInSentence());
+    }
 }
@@ -0,0 +1,448 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.benchmarks;
+
+import org.phenotips.textanalysis.internal.AbstractTermAnnotationService;
+import org.phenotips.textanalysis.internal.DefaultAnnotationMetrics;
+import org.phenotips.textanalysis.internal.DefaultSentenceAnnotationCache;
+import org.phenotips.textanalysis.internal.DefaultTermResolutionCache;
+import org.phenotips.textanalysis.internal.EngineInitializer;
+import org.phenotips.textanalysis.internal.TermAnnotationConfiguration;
+import org.phenotips.textanalysis.internal.VocabularyVersionProvider;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.reflect.FieldUtils;
+
+/**
+ * Wires annotation services outside of a component manager, against an in-memory vocabulary, so that benchmarks
+ * measure the services rather than Solr or a mocking library. Vocabulary objects are plain JDK proxies, which keeps
+ * them independent of the exact vocabulary API version.
+ *
+ * @version $Id$
+ */
+final class BenchmarkServices
+{
+    private static final String VERSION = "benchmark";
+
+    private BenchmarkServices()
+    {
+        // Utility class
+    }
+
+    /**
+     * Injects the common dependencies of an annotation service.
+     *
+     * @param service the service to set up
+     * @param terms the terms known to the vocabulary, by identifier
+     * @param sentenceCache whether the sentence cache is enabled
+     * @param termCache whether resolved terms are cached
+     * @param <T> the type of the service
+     * @return the service
+     */
+    static <T extends AbstractTermAnnotationService> T wire(T service, Map<String, VocabularyTerm> terms,
+        boolean sentenceCache, boolean termCache)
+    {
+        TermAnnotationConfiguration configuration = new Configuration(sentenceCache, termCache);
+        VocabularyVersionProvider version = new VocabularyVersionProvider()
+        {
+            @Override
+            public String getVersion()
+            {
+                return VERSION;
+            }
+        };
+
+        DefaultSentenceAnnotationCache sentences = new DefaultSentenceAnnotationCache();
+        inject(sentences, "configuration", configuration);
+        inject(sentences, "vocabularyVersion", version);
+        DefaultTermResolutionCache resolved = new DefaultTermResolutionCache();
+        inject(resolved, "configuration", configuration);
+        inject(resolved, "vocabularyVersion", version);
+
+        inject(service, "vocabularies", vocabularyManager(terms));
+        inject(service, "configuration", configuration);
+        inject(service, "sentenceCache", sentences);
+        inject(service, "termCache", resolved);
+        // Not published over JMX, but still recorded, since that's part of the cost of a request
+        inject(service, "metrics", new DefaultAnnotationMetrics());
+        return service;
+    }
+
+    /**
+     * Sets a private field, including inherited ones, as the component manager would.
+     *
+     * @param target the object to modify
+     * @param field the name of the field
+     * @param value the value to set
+     */
+    static void inject(Object target, String field, Object value)
+    {
+        try {
+            FieldUtils.writeField(target, field, value, true);
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException("Cannot set " + field + " on " + target.getClass().getName(), ex);
+        }
+    }
+
+    /**
+     * Creates the terms mentioned in the generated notes.
+     *
+     * @return the terms, by identifier
+     */
+    static Map<String, VocabularyTerm> phenotypeTerms()
+    {
+        Map<String, VocabularyTerm> terms = new HashMap<>();
+        for (String[] phenotype : ClinicalNotes.PHENOTYPES) {
+            terms.put(phenotype[1], term(phenotype[1], phenotype[0]));
+        }
+        return terms;
+    }
+
+    /**
+     * Creates a vocabulary term.
+     *
+     * @param id the identifier of the term
+     * @param name the name of the term
+     * @return a term that only knows its identifier and name
+     */
+    static VocabularyTerm term(final String id, final String name)
+    {
+        return proxy(VocabularyTerm.class, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if ("getId".equals(method.getName())) {
+                    return id;
+                } else if ("getName".equals(method.getName())) {
+                    return name;
+                }
+                return defaultValue(proxy, method, args);
+            }
+        });
+    }
+
+    private static VocabularyManager vocabularyManager(final Map<String, VocabularyTerm> terms)
+    {
+        final Vocabulary vocabulary = proxy(Vocabulary.class, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if ("getTerm".equals(method.getName())) {
+                    return terms.get(args[0]);
+                } else if ("getTerms".equals(method.getName())) {
+                    Set<VocabularyTerm> result = new HashSet<>();
+                    for (Object id : (Collection<?>) args[0]) {
+                        VocabularyTerm term = terms.get(id);
+                        if (term != null) {
+                            result.add(term);
+                        }
+                    }
+                    return result;
+                } else if ("getVersion".equals(method.getName())) {
+                    return VERSION;
+                }
+                return defaultValue(proxy, method, args);
+            }
+        });
+        return proxy(VocabularyManager.class, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if ("resolveTerm".equals(method.getName())) {
+                    return terms.get(args[0]);
+                } else if ("getVocabulary".equals(method.getName())) {
+                    return vocabulary;
+                }
+                return defaultValue(proxy, method, args);
+            }
+        });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler)
+    {
+        return type.cast(Proxy.newProxyInstance(BenchmarkServices.class.getClassLoader(), new Class<?>[] { type },
+            handler));
+    }
+
+    /**
+     * Answers the methods of {@link Object}, and returns {@code null} or zero for anything else.
+     */
+    private static Object defaultValue(Object proxy, Method method, Object[] args)
+    {
+        if ("hashCode".equals(method.getName())) {
+            return System.identityHashCode(proxy);
+        } else if ("equals".equals(method.getName())) {
+            return proxy == args[0];
+        } else if ("toString".equals(method.getName())) {
+            return method.getDeclaringClass().getSimpleName();
+        } else if (method.getReturnType() == boolean.class) {
+            return false;
+        } else if (method.getReturnType() == int.class) {
+            return 0;
+        } else if (method.getReturnType() == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+
+    /**
+     * The default configuration, with the caches switched on or off.
+     */
+    private static final class Configuration implements TermAnnotationConfiguration
+    {
+        private static final int BATCH_THREADS = 0;
+
+        private static final int ASYNC_QUEUE_SIZE = 100;
+
+        private static final int STREAM_CHUNK_SIZE = 64 * 1024;
+
+        private static final int RESULT_CACHE_SIZE = 1000;
+
+        private static final long RESULT_CACHE_MEMORY = 32L * 1024 * 1024;
+
+        private static final int SENTENCE_CACHE_SIZE = 10000;
+
+        private static final int TERM_CACHE_SIZE = 20000;
+
+        private static final String ENGINE = "scigraph";
+
+        private static final long ENSEMBLE_TIMEOUT = 3000;
+
+        private static final int ENGINE_QUEUE_SIZE = 20;
+
+        private final boolean sentenceCache;
+
+        private final boolean termCache;
+
+        Configuration(boolean sentenceCache, boolean termCache)
+        {
+            this.sentenceCache = sentenceCache;
+            this.termCache = termCache;
+        }
+
+        @Override
+        public int getBatchThreads()
+        {
+            return BATCH_THREADS;
+        }
+
+        @Override
+        public int getAsyncThreads()
+        {
+            return BATCH_THREADS;
+        }
+
+        @Override
+        public int getAsyncQueueSize()
+        {
+            return ASYNC_QUEUE_SIZE;
+        }
+
+        @Override
+        public int getStreamChunkSize()
+        {
+            return STREAM_CHUNK_SIZE;
+        }
+
+        @Override
+        public int getResultCacheSize()
+        {
+            return RESULT_CACHE_SIZE;
+        }
+
+        @Override
+        public long getResultCacheMemory()
+        {
+            return RESULT_CACHE_MEMORY;
+        }
+
+        @Override
+        public long getResultStoreSize()
+        {
+            // Benchmarks measure the engines, not the disk
+            return 0;
+        }
+
+        @Override
+        public boolean isSentenceCacheEnabled()
+        {
+            return this.sentenceCache;
+        }
+
+        @Override
+        public int getSentenceCacheSize()
+        {
+            return SENTENCE_CACHE_SIZE;
+        }
+
+        @Override
+        public int getTermCacheSize()
+        {
+            return this.termCache ? TERM_CACHE_SIZE : 0;
+        }
+
+        @Override
+        public String getEngine()
+        {
+            return ENGINE;
+        }
+
+        @Override
+        public List<String> getEnsembleEngines()
+        {
+            return Arrays.asList(ENGINE, "biolark");
+        }
+
+        @Override
+        public long getEnsembleTimeout()
+        {
+            return ENSEMBLE_TIMEOUT;
+        }
+
+        @Override
+        public long getRequestTimeout()
+        {
+            return 0;
+        }
+
+        @Override
+        public int getEngineConcurrency(String engine)
+        {
+            return 0;
+        }
+
+        @Override
+        public int getEngineQueueSize(String engine)
+        {
+            return ENGINE_QUEUE_SIZE;
+        }
+
+        @Override
+        public long getEngineQueueTimeout(String engine)
+        {
+            return ENSEMBLE_TIMEOUT;
+        }
+
+        @Override
+        public int getEngineInstances(String engine)
+        {
+            return 0;
+        }
+
+        @Override
+        public String getEngineInitialization(String engine)
+        {
+            return EngineInitializer.EAGER;
+        }
+
+        @Override
+        public long getEngineInitializationTimeout(String engine)
+        {
+            return 0;
+        }
+
+        @Override
+        public int getReannotationThreads()
+        {
+            return 1;
+        }
+
+        @Override
+        public int getReannotationBatchSize()
+        {
+            return 1;
+        }
+
+        @Override
+        public long getReannotationBackoff()
+        {
+            return 0;
+        }
+
+        @Override
+        public List<String> getReannotationFields()
+        {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean isReannotationAutomatic()
+        {
+            return false;
+        }
+
+        @Override
+        public int getWarmupRounds(String engine)
+        {
+            return 0;
+        }
+
+        @Override
+        public String getWarmupCorpus(String engine)
+        {
+            return "";
+        }
+
+        @Override
+        public int getWorkerProcesses(String engine)
+        {
+            return 0;
+        }
+
+        @Override
+        public String getWorkerJvmOptions(String engine)
+        {
+            return "";
+        }
+
+        @Override
+        public String getWorkerClasspath(String engine)
+        {
+            return "";
+        }
+
+        @Override
+        public int getWorkerBatchSize(String engine)
+        {
+            return 1;
+        }
+
+        @Override
+        public long getWorkerTimeout(String engine)
+        {
+            return 0;
+        }
+    }
+}
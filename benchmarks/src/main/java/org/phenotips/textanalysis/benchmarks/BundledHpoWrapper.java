@@ -0,0 +1,129 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.benchmarks;
+
+import org.phenotips.textanalysis.internal.SciGraphWrapper;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import edu.sdsc.scigraph.annotation.Entity;
+import edu.sdsc.scigraph.annotation.EntityAnnotation;
+import edu.sdsc.scigraph.annotation.EntityFormatConfiguration;
+
+/**
+ * A {@link SciGraphWrapper} that finds the labels of a small bundled excerpt of HPO in the text. It stands in for the
+ * SciGraph entity processor, whose Neo4j graph is too large to ship with the benchmarks, so that the rest of the
+ * SciGraph annotation pipeline runs unchanged.
+ *
+ * @version $Id$
+ */
+public class BundledHpoWrapper implements SciGraphWrapper
+{
+    private static final String LABELS = "/hpo-labels.tsv";
+
+    private static final String PREFIX = "hpo:";
+
+    private static final char SEPARATOR = '\t';
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private final List<String> labels = new ArrayList<>();
+
+    private final List<String> ids = new ArrayList<>();
+
+    /**
+     * Loads the bundled labels.
+     *
+     * @throws IOException if the labels can't be read
+     */
+    public BundledHpoWrapper() throws IOException
+    {
+        try (InputStream input = BundledHpoWrapper.class.getResourceAsStream(LABELS);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(SEPARATOR);
+                if (line.startsWith("#") || separator < 0) {
+                    continue;
+                }
+                this.ids.add(line.substring(0, separator));
+                this.labels.add(line.substring(separator + 1).toLowerCase(Locale.ROOT));
+            }
+        }
+    }
+
+    /**
+     * @return a term for each identifier in the bundled labels
+     */
+    public Map<String, VocabularyTerm> getTerms()
+    {
+        Map<String, VocabularyTerm> terms = new HashMap<>();
+        for (int i = 0; i < this.ids.size(); ++i) {
+            if (!terms.containsKey(this.ids.get(i))) {
+                terms.put(this.ids.get(i), BenchmarkServices.term(this.ids.get(i), this.labels.get(i)));
+            }
+        }
+        return terms;
+    }
+
+    @Override
+    public List<EntityAnnotation> annotate(EntityFormatConfiguration config, int textLength) throws IOException
+    {
+        String text = read(config.getReader()).toLowerCase(Locale.ROOT);
+        List<EntityAnnotation> result = new ArrayList<>();
+        for (int i = 0; i < this.labels.size(); ++i) {
+            String label = this.labels.get(i);
+            int start = text.indexOf(label);
+            while (start >= 0) {
+                int end = start + label.length();
+                if (isWordBoundary(text, start - 1) && isWordBoundary(text, end)) {
+                    result.add(new EntityAnnotation(new Entity(label, PREFIX + this.ids.get(i)), start, end));
+                }
+                start = text.indexOf(label, start + 1);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isWordBoundary(String text, int position)
+    {
+        return position < 0 || position >= text.length() || !Character.isLetterOrDigit(text.charAt(position));
+    }
+
+    private static String read(Reader reader) throws IOException
+    {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[BUFFER_SIZE];
+        int read;
+        while ((read = reader.read(buffer)) >= 0) {
+            text.append(buffer, 0, read);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic clinical notes, and the positions of the phenotype mentions they contain, for benchmarks.
+ *
+ * @version $Id$
+ */
+public final class ClinicalNotes
+{
+    /** Phenotype mentions, each paired with the HPO term it refers to. */
+    static final String[][] PHENOTYPES = {
+        { "short stature", "HP:0004322" },
+        { "seizures", "HP:0001250" },
+        { "hypotonia", "HP:0001252" },
+        { "blue sclerae", "HP:0000592" },
+        { "microcephaly", "HP:0000252" },
+        { "intellectual disability", "HP:0001249" },
+        { "cleft palate", "HP:0000175" },
+        { "scoliosis", "HP:0002650" },
+        { "hearing loss", "HP:0000365" },
+        { "ptosis", "HP:0000508" }
+    };
+
+    private static final String[] FILLERS = {
+        "The patient was seen in clinic today",
+        "Her mother reports",
+        "On examination there was",
+        "Family history is notable for",
+        "He was referred for evaluation of",
+        "Previous imaging showed no evidence of"
+    };
+
+    private static final long SEED = 42;
+
+    /** The generated text. */
+    private final String text;
+
+    /** Start and end of each mention, as consecutive pairs. */
+    private final int[] mentions;
+
+    /** The HPO identifier of each mention. */
+    private final String[] termIds;
+
+    /**
+     * Generates a note.
+     *
+     * @param size the approximate length of the note, in characters
+     * @param density how many phenotypes are mentioned in each sentence
+     */
+    public ClinicalNotes(int size, int density)
+    {
+        Random random = new Random(SEED);
+        StringBuilder builder = new StringBuilder(size + 256);
+        List<Integer> positions = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        while (builder.length() < size) {
+            builder.append(FILLERS[random.nextInt(FILLERS.length)]);
+            for (int i = 0; i < density; ++i) {
+                String[] phenotype = PHENOTYPES[random.nextInt(PHENOTYPES.length)];
+                builder.append(i == 0 ? " " : " and ");
+                positions.add(builder.length());
+                builder.append(phenotype[0]);
+                positions.add(builder.length());
+                ids.add(phenotype[1]);
+            }
+            builder.append(". ");
+        }
+        this.text = builder.toString();
+        this.mentions = new int[positions.size()];
+        for (int i = 0; i < this.mentions.length; ++i) {
+            this.mentions[i] = positions.get(i);
+        }
+        this.termIds = ids.toArray(new String[ids.size()]);
+    }
+
+    /**
+     * @return the text of the note
+     */
+    public String getText()
+    {
+        return this.text;
+    }
+
+    /**
+     * @return the number of phenotype mentions in the note
+     */
+    public int getMentionCount()
+    {
+        return this.termIds.length;
+    }
+
+    /**
+     * @param index the index of a mention
+     * @return where the mention starts in the text
+     */
+    public int getStart(int index)
+    {
+        return this.mentions[2 * index];
+    }
+
+    /**
+     * @param index the index of a mention
+     * @return where the mention ends in the text
+     */
+    public int getEnd(int index)
+    {
+        return this.mentions[2 * index + 1];
+    }
+
+    /**
+     * @param index the index of a mention
+     * @return the HPO identifier of the mentioned term
+     */
+    public String getTermId(int index)
+    {
+        return this.termIds[index];
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.benchmarks;
+
+import org.phenotips.textanalysis.TermAnnotation;
+import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+import org.phenotips.textanalysis.internal.SciGraphAnnotationService;
+import org.phenotips.textanalysis.internal.TermAnnotationSentenceDetector;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a whole annotation request through {@link SciGraphAnnotationService}, as the script service does it:
+ * annotating the note, resolving the terms and attaching sentences. Entities are found in a small bundled excerpt of
+ * HPO by {@link BundledHpoWrapper}.
+ *
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SciGraphAnnotationBenchmark
+{
+    /** Length of the note, in characters. */
+    @Param({ "1000", "10000", "100000" })
+    public int noteSize;
+
+    /** Phenotypes mentioned per sentence. */
+    @Param({ "1", "5" })
+    public int density;
+
+    /** Whether the hits of already seen sentences are cached. */
+    @Param({ "false", "true" })
+    public boolean sentenceCache;
+
+    private String text;
+
+    private SciGraphAnnotationService service;
+
+    private final TermAnnotationSentenceDetector detector = new TermAnnotationSentenceDetector();
+
+    /**
+     * Generates the note and sets up the service.
+     *
+     * @throws IOException if the bundled vocabulary can't be read
+     */
+    @Setup
+    public void setUp() throws IOException
+    {
+        this.text = new ClinicalNotes(this.noteSize, this.density).getText();
+        BundledHpoWrapper wrapper = new BundledHpoWrapper();
+        this.service = new SciGraphAnnotationService();
+        BenchmarkServices.inject(this.service, "wrapper", wrapper);
+        BenchmarkServices.wire(this.service, wrapper.getTerms(), this.sentenceCache, true);
+    }
+
+    /**
+     * Stops the service threads, if any were started.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        this.service.dispose();
+    }
+
+    /**
+     * Annotates the note.
+     *
+     * @return the annotations, with their sentences
+     * @throws AnnotationException if annotating fails
+     */
+    @Benchmark
+    public List<TermAnnotation> annotate() throws AnnotationException
+    {
+        List<TermAnnotation> annotations = this.service.annotate(this.text);
+        this.detector.detectSentences(annotations, this.text);
+        return annotations;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.benchmarks;
+
+import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+import org.phenotips.textanalysis.internal.DefaultAnnotationMetrics;
+import org.phenotips.textanalysis.internal.EnginePool;
+import org.phenotips.textanalysis.internal.SciGraphAnnotationService;
+import org.phenotips.textanalysis.internal.SciGraphProcessorFactory;
+import org.phenotips.textanalysis.internal.SciGraphWrapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.sdsc.scigraph.annotation.EntityAnnotation;
+import edu.sdsc.scigraph.annotation.EntityFormatConfiguration;
+import edu.sdsc.scigraph.annotation.EntityProcessor;
+
+/**
+ * Measures how SciGraph annotation throughput scales with the number of threads, when all threads share one entity
+ * processor as {@code SciGraphWrapperImpl} does by default, and when each call checks out a processor from a pool.
+ * Each invocation annotates a batch of {@value #BATCH} notes spread over {@link #threads} threads, so the scaling
+ * curve is read from the throughput reported for each thread count.
+ * <p>
+ * The hits found for each note are compared with those found by a single thread, and mismatches or failures under
+ * contention are printed at the end of each trial: this is the measured answer to whether sharing a processor is
+ * safe. Only a real graph gives a meaningful answer, so point {@link #graph} to a directory holding SciGraph's
+ * {@code annotations.yaml}, e.g. {@code java -jar target/benchmarks.jar SciGraphConcurrency
+ * -p graph=/path/to/permanent/resources/Scigraph}. Without it, the bundled {@link BundledHpoWrapper} stands in for the
+ * processor, and only the overhead of the pool is measured.
+ * </p>
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SciGraphConcurrencyBenchmark
+{
+    /** How many notes are annotated by each invocation. */
+    public static final int BATCH = 64;
+
+    /** How many distinct notes the batch cycles through. */
+    private static final int DISTINCT_NOTES = 8;
+
+    /** Threads annotating at once. */
+    @Param({ "1", "2", "4", "8", "16", "32" })
+    public int threads;
+
+    /**
+     * Processors: 0 shares a single processor between all the threads, a positive value is the size of the pool, and
+     * -1 gives one processor per thread; these are the values of {@code phenotips.textanalysis.scigraph.instances}.
+     */
+    @Param({ "0", "1", "-1" })
+    public int instances;
+
+    /** Directory holding the configuration of a real SciGraph graph; empty to use the bundled stand-in. */
+    @Param({ "" })
+    public String graph;
+
+    /** Length of each note, in characters. */
+    @Param({ "2000" })
+    public int noteSize;
+
+    private final List<Callable<Integer>> tasks = new ArrayList<>();
+
+    private final AtomicInteger mismatches = new AtomicInteger();
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private int[] expected;
+
+    private EnginePool<SciGraphWrapper> pool;
+
+    private ExecutorService executor;
+
+    /**
+     * Creates the processors, and annotates the notes once from a single thread to know which hits to expect.
+     *
+     * @throws IOException if the graph or the bundled vocabulary can't be read
+     * @throws AnnotationException if annotating fails
+     */
+    @Setup
+    public void setUp() throws IOException, AnnotationException
+    {
+        boolean shared = this.instances == 0;
+        int size = shared ? 1 : this.instances < 0 ? this.threads : this.instances;
+        this.pool = new EnginePool<>("scigraph", createProcessors(size), shared, TimeUnit.MINUTES.toMillis(1),
+            new DefaultAnnotationMetrics());
+
+        List<String> notes = new ArrayList<>(DISTINCT_NOTES);
+        for (int i = 0; i < DISTINCT_NOTES; ++i) {
+            notes.add(new ClinicalNotes(this.noteSize + i * this.noteSize / DISTINCT_NOTES, 1 + i % 3).getText());
+        }
+        this.expected = new int[BATCH];
+        for (int i = 0; i < BATCH; ++i) {
+            final String note = notes.get(i % DISTINCT_NOTES);
+            this.expected[i] = annotate(note);
+            this.tasks.add(new Callable<Integer>()
+            {
+                @Override
+                public Integer call() throws IOException, AnnotationException
+                {
+                    return annotate(note);
+                }
+            });
+        }
+        this.executor = Executors.newFixedThreadPool(this.threads);
+    }
+
+    /**
+     * Stops the threads and reports the mismatches and failures seen under contention.
+     *
+     * @throws InterruptedException if interrupted while waiting for the threads to stop
+     */
+    @TearDown
+    public void tearDown() throws InterruptedException
+    {
+        this.executor.shutdownNow();
+        this.executor.awaitTermination(1, TimeUnit.MINUTES);
+        System.out.printf("%n%d threads, %s: %d notes with different hits and %d failed annotations%n",
+            this.threads, this.instances == 0 ? "one shared processor" : this.pool.getSize() + " pooled processors",
+            this.mismatches.get(), this.failures.get());
+    }
+
+    /**
+     * Annotates a batch of notes.
+     *
+     * @return the number of hits found, so that the work isn't optimized away
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    @Benchmark
+    public int annotateBatch() throws InterruptedException
+    {
+        List<Future<Integer>> results = this.executor.invokeAll(this.tasks);
+        int hits = 0;
+        for (int i = 0; i < results.size(); ++i) {
+            try {
+                int found = results.get(i).get();
+                if (found != this.expected[i]) {
+                    this.mismatches.incrementAndGet();
+                }
+                hits += found;
+            } catch (ExecutionException e) {
+                this.failures.incrementAndGet();
+            }
+        }
+        return hits;
+    }
+
+    private int annotate(String note) throws IOException, AnnotationException
+    {
+        SciGraphWrapper processor = this.pool.acquire();
+        try {
+            return processor.annotate(SciGraphAnnotationService.getFormatConfiguration(note), note.length()).size();
+        } finally {
+            this.pool.release(processor);
+        }
+    }
+
+    private List<SciGraphWrapper> createProcessors(int size) throws IOException
+    {
+        List<SciGraphWrapper> result = new ArrayList<>(size);
+        if (StringUtils.isBlank(this.graph)) {
+            for (int i = 0; i < size; ++i) {
+                result.add(new BundledHpoWrapper());
+            }
+            return result;
+        }
+        for (final EntityProcessor processor : new SciGraphProcessorFactory(new File(this.graph)).create(size)) {
+            result.add(new SciGraphWrapper()
+            {
+                @Override
+                public List<EntityAnnotation> annotate(EntityFormatConfiguration config, int textLength)
+                    throws IOException
+                {
+                    return processor.annotateEntities(config);
+                }
+            });
+        }
+        return result;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.benchmarks;
+
+import org.phenotips.textanalysis.TermAnnotation;
+import org.phenotips.textanalysis.internal.TermAnnotationSentenceDetector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures attaching sentences to the annotations of long, densely annotated notes with
+ * {@link TermAnnotationSentenceDetector}.
+ *
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SentenceDetectionBenchmark
+{
+    /** Length of the note, in characters. */
+    @Param({ "1000", "100000", "1000000" })
+    public int noteSize;
+
+    /** Phenotypes mentioned per sentence. */
+    @Param({ "1", "5" })
+    public int density;
+
+    private String text;
+
+    private List<TermAnnotation> annotations;
+
+    private final TermAnnotationSentenceDetector detector = new TermAnnotationSentenceDetector();
+
+    /**
+     * Generates the note and its annotations.
+     */
+    @Setup
+    public void setUp()
+    {
+        ClinicalNotes note = new ClinicalNotes(this.noteSize, this.density);
+        this.text = note.getText();
+        this.annotations = new ArrayList<>(note.getMentionCount());
+        for (int i = note.getMentionCount() - 1; i >= 0; --i) {
+            this.annotations.add(new TermAnnotation(note.getStart(i), note.getEnd(i), null));
+        }
+    }
+
+    /**
+     * Attaches sentences, without reading them.
+     *
+     * @return the annotations
+     */
+    @Benchmark
+    public List<TermAnnotation> detect()
+    {
+        this.detector.detectSentences(this.annotations, this.text);
+        return this.annotations;
+    }
+
+    /**
+     * Attaches sentences and reads all of them, as the annotation service page does.
+     *
+     * @param blackhole consumes the sentences
+     */
+    @Benchmark
+    public void detectAndRead(Blackhole blackhole)
+    {
+        this.detector.detectSentences(this.annotations, this.text);
+        for (TermAnnotation annotation : this.annotations) {
+            blackhole.consume(annotation.getSentence());
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.benchmarks;
+
+import org.phenotips.textanalysis.CompactTermAnnotations;
+import org.phenotips.textanalysis.TermAnnotation;
+import org.phenotips.textanalysis.TermDictionary;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures building and sorting the annotations of a note, as a list of {@link TermAnnotation} objects and as
+ * {@link CompactTermAnnotations}. The hits are shuffled, since engines don't return them in order.
+ *
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TermAnnotationSortBenchmark
+{
+    private static final long SEED = 7;
+
+    /** Length of the note, in characters. */
+    @Param({ "1000", "100000", "1000000" })
+    public int noteSize;
+
+    /** Phenotypes mentioned per sentence. */
+    @Param({ "1", "5" })
+    public int density;
+
+    private int[] starts;
+
+    private int[] ends;
+
+    private VocabularyTerm[] terms;
+
+    /**
+     * Generates the note and shuffles its hits.
+     */
+    @Setup
+    public void setUp()
+    {
+        ClinicalNotes note = new ClinicalNotes(this.noteSize, this.density);
+        Map<String, VocabularyTerm> vocabulary = BenchmarkServices.phenotypeTerms();
+        List<Integer> order = new ArrayList<>(note.getMentionCount());
+        for (int i = 0; i < note.getMentionCount(); ++i) {
+            order.add(i);
+        }
+        Collections.shuffle(order, new Random(SEED));
+        this.starts = new int[order.size()];
+        this.ends = new int[order.size()];
+        this.terms = new VocabularyTerm[order.size()];
+        for (int i = 0; i < order.size(); ++i) {
+            int mention = order.get(i);
+            this.starts[i] = note.getStart(mention);
+            this.ends[i] = note.getEnd(mention);
+            this.terms[i] = vocabulary.get(note.getTermId(mention));
+        }
+    }
+
+    /**
+     * Builds and sorts a list of annotation objects.
+     *
+     * @return the sorted annotations
+     */
+    @Benchmark
+    public List<TermAnnotation> sortObjects()
+    {
+        List<TermAnnotation> annotations = new ArrayList<>(this.starts.length);
+        for (int i = 0; i < this.starts.length; ++i) {
+            annotations.add(new TermAnnotation(this.starts[i], this.ends[i], this.terms[i]));
+        }
+        Collections.sort(annotations);
+        return annotations;
+    }
+
+    /**
+     * Builds and sorts compact annotations.
+     *
+     * @return the sorted annotations
+     */
+    @Benchmark
+    public CompactTermAnnotations sortCompact()
+    {
+        CompactTermAnnotations annotations = new CompactTermAnnotations(new TermDictionary(), this.starts.length);
+        for (int i = 0; i < this.starts.length; ++i) {
+            annotations.add(this.starts[i], this.ends[i], this.terms[i]);
+        }
+        annotations.sort();
+        return annotations;
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.benchmarks;
+
+import org.phenotips.textanalysis.TermAnnotation;
+import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+import org.phenotips.textanalysis.internal.AbstractTermAnnotationService;
+import org.phenotips.textanalysis.internal.BioLarkAnnotationService;
+import org.phenotips.textanalysis.internal.BiolarkWrapper;
+import org.phenotips.textanalysis.internal.SciGraphAnnotationService;
+import org.phenotips.textanalysis.internal.SciGraphWrapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import au.edu.uq.eresearch.biolark.cr.Annotation;
+import edu.sdsc.scigraph.annotation.Entity;
+import edu.sdsc.scigraph.annotation.EntityAnnotation;
+import edu.sdsc.scigraph.annotation.EntityFormatConfiguration;
+
+/**
+ * Measures turning the raw hits of each engine into annotations: parsing the term identifiers and resolving them
+ * against the vocabulary. The engines themselves are replaced by wrappers that return precomputed hits, so only the
+ * work done by the services is measured.
+ *
+ * @version $Id$
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TermResolutionBenchmark
+{
+    private static final String SCIGRAPH = "scigraph";
+
+    private static final String BIOLARK_URI = "http://purl.obolibrary.org/obo/";
+
+    /** The service to measure. */
+    @Param({ SCIGRAPH, "biolark" })
+    public String engine;
+
+    /** Length of the note, in characters. */
+    @Param({ "1000", "100000" })
+    public int noteSize;
+
+    /** Phenotypes mentioned per sentence. */
+    @Param({ "1", "5" })
+    public int density;
+
+    /** Whether resolved terms are cached across requests. */
+    @Param({ "false", "true" })
+    public boolean termCache;
+
+    private String text;
+
+    private AbstractTermAnnotationService service;
+
+    /**
+     * Generates the note and the hits the engine would find in it.
+     */
+    @Setup
+    public void setUp()
+    {
+        ClinicalNotes note = new ClinicalNotes(this.noteSize, this.density);
+        this.text = note.getText();
+        if (SCIGRAPH.equals(this.engine)) {
+            final List<EntityAnnotation> hits = new ArrayList<>(note.getMentionCount());
+            for (int i = 0; i < note.getMentionCount(); ++i) {
+                Entity entity = new Entity(this.text.substring(note.getStart(i), note.getEnd(i)),
+                    "hpo:" + note.getTermId(i));
+                hits.add(new EntityAnnotation(entity, note.getStart(i), note.getEnd(i)));
+            }
+            SciGraphAnnotationService sciGraph = new SciGraphAnnotationService();
+            BenchmarkServices.inject(sciGraph, "wrapper", new SciGraphWrapper()
+            {
+                @Override
+                public List<EntityAnnotation> annotate(EntityFormatConfiguration config, int textLength)
+                {
+                    return hits;
+                }
+            });
+            this.service = sciGraph;
+        } else {
+            final List<Annotation> hits = new ArrayList<>(note.getMentionCount());
+            for (int i = 0; i < note.getMentionCount(); ++i) {
+                Annotation hit = new Annotation();
+                hit.setUri(BIOLARK_URI + note.getTermId(i).replace(':', '_'));
+                hit.setStartOffset(note.getStart(i));
+                hit.setEndOffset(note.getEnd(i));
+                hit.setOriginalSpan(this.text.substring(note.getStart(i), note.getEnd(i)));
+                hits.add(hit);
+            }
+            BioLarkAnnotationService bioLark = new BioLarkAnnotationService();
+            BenchmarkServices.inject(bioLark, "biolark", new BiolarkWrapper()
+            {
+                @Override
+                public List<Annotation> annotatePlain(String text, boolean longestMatch)
+                {
+                    return hits;
+                }
+            });
+            this.service = bioLark;
+        }
+        BenchmarkServices.wire(this.service, BenchmarkServices.phenotypeTerms(), false, this.termCache);
+    }
+
+    /**
+     * Stops the service threads, if any were started.
+     */
+    @TearDown
+    public void tearDown()
+    {
+        this.service.dispose();
+    }
+
+    /**
+     * Parses and resolves all the hits of the note.
+     *
+     * @return the annotations
+     * @throws AnnotationException if annotating fails
+     */
+    @Benchmark
+    public List<TermAnnotation> resolve() throws AnnotationException
+    {
+        return this.service.annotate(this.text);
+    }
+}
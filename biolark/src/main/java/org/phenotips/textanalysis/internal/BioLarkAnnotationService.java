@@ -17,14 +17,11 @@
  */
 package org.phenotips.textanalysis.internal;
 
-import org.phenotips.textanalysis.TermAnnotation;
 import org.phenotips.textanalysis.TermAnnotationService;
-import org.phenotips.vocabulary.VocabularyManager;
-import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.annotation.Component;
 
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.inject.Inject;
@@ -44,14 +41,8 @@
 @Component
 @Named("biolark")
 @Singleton
-public class BioLarkAnnotationService implements TermAnnotationService
+public class BioLarkAnnotationService extends AbstractTermAnnotationService
 {
-    /**
-     * Ontology used to look up Phenotype term Ids.
-     */
-    @Inject
-    private VocabularyManager vocabularies;
-
     /**
      * Biolark annotation component.
      */
@@ -59,23 +50,18 @@ public class BioLarkAnnotationService implements TermAnnotationService
     private BiolarkWrapper biolark;
 
     @Override
-    public List<TermAnnotation> annotate(String text) throws AnnotationException
+    protected List<RawAnnotation> extract(String text) throws AnnotationException
     {
         final List<Annotation> biolarkAnnotations =
             this.biolark.annotatePlain(text, false);
-        final List<TermAnnotation> finalAnnotations =
-            new LinkedList<TermAnnotation>();
+        final List<RawAnnotation> hits =
+            new ArrayList<RawAnnotation>(biolarkAnnotations.size());
 
-        // Resolve each termID against the ontology
+        // Term IDs are resolved against the ontology by the parent class
         for (final Annotation biolarkAnnotation : biolarkAnnotations) {
             final String termId = FilenameUtils.getBaseName(biolarkAnnotation.getUri()).replace('_', ':');
-            final VocabularyTerm term = this.vocabularies.resolveTerm(termId);
-            if (term != null) {
-                final long start = biolarkAnnotation.getStartOffset();
-                final long end = biolarkAnnotation.getEndOffset();
-                finalAnnotations.add(new TermAnnotation(start, end, term));
-            }
+            hits.add(new RawAnnotation(termId, biolarkAnnotation.getStartOffset(), biolarkAnnotation.getEndOffset()));
         }
-        return finalAnnotations;
+        return hits;
     }
 }
@@ -0,0 +1,55 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.xwiki.component.annotation.Component;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+/**
+ * Looks up the {@link BiolarkWrapper} at startup, so that the biolark engine starts initializing right away when configured
+ * as eager.
+ *
+ * @version $Id$
+ */
+@Component
+@Named(BiolarkInitializationStarter.NAME)
+@Singleton
+public class BiolarkInitializationStarter extends EngineInitializationStarter
+{
+    /** The name of this listener. */
+    public static final String NAME = "textanalysis-biolark-initialization";
+
+    @Inject
+    private Provider<BiolarkWrapper> wrapper;
+
+    @Override
+    protected String getEngine()
+    {
+        return "biolark";
+    }
+
+    @Override
+    protected void lookupWrapper()
+    {
+        this.wrapper.get();
+    }
+}
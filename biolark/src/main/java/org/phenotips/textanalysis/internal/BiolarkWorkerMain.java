@@ -0,0 +1,114 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.internal.BiolarkWorkerProtocol.Request;
+import org.phenotips.textanalysis.internal.BiolarkWorkerProtocol.Response;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import au.edu.uq.eresearch.biolark.cr.Annotation;
+import au.edu.uq.eresearch.biolark.cr.BioLarK_CR;
+
+/**
+ * Entry point of the child JVMs started by {@link BiolarkWorkerPool}: loads BioLark from the properties file given as
+ * the only argument, then annotates the texts received on the standard input, answering on the standard output,
+ * using the {@link BiolarkWorkerProtocol}. The worker exits when its standard input is closed, which also happens
+ * when the wiki JVM dies.
+ *
+ * @version $Id$
+ */
+public final class BiolarkWorkerMain
+{
+    private BiolarkWorkerMain()
+    {
+        // Only used through main
+    }
+
+    /**
+     * Runs a worker.
+     *
+     * @param args the path to the BioLark properties file
+     * @throws IOException if talking to the wiki fails
+     */
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length != 1) {
+            System.err.println("Usage: BiolarkWorkerMain <path to cr.properties>");
+            System.exit(2);
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(FileDescriptor.in)));
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out)));
+        // The standard output carries the protocol, so anything BioLark prints goes to the log instead
+        System.setOut(System.err);
+
+        BioLarK_CR biolark = new BioLarK_CR(args[0]);
+        BiolarkWorkerProtocol.writeReady(out);
+        serve(biolark, in, out);
+    }
+
+    /**
+     * Annotates the batches of texts read from a stream until it ends.
+     *
+     * @param biolark the BioLark instance to annotate with
+     * @param in the stream of {@link BiolarkWorkerProtocol#REQUEST} frames
+     * @param out the stream where {@link BiolarkWorkerProtocol#RESPONSE} frames are written
+     * @throws IOException if reading or writing fails
+     */
+    static void serve(BioLarK_CR biolark, DataInputStream in, DataOutputStream out) throws IOException
+    {
+        while (true) {
+            List<Request> requests;
+            try {
+                requests = BiolarkWorkerProtocol.readRequests(
+                    BiolarkWorkerProtocol.readFrame(in, BiolarkWorkerProtocol.REQUEST));
+            } catch (EOFException e) {
+                return;
+            }
+            List<Response> responses = new ArrayList<>(requests.size());
+            for (Request request : requests) {
+                responses.add(annotate(biolark, request));
+            }
+            BiolarkWorkerProtocol.writeResponses(out, responses);
+        }
+    }
+
+    private static Response annotate(BioLarK_CR biolark, Request request)
+    {
+        try {
+            List<Annotation> annotations = biolark.annotate_plain(request.text, request.longestMatch);
+            return new Response(request.id,
+                annotations == null ? Collections.<Annotation>emptyList() : annotations, null);
+        } catch (RuntimeException e) {
+            // A text BioLark fails on shouldn't take down the other texts of the batch, nor the worker
+            return new Response(request.id, null, String.valueOf(e.getMessage()));
+        }
+    }
+}
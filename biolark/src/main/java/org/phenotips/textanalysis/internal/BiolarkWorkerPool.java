@@ -0,0 +1,99 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import au.edu.uq.eresearch.biolark.cr.Annotation;
+
+/**
+ * Runs BioLark out of the wiki JVM, in a pool of {@link BiolarkWorkerProcess child JVMs} with their own heap, so that
+ * BioLark's memory is isolated from the wiki and can be scaled independently. Each call goes to the worker with the
+ * fewest texts pending; workers which are restarting after a crash are skipped, and the texts still queued on a worker
+ * when it crashes are given to another one.
+ *
+ * @version $Id$
+ */
+class BiolarkWorkerPool implements BiolarkWrapper
+{
+    private final String engine;
+
+    private final List<BiolarkWorkerProcess> workers;
+
+    private final long timeout;
+
+    private final AnnotationMetrics metrics;
+
+    /**
+     * @param engine the engine name, used as the prefix of the recorded metrics
+     * @param workers the started workers
+     * @param timeout how long, in milliseconds, a call waits for a worker to answer; a worker which doesn't is
+     *            restarted
+     * @param metrics where to record how many texts were pending on the chosen worker
+     */
+    BiolarkWorkerPool(String engine, List<BiolarkWorkerProcess> workers, long timeout, AnnotationMetrics metrics)
+    {
+        this.engine = engine;
+        this.workers = workers;
+        this.timeout = timeout;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public List<Annotation> annotatePlain(String text, boolean longestMatch) throws AnnotationException
+    {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.timeout);
+        while (true) {
+            BiolarkWorkerProcess worker = null;
+            for (BiolarkWorkerProcess candidate : this.workers) {
+                if (candidate.isAlive() && (worker == null || candidate.getLoad() < worker.getLoad())) {
+                    worker = candidate;
+                }
+            }
+            if (worker == null) {
+                throw new EngineOverloadedException("All the BioLark workers are restarting");
+            }
+            this.metrics.recordValue(this.engine + ".pending", worker.getLoad());
+
+            CompletableFuture<List<Annotation>> result = worker.submit(text, longestMatch);
+            try {
+                return result.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                worker.abandon(result);
+                throw new AnnotationException("BioLark worker didn't answer within " + this.timeout + " ms");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof BiolarkWorkerProcess.NotSentException) {
+                    // The worker restarted before sending the text, which another worker can take instead
+                    continue;
+                } else if (e.getCause() instanceof AnnotationException) {
+                    throw (AnnotationException) e.getCause();
+                }
+                throw new AnnotationException(e.getMessage(), e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AnnotationException("Interrupted while waiting for a BioLark worker");
+            }
+        }
+    }
+}
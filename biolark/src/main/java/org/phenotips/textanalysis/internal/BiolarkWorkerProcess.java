@@ -0,0 +1,378 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+import org.phenotips.textanalysis.internal.BiolarkWorkerProtocol.Request;
+import org.phenotips.textanalysis.internal.BiolarkWorkerProtocol.Response;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+
+import au.edu.uq.eresearch.biolark.cr.Annotation;
+
+/**
+ * One child JVM running BioLark through {@link BiolarkWorkerMain}. Submitted texts are queued, and a writer thread
+ * sends everything queued, up to the batch size, as one request frame; a supervisor thread reads the answers and
+ * completes the matching futures. When the child exits, or is destroyed because it didn't answer a text in time, the
+ * texts it was annotating fail, and it is restarted after a delay which doubles with each consecutive crash. Texts
+ * still queued fail with a {@link NotSentException}, so that the pool can give them to another worker.
+ *
+ * @version $Id$
+ */
+class BiolarkWorkerProcess
+{
+    /** How long to wait before restarting a worker which crashed, in milliseconds. */
+    private static final long INITIAL_BACKOFF = 1000;
+
+    /** The longest wait before restarting a worker, reached after repeated crashes. */
+    private static final long MAX_BACKOFF = 60000;
+
+    private final String name;
+
+    private final List<String> command;
+
+    private final File log;
+
+    private final int batchSize;
+
+    private final Logger logger;
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+
+    private final Map<Long, Pending> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong ids = new AtomicLong();
+
+    private volatile Process process;
+
+    private volatile DataInputStream output;
+
+    private volatile DataOutputStream input;
+
+    private volatile boolean alive;
+
+    private volatile boolean stopped;
+
+    private Thread writer;
+
+    private Thread supervisor;
+
+    /**
+     * Reported for a text which was never sent to the child JVM because it is restarting, and can safely be submitted
+     * again to another worker.
+     */
+    static final class NotSentException extends AnnotationException
+    {
+        private static final long serialVersionUID = 1L;
+
+        NotSentException(String message)
+        {
+            super(message);
+        }
+    }
+
+    /**
+     * A submitted text and the future completed with its annotations.
+     */
+    private static final class Pending
+    {
+        private final Request request;
+
+        private final CompletableFuture<List<Annotation>> future = new CompletableFuture<>();
+
+        Pending(Request request)
+        {
+            this.request = request;
+        }
+    }
+
+    /**
+     * @param name the name of the worker, used in logs and thread names
+     * @param command the command starting the child JVM
+     * @param log the file where the child JVM's standard error is appended
+     * @param batchSize how many queued texts are sent at once
+     * @param logger the logger to report crashes to
+     */
+    BiolarkWorkerProcess(String name, List<String> command, File log, int batchSize, Logger logger)
+    {
+        this.name = name;
+        this.command = command;
+        this.log = log;
+        this.batchSize = Math.max(1, batchSize);
+        this.logger = logger;
+    }
+
+    /**
+     * Starts the child JVM, without waiting for BioLark to load, so that several workers can load in parallel.
+     *
+     * @throws IOException if the child JVM can't be started
+     */
+    void launch() throws IOException
+    {
+        ProcessBuilder builder = new ProcessBuilder(this.command);
+        builder.redirectError(Redirect.appendTo(this.log));
+        Process started = builder.start();
+        this.output = new DataInputStream(new BufferedInputStream(started.getInputStream()));
+        this.input = new DataOutputStream(new BufferedOutputStream(started.getOutputStream()));
+        this.process = started;
+    }
+
+    /**
+     * Waits for the child JVM started by {@link #launch()} to load BioLark, then starts serving submitted texts.
+     *
+     * @throws IOException if the child JVM exits before being ready
+     */
+    void start() throws IOException
+    {
+        awaitReady();
+        this.writer = new Thread(this.name + " writer")
+        {
+            @Override
+            public void run()
+            {
+                write();
+            }
+        };
+        this.supervisor = new Thread(this.name + " supervisor")
+        {
+            @Override
+            public void run()
+            {
+                supervise();
+            }
+        };
+        this.writer.setDaemon(true);
+        this.supervisor.setDaemon(true);
+        this.writer.start();
+        this.supervisor.start();
+    }
+
+    /**
+     * Queues a text to be annotated by this worker.
+     *
+     * @param text the text to annotate
+     * @param longestMatch whether only the longest matches are wanted
+     * @return a future completed with the annotations, or with an {@link AnnotationException} if BioLark fails on
+     *         this text or the worker crashes before answering, a {@link NotSentException} if it crashes before the
+     *         text was sent
+     */
+    CompletableFuture<List<Annotation>> submit(String text, boolean longestMatch)
+    {
+        Pending pending = new Pending(new Request(this.ids.incrementAndGet(), text, longestMatch));
+        this.queue.add(pending);
+        return pending.future;
+    }
+
+    /**
+     * Gives up on a text which wasn't answered in time. A text still queued is simply not sent. A text already sent
+     * may have got BioLark stuck, holding up every text sent after it, so the child JVM is destroyed and restarted,
+     * which fails the other texts it was annotating and hands back the ones still queued.
+     *
+     * @param future the future returned by {@link #submit(String, boolean)} for the text
+     */
+    void abandon(CompletableFuture<List<Annotation>> future)
+    {
+        future.cancel(false);
+        for (Map.Entry<Long, Pending> entry : this.inFlight.entrySet()) {
+            if (entry.getValue().future == future && this.inFlight.remove(entry.getKey()) != null) {
+                this.logger.warn("{} didn't answer in time, restarting it", this.name);
+                this.alive = false;
+                Process current = this.process;
+                if (current != null) {
+                    current.destroy();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return whether the worker is running and can accept texts
+     */
+    boolean isAlive()
+    {
+        return this.alive;
+    }
+
+    /**
+     * @return how many texts were submitted to this worker and not yet answered
+     */
+    int getLoad()
+    {
+        return this.queue.size() + this.inFlight.size();
+    }
+
+    /**
+     * Stops the worker and its child JVM, failing any texts not yet answered.
+     */
+    void stop()
+    {
+        this.stopped = true;
+        this.alive = false;
+        if (this.writer != null) {
+            this.writer.interrupt();
+            this.supervisor.interrupt();
+        }
+        if (this.process != null) {
+            this.process.destroy();
+        }
+        failAll(this.name + " was stopped");
+    }
+
+    private void awaitReady() throws IOException
+    {
+        try {
+            BiolarkWorkerProtocol.readFrame(this.output, BiolarkWorkerProtocol.READY);
+        } catch (IOException e) {
+            this.process.destroy();
+            throw new IOException(this.name + " exited before loading BioLark, see " + this.log, e);
+        }
+        this.alive = true;
+    }
+
+    private void write()
+    {
+        while (!this.stopped) {
+            List<Pending> batch = new ArrayList<>(this.batchSize);
+            try {
+                batch.add(this.queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            this.queue.drainTo(batch, this.batchSize - 1);
+            if (!this.alive) {
+                fail(batch, new NotSentException(this.name + " is restarting"));
+                continue;
+            }
+            List<Request> requests = new ArrayList<>(batch.size());
+            for (Pending pending : batch) {
+                // Texts whose caller gave up waiting aren't worth annotating any more
+                if (!pending.future.isCancelled()) {
+                    this.inFlight.put(pending.request.id, pending);
+                    requests.add(pending.request);
+                }
+            }
+            if (requests.isEmpty()) {
+                continue;
+            }
+            try {
+                BiolarkWorkerProtocol.writeRequests(this.input, requests);
+            } catch (IOException e) {
+                // The supervisor notices the crash and restarts the child
+                for (Pending pending : batch) {
+                    this.inFlight.remove(pending.request.id);
+                }
+                fail(batch, new AnnotationException(this.name + " crashed: " + e.getMessage()));
+            }
+        }
+    }
+
+    private void supervise()
+    {
+        long backoff = INITIAL_BACKOFF;
+        while (!this.stopped) {
+            long startedAt = System.currentTimeMillis();
+            try {
+                read();
+            } catch (IOException e) {
+                if (!this.stopped) {
+                    this.logger.warn("{} crashed, see {}: {}", this.name, this.log, e.getMessage());
+                }
+            }
+            this.alive = false;
+            this.process.destroy();
+            failAll(this.name + " crashed");
+            if (System.currentTimeMillis() - startedAt > MAX_BACKOFF) {
+                backoff = INITIAL_BACKOFF;
+            }
+            while (!this.stopped) {
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                backoff = Math.min(2 * backoff, MAX_BACKOFF);
+                try {
+                    launch();
+                    awaitReady();
+                    this.logger.info("Restarted {}", this.name);
+                    break;
+                } catch (IOException e) {
+                    this.logger.warn("Failed to restart {}: {}", this.name, e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void read() throws IOException
+    {
+        while (!this.stopped) {
+            List<Response> responses = BiolarkWorkerProtocol.readResponses(
+                BiolarkWorkerProtocol.readFrame(this.output, BiolarkWorkerProtocol.RESPONSE));
+            for (Response response : responses) {
+                Pending pending = this.inFlight.remove(response.id);
+                if (pending == null) {
+                    continue;
+                }
+                if (response.error != null) {
+                    pending.future.completeExceptionally(new AnnotationException(response.error));
+                } else {
+                    pending.future.complete(response.annotations);
+                }
+            }
+        }
+    }
+
+    private void failAll(String message)
+    {
+        List<Pending> queued = new ArrayList<>();
+        this.queue.drainTo(queued);
+        fail(queued, new NotSentException(message));
+        List<Pending> sent = new ArrayList<>();
+        for (Long id : new ArrayList<>(this.inFlight.keySet())) {
+            Pending removed = this.inFlight.remove(id);
+            if (removed != null) {
+                sent.add(removed);
+            }
+        }
+        fail(sent, new AnnotationException(message));
+    }
+
+    private static void fail(List<Pending> pending, AnnotationException error)
+    {
+        for (Pending item : pending) {
+            item.future.completeExceptionally(error);
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import au.edu.uq.eresearch.biolark.cr.Annotation;
+
+/**
+ * The framed binary protocol spoken between the wiki and its BioLark worker processes, over the standard input and
+ * output of the workers. Each frame is its payload length as an {@code int}, then the payload: a type byte followed
+ * by the content of the frame. The worker sends {@link #READY} once BioLark is loaded, then answers each
+ * {@link #REQUEST} frame, which may batch several texts, with a {@link #RESPONSE} frame listing their annotations in
+ * the same order. Strings are written as their UTF-8 length, or -1 for {@code null}, followed by their bytes.
+ *
+ * @version $Id$
+ */
+final class BiolarkWorkerProtocol
+{
+    /** Sent by the worker once it is ready to annotate. */
+    static final byte READY = 1;
+
+    /** A batch of texts to annotate: their count, then for each its id, the longest match flag and the text. */
+    static final byte REQUEST = 2;
+
+    /**
+     * The results of a batch: their count, then for each the request id and a status byte; for {@link #OK} the number
+     * of annotations and for each its start, end, URI and original span; for {@link #ERROR} a message.
+     */
+    static final byte RESPONSE = 3;
+
+    /** Status of a text annotated successfully. */
+    static final byte OK = 0;
+
+    /** Status of a text that couldn't be annotated. */
+    static final byte ERROR = 1;
+
+    /** Frames larger than this are considered corrupted. */
+    private static final int MAX_FRAME_SIZE = 256 * 1024 * 1024;
+
+    /** The smallest encoded request or response: an id, a flag or status, and a string length or annotation count. */
+    private static final int MIN_ENTRY_SIZE = 13;
+
+    /** The smallest encoded annotation: its start, end, and two string lengths. */
+    private static final int MIN_ANNOTATION_SIZE = 16;
+
+    private BiolarkWorkerProtocol()
+    {
+        // Utility class
+    }
+
+    /**
+     * A text to annotate, as sent in a {@link #REQUEST} frame.
+     */
+    static class Request
+    {
+        final long id;
+
+        final String text;
+
+        final boolean longestMatch;
+
+        Request(long id, String text, boolean longestMatch)
+        {
+            this.id = id;
+            this.text = text;
+            this.longestMatch = longestMatch;
+        }
+    }
+
+    /**
+     * The result for one text, as sent in a {@link #RESPONSE} frame: either annotations or an error message.
+     */
+    static class Response
+    {
+        final long id;
+
+        final List<Annotation> annotations;
+
+        final String error;
+
+        Response(long id, List<Annotation> annotations, String error)
+        {
+            this.id = id;
+            this.annotations = annotations;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Writes a {@link #READY} frame.
+     *
+     * @param out the stream to write to
+     * @throws IOException if writing fails
+     */
+    static void writeReady(DataOutputStream out) throws IOException
+    {
+        writeFrame(out, READY, new ByteArrayOutputStream());
+    }
+
+    /**
+     * Writes a {@link #REQUEST} frame.
+     *
+     * @param out the stream to write to
+     * @param requests the texts to annotate
+     * @throws IOException if writing fails
+     */
+    static void writeRequests(DataOutputStream out, List<Request> requests) throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(buffer);
+        payload.writeInt(requests.size());
+        for (Request request : requests) {
+            payload.writeLong(request.id);
+            payload.writeBoolean(request.longestMatch);
+            writeString(payload, request.text);
+        }
+        writeFrame(out, REQUEST, buffer);
+    }
+
+    /**
+     * Writes a {@link #RESPONSE} frame.
+     *
+     * @param out the stream to write to
+     * @param responses the results, in the order of the requests
+     * @throws IOException if writing fails
+     */
+    static void writeResponses(DataOutputStream out, List<Response> responses) throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(buffer);
+        payload.writeInt(responses.size());
+        for (Response response : responses) {
+            payload.writeLong(response.id);
+            if (response.error != null) {
+                payload.writeByte(ERROR);
+                writeString(payload, response.error);
+                continue;
+            }
+            payload.writeByte(OK);
+            payload.writeInt(response.annotations.size());
+            for (Annotation annotation : response.annotations) {
+                payload.writeInt(annotation.getStartOffset());
+                payload.writeInt(annotation.getEndOffset());
+                writeString(payload, annotation.getUri());
+                writeString(payload, annotation.getOriginalSpan());
+            }
+        }
+        writeFrame(out, RESPONSE, buffer);
+    }
+
+    /**
+     * Reads the next frame.
+     *
+     * @param in the stream to read from
+     * @param expectedType the type the frame must have
+     * @return a stream over the content of the frame, positioned after its type byte
+     * @throws EOFException if the stream ended before the frame started
+     * @throws IOException if reading fails, or the frame is corrupted or of another type
+     */
+    static DataInputStream readFrame(DataInputStream in, byte expectedType) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 1 || length > MAX_FRAME_SIZE) {
+            throw new IOException("Corrupted frame of " + length + " bytes");
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        if (frame[0] != expectedType) {
+            throw new IOException("Unexpected frame of type " + frame[0] + " instead of " + expectedType);
+        }
+        return new DataInputStream(new ByteArrayInputStream(frame, 1, length - 1));
+    }
+
+    /**
+     * Reads the content of a {@link #REQUEST} frame.
+     *
+     * @param frame the content of the frame, as returned by {@link #readFrame(DataInputStream, byte)}
+     * @return the texts to annotate
+     * @throws IOException if the frame is corrupted
+     */
+    static List<Request> readRequests(DataInputStream frame) throws IOException
+    {
+        int count = readCount(frame, MIN_ENTRY_SIZE);
+        List<Request> result = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            long id = frame.readLong();
+            boolean longestMatch = frame.readBoolean();
+            result.add(new Request(id, readString(frame), longestMatch));
+        }
+        return result;
+    }
+
+    /**
+     * Reads the content of a {@link #RESPONSE} frame.
+     *
+     * @param frame the content of the frame, as returned by {@link #readFrame(DataInputStream, byte)}
+     * @return the results, in the order of the requests
+     * @throws IOException if the frame is corrupted
+     */
+    static List<Response> readResponses(DataInputStream frame) throws IOException
+    {
+        int count = readCount(frame, MIN_ENTRY_SIZE);
+        List<Response> result = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            long id = frame.readLong();
+            if (frame.readByte() == ERROR) {
+                result.add(new Response(id, null, readString(frame)));
+                continue;
+            }
+            int size = readCount(frame, MIN_ANNOTATION_SIZE);
+            List<Annotation> annotations = new ArrayList<>(size);
+            for (int j = 0; j < size; ++j) {
+                Annotation annotation = new Annotation();
+                annotation.setStartOffset(frame.readInt());
+                annotation.setEndOffset(frame.readInt());
+                annotation.setUri(readString(frame));
+                annotation.setOriginalSpan(readString(frame));
+                annotations.add(annotation);
+            }
+            result.add(new Response(id, annotations, null));
+        }
+        return result;
+    }
+
+    private static void writeFrame(DataOutputStream out, byte type, ByteArrayOutputStream payload) throws IOException
+    {
+        out.writeInt(payload.size() + 1);
+        out.writeByte(type);
+        payload.writeTo(out);
+        out.flush();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException
+    {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        checkRemaining(in, length);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the number of elements that follow, checking that the rest of the frame is large enough to hold them, so
+     * that a corrupted count doesn't cause a huge allocation.
+     */
+    private static int readCount(DataInputStream in, int elementSize) throws IOException
+    {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupted frame announcing " + count + " elements");
+        }
+        checkRemaining(in, (long) count * elementSize);
+        return count;
+    }
+
+    private static void checkRemaining(DataInputStream in, long size) throws IOException
+    {
+        // Frames are read fully in memory, so what is available is exactly what is left of the frame
+        if (size > in.available()) {
+            throw new IOException("Corrupted frame announcing " + size + " bytes with only " + in.available()
+                + " left");
+        }
+    }
+}
@@ -17,6 +17,8 @@
  */
 package org.phenotips.textanalysis.internal;
 
+import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+
 import org.xwiki.component.annotation.Role;
 
 import java.util.List;
@@ -36,6 +38,7 @@
      * @param text Text to be annotated
      * @param longestMatch Set to true if biolark should be looking for longest matches
      * @return List of Biolark annotations
+     * @throws AnnotationException if BioLark isn't initialized yet, failed to initialize, or is disabled
      */
-    List<Annotation> annotatePlain(String text, boolean longestMatch);
+    List<Annotation> annotatePlain(String text, boolean longestMatch) throws AnnotationException;
 }
@@ -17,7 +17,11 @@
  */
 package org.phenotips.textanalysis.internal;
 
+import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.environment.Environment;
@@ -25,20 +29,45 @@
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.inject.Inject;
 
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
 import au.edu.uq.eresearch.biolark.cr.Annotation;
 import au.edu.uq.eresearch.biolark.cr.BioLarK_CR;
 
 /**
- * Wrapper component for BioLark phenotype annotation library.
+ * Wrapper component for BioLark phenotype annotation library. BioLark is initialized in the background, since it may
+ * have to download and build its resources first.
+ * <p>
+ * BioLark writes into its working directories while annotating, so an instance is never used by two calls at once.
+ * To annotate in parallel, {@code phenotips.textanalysis.biolark.instances} instances are pooled, each with private
+ * working directories under {@value #INSTANCES_DIRECTORY}, where the shared read-only resources are linked.
+ * </p>
+ * <p>
+ * When {@code phenotips.textanalysis.biolark.workers} is set, BioLark runs instead in that many child JVMs, see
+ * {@link BiolarkWorkerPool}, each with its own working directories and heap.
+ * </p>
  *
  * @version $Id$
  */
 @Component
-public class BiolarkWrapperImpl implements BiolarkWrapper, Initializable
+public class BiolarkWrapperImpl implements BiolarkWrapper, Initializable, Disposable
 {
     /** Relative path to the directory containing biolark resources. */
     public static final String ROOT_DIRECTORY = "resources/BioLark-CR/";
@@ -52,32 +81,95 @@ public class BiolarkWrapperImpl implements BiolarkWrapper, Initializable
     /** Name of directory for biolark generated temporary files. */
     public static final String TA_TMP = "ta_tmp";
 
+    /** Name of directory holding the private working directories of each pooled biolark instance. */
+    public static final String INSTANCES_DIRECTORY = "instances";
+
+    /** Name of the file where a biolark worker process logs, next to its properties file. */
+    public static final String WORKER_LOG = "worker.log";
+
     /** Url of biolark resources archive. */
     public static final String RESOURCE_FILES_URL =
         "http://nexus.cs.toronto.edu/nexus/service/local/repositories/externals/"
             + "content/org/biolark/biolark-resources/0.1a/biolark-resources-0.1a.jar";
 
+    /** The engine name reported in Flight Recorder events. */
+    private static final String ENGINE = "biolark";
+
+    /** The phase reported while creating the pooled instances. */
+    private static final String INITIALIZING = "initializing";
+
+    /** Entries of the biolark root directory that each pooled instance gets its own copy of, instead of a link. */
+    private static final Collection<String> PRIVATE_ENTRIES =
+        Arrays.asList(IO_FILENAME, TA_TMP, INSTANCES_DIRECTORY, PROPERTIES_FILENAME, WORKER_LOG);
+
     @Inject
     private Environment environment;
 
-    private BioLarK_CR biolark;
+    @Inject
+    private TermAnnotationConfiguration configuration;
+
+    @Inject
+    private EngineReadiness readiness;
+
+    @Inject
+    private AnnotationMetrics metrics;
+
+    @Inject
+    private Logger logger;
+
+    /** Either the pooled instances or the worker processes, whichever are configured. */
+    private EngineInitializer<BiolarkWrapper> biolark;
+
+    /** The worker processes started so far, stopped on dispose even if they didn't finish loading. */
+    private final List<BiolarkWorkerProcess> workers = new CopyOnWriteArrayList<>();
 
     @Override
     public void initialize() throws InitializationException
     {
-        String propertiesPath;
-        try {
-            propertiesPath = generateBiolarkResources();
-            this.biolark = new BioLarK_CR(propertiesPath);
-        } catch (IOException e) {
-            throw new InitializationException(e.getMessage());
+        this.biolark = new EngineInitializer<BiolarkWrapper>(ENGINE, this.readiness, this.logger)
+        {
+            @Override
+            protected BiolarkWrapper create() throws InitializationException
+            {
+                try {
+                    int processes = BiolarkWrapperImpl.this.configuration.getWorkerProcesses(ENGINE);
+                    return processes > 0 ? createWorkers(processes) : createPool();
+                } catch (IOException e) {
+                    throw new InitializationException(e.getMessage(), e);
+                }
+            }
+        };
+        this.biolark.schedule(this.configuration.getEngineInitialization(ENGINE));
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.biolark.stop();
+        for (BiolarkWorkerProcess worker : this.workers) {
+            worker.stop();
         }
     }
 
     @Override
-    public List<Annotation> annotatePlain(String text, boolean longestMatch)
+    public List<Annotation> annotatePlain(String text, boolean longestMatch) throws AnnotationException
     {
-        return this.biolark.annotate_plain(text, longestMatch);
+        BiolarkWrapper engine = this.biolark.get(this.configuration.getEngineInitializationTimeout(ENGINE));
+        EngineCallEvent event = FlightRecorderSupport.isEnabled() ? new EngineCallEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        List<Annotation> result = engine.annotatePlain(text, longestMatch);
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.engine = ENGINE;
+                event.textLength = text.length();
+                event.hits = result.size();
+                event.commit();
+            }
+        }
+        return result;
     }
 
     /**
@@ -123,19 +215,161 @@ public String generateBiolarkResources() throws IOException, InitializationExcep
         }
 
         // Create properties file
-        final FileWriter bw = new FileWriter(biolarkProperties);
-        bw.write("logLevel=INFO\n");
-        bw.write("longestMatch=FALSE\n");
-        bw.write("outputFormat=text\n");
-        bw.append("path=").append(biolarkRoot.getAbsolutePath());
-        bw.append(System.lineSeparator());
-        bw.append("inputFolder=").append(emptyDir.getAbsolutePath());
-        bw.append(System.lineSeparator());
-        bw.append("outputFolder=").append(emptyDir.getAbsolutePath());
-        bw.append(System.lineSeparator());
-        bw.close();
+        writeProperties(biolarkProperties, biolarkRoot, emptyDir);
 
         return biolarkProperties.getAbsolutePath();
     }
 
+    /**
+     * Creates the private working directories of a pooled biolark instance, linking there everything else found in
+     * the biolark root directory, and a properties file pointing to them.
+     *
+     * @param biolarkRoot the biolark root directory, with the resources generated by
+     *            {@link #generateBiolarkResources()}
+     * @param index the index of the instance in the pool
+     * @return path to generated properties file of the instance
+     * @throws IOException in case of error in creating the directories, links or property file
+     */
+    static String generateInstanceResources(File biolarkRoot, int index) throws IOException
+    {
+        final File instanceRoot = new File(new File(biolarkRoot, INSTANCES_DIRECTORY), String.valueOf(index));
+        final File instanceProperties = new File(instanceRoot, PROPERTIES_FILENAME);
+        final File emptyDir = new File(instanceRoot, IO_FILENAME);
+
+        emptyDir.mkdirs();
+        new File(instanceRoot, TA_TMP).mkdirs();
+        for (File entry : biolarkRoot.listFiles()) {
+            Path link = new File(instanceRoot, entry.getName()).toPath();
+            if (!PRIVATE_ENTRIES.contains(entry.getName()) && !Files.exists(link, LinkOption.NOFOLLOW_LINKS)) {
+                Files.createSymbolicLink(link, entry.getAbsoluteFile().toPath());
+            }
+        }
+        writeProperties(instanceProperties, instanceRoot, emptyDir);
+
+        return instanceProperties.getAbsolutePath();
+    }
+
+    /**
+     * Creates the configured number of biolark instances. A single instance uses the biolark root directory as
+     * before; several instances each get private working directories.
+     */
+    private BiolarkWrapper createPool() throws IOException, InitializationException
+    {
+        String rootProperties = generateBiolarkResources();
+        int size = EnginePool.getPoolSize(this.configuration, ENGINE);
+        File biolarkRoot = new File(this.environment.getPermanentDirectory(), BiolarkWrapperImpl.ROOT_DIRECTORY);
+        List<BioLarK_CR> instances = new ArrayList<>(size);
+        for (int i = 0; i < size; ++i) {
+            this.readiness.progress(ENGINE, INITIALIZING, i, size);
+            instances.add(new BioLarK_CR(size == 1 ? rootProperties : generateInstanceResources(biolarkRoot, i)));
+        }
+        this.logger.info("Created {} BioLark instances", size);
+        // Never shared, since concurrent calls would write into the same working directories
+        final EnginePool<BioLarK_CR> pool = new EnginePool<BioLarK_CR>(ENGINE, instances, false,
+            this.configuration.getEngineQueueTimeout(ENGINE), this.metrics);
+        return new BiolarkWrapper()
+        {
+            @Override
+            public List<Annotation> annotatePlain(String text, boolean longestMatch) throws AnnotationException
+            {
+                BioLarK_CR engine = pool.acquire();
+                try {
+                    return engine.annotate_plain(text, longestMatch);
+                } finally {
+                    pool.release(engine);
+                }
+            }
+        };
+    }
+
+    /**
+     * Starts the configured number of biolark worker processes, which load biolark in parallel, then waits for all of
+     * them to be ready. Like pooled instances, several workers each get private working directories.
+     */
+    private BiolarkWrapper createWorkers(int count) throws IOException, InitializationException
+    {
+        String rootProperties = generateBiolarkResources();
+        File biolarkRoot = new File(this.environment.getPermanentDirectory(), BiolarkWrapperImpl.ROOT_DIRECTORY);
+        String classpath = getWorkerClasspath();
+        List<BiolarkWorkerProcess> started = new ArrayList<>(count);
+        try {
+            for (int i = 0; i < count; ++i) {
+                String properties = count == 1 ? rootProperties : generateInstanceResources(biolarkRoot, i);
+                BiolarkWorkerProcess worker = new BiolarkWorkerProcess(ENGINE + " worker " + i,
+                    getWorkerCommand(classpath, properties), new File(new File(properties).getParentFile(), WORKER_LOG),
+                    this.configuration.getWorkerBatchSize(ENGINE), this.logger);
+                this.workers.add(worker);
+                worker.launch();
+                started.add(worker);
+            }
+            for (int i = 0; i < count; ++i) {
+                this.readiness.progress(ENGINE, INITIALIZING, i, count);
+                started.get(i).start();
+            }
+        } catch (IOException e) {
+            for (BiolarkWorkerProcess worker : started) {
+                worker.stop();
+            }
+            throw e;
+        }
+        this.logger.info("Started {} BioLark worker processes", count);
+        return new BiolarkWorkerPool(ENGINE, started, this.configuration.getWorkerTimeout(ENGINE), this.metrics);
+    }
+
+    private List<String> getWorkerCommand(String classpath, String properties)
+    {
+        List<String> command = new ArrayList<>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath());
+        command.addAll(Arrays.asList(StringUtils.split(this.configuration.getWorkerJvmOptions(ENGINE))));
+        command.add("-cp");
+        command.add(classpath);
+        command.add(BiolarkWorkerMain.class.getName());
+        command.add(properties);
+        return command;
+    }
+
+    /**
+     * The classpath of the worker processes, unless configured, is made of all the libraries next to this extension
+     * and to biolark, which include biolark's own dependencies; the classpath of the wiki JVM itself only holds the
+     * servlet container.
+     */
+    private String getWorkerClasspath() throws IOException
+    {
+        String configured = this.configuration.getWorkerClasspath(ENGINE);
+        if (StringUtils.isNotBlank(configured)) {
+            return configured.trim();
+        }
+        Set<String> entries = new LinkedHashSet<>();
+        for (Class<?> type : Arrays.asList(BiolarkWorkerMain.class, BioLarK_CR.class)) {
+            CodeSource source = type.getProtectionDomain().getCodeSource();
+            if (source == null) {
+                throw new IOException("Cannot locate the library of " + type.getName()
+                    + ", configure phenotips.textanalysis.biolark.workers.classpath");
+            }
+            try {
+                File location = new File(source.getLocation().toURI());
+                entries.add(location.isDirectory() ? location.getAbsolutePath()
+                    : new File(location.getParentFile(), "*").getAbsolutePath());
+            } catch (URISyntaxException e) {
+                throw new IOException(e.getMessage(), e);
+            }
+        }
+        return StringUtils.join(entries, File.pathSeparator);
+    }
+
+    private static void writeProperties(File properties, File root, File ioDir) throws IOException
+    {
+        try (Writer bw = new FileWriter(properties)) {
+            bw.write("logLevel=INFO\n");
+            bw.write("longestMatch=FALSE\n");
+            bw.write("outputFormat=text\n");
+            bw.append("path=").append(root.getAbsolutePath());
+            bw.append(System.lineSeparator());
+            bw.append("inputFolder=").append(ioDir.getAbsolutePath());
+            bw.append(System.lineSeparator());
+            bw.append("outputFolder=").append(ioDir.getAbsolutePath());
+            bw.append(System.lineSeparator());
+        }
+    }
+
 }
@@ -17,9 +17,11 @@
  */
 package org.phenotips.textanalysis.internal;
 
+import org.phenotips.textanalysis.AnnotationResult;
 import org.phenotips.textanalysis.TermAnnotation;
 import org.phenotips.textanalysis.TermAnnotationService;
 import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+import org.phenotips.vocabulary.Vocabulary;
 import org.phenotips.vocabulary.VocabularyManager;
 import org.phenotips.vocabulary.VocabularyTerm;
 
@@ -27,19 +29,31 @@
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Rule;
 import org.junit.Test;
 import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import au.edu.uq.eresearch.biolark.cr.Annotation;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyListOf;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -119,4 +133,195 @@ public void testAnnotateEmpty() throws ComponentLookupException, AnnotationExcep
 
         assertEquals(expectedAnnotations, this.client.annotate(text));
     }
+
+    /**
+     * Tests that a batch returns one result per text, in order, and looks up shared terms only once.
+     *
+     * @throws ComponentLookupException if the mocked component doesn't exist
+     * @throws AnnotationException if the annotation process failed
+     */
+    @Test
+    public void testAnnotateBatch() throws ComponentLookupException, AnnotationException
+    {
+        this.client = this.mocker.getComponentUnderTest();
+        String text1 = "The lady has blue eyes";
+        String text2 = "Blue eyes";
+        String text3 = "Nothing to see here";
+
+        BiolarkWrapper biolark = this.mocker.getInstance(BiolarkWrapper.class);
+        when(biolark.annotatePlain(eq(text1), anyBoolean())).thenReturn(Arrays.asList(blueEyes(13, 22)));
+        when(biolark.annotatePlain(eq(text2), anyBoolean())).thenReturn(Arrays.asList(blueEyes(0, 9)));
+        when(biolark.annotatePlain(eq(text3), anyBoolean())).thenReturn(new ArrayList<Annotation>());
+
+        VocabularyManager vocabularyManager = this.mocker.getInstance(VocabularyManager.class);
+        VocabularyTerm t = mock(VocabularyTerm.class);
+        when(t.getId()).thenReturn("blue:eyes");
+        when(vocabularyManager.resolveTerm("blue:eyes")).thenReturn(t);
+
+        List<List<TermAnnotation>> actual = this.client.annotateBatch(Arrays.asList(text1, text2, text3));
+
+        assertEquals(3, actual.size());
+        assertEquals(Arrays.asList(new TermAnnotation(13, 22, t)), actual.get(0));
+        assertEquals(Arrays.asList(new TermAnnotation(0, 9, t)), actual.get(1));
+        assertEquals(new LinkedList<TermAnnotation>(), actual.get(2));
+        verify(vocabularyManager, times(1)).resolveTerm("blue:eyes");
+    }
+
+    /**
+     * Tests that asynchronous annotation completes with the same result as the blocking call.
+     *
+     * @throws ComponentLookupException if the mocked component doesn't exist
+     * @throws AnnotationException if mocking the wrapper failed
+     * @throws InterruptedException if interrupted while waiting for the result
+     * @throws ExecutionException if the annotation process failed
+     */
+    @Test
+    public void testAnnotateAsync()
+        throws ComponentLookupException, AnnotationException, InterruptedException, ExecutionException
+    {
+        this.client = this.mocker.getComponentUnderTest();
+        String text = "Blue eyes";
+
+        BiolarkWrapper biolark = this.mocker.getInstance(BiolarkWrapper.class);
+        when(biolark.annotatePlain(eq(text), anyBoolean())).thenReturn(Arrays.asList(blueEyes(0, 9)));
+
+        VocabularyManager vocabularyManager = this.mocker.getInstance(VocabularyManager.class);
+        VocabularyTerm t = mock(VocabularyTerm.class);
+        when(t.getId()).thenReturn("blue:eyes");
+        when(vocabularyManager.resolveTerm("blue:eyes")).thenReturn(t);
+
+        assertEquals(Arrays.asList(new TermAnnotation(0, 9, t)), this.client.annotateAsync(text).get());
+    }
+
+    /**
+     * Tests that only the sentences missing from the sentence cache are sent to the engine.
+     *
+     * @throws ComponentLookupException if the mocked component doesn't exist
+     * @throws AnnotationException if the annotation process failed
+     */
+    @Test
+    public void testSentenceCache() throws ComponentLookupException, AnnotationException
+    {
+        this.client = this.mocker.getComponentUnderTest();
+        String text = "Blue eyes. Tall stature.";
+
+        TermAnnotationConfiguration configuration = this.mocker.getInstance(TermAnnotationConfiguration.class);
+        when(configuration.isSentenceCacheEnabled()).thenReturn(true);
+        SentenceAnnotationCache cache = this.mocker.getInstance(SentenceAnnotationCache.class);
+        when(cache.getKey("Blue eyes.", "biolark")).thenReturn("cached");
+        when(cache.getKey("Tall stature.", "biolark")).thenReturn("new");
+        when(cache.get("cached")).thenReturn(Arrays.asList(new RawAnnotation("blue:eyes", 0, 9)));
+        // Mocks return empty lists by default, which would look like a sentence cached without hits
+        when(cache.get("new")).thenReturn(null);
+
+        Annotation tallStature = new Annotation();
+        tallStature.setStartOffset(0);
+        tallStature.setEndOffset(12);
+        tallStature.setUri("http://wwww.something.com/tall_stature");
+        BiolarkWrapper biolark = this.mocker.getInstance(BiolarkWrapper.class);
+        when(biolark.annotatePlain(eq("Tall stature."), anyBoolean())).thenReturn(Arrays.asList(tallStature));
+
+        VocabularyManager vocabularyManager = this.mocker.getInstance(VocabularyManager.class);
+        VocabularyTerm blue = mock(VocabularyTerm.class);
+        when(blue.getId()).thenReturn("blue:eyes");
+        when(vocabularyManager.resolveTerm("blue:eyes")).thenReturn(blue);
+        VocabularyTerm tall = mock(VocabularyTerm.class);
+        when(tall.getId()).thenReturn("tall:stature");
+        when(vocabularyManager.resolveTerm("tall:stature")).thenReturn(tall);
+
+        assertEquals(Arrays.asList(new TermAnnotation(0, 9, blue), new TermAnnotation(11, 23, tall)),
+            this.client.annotate(text));
+        verify(biolark, never()).annotatePlain(eq("Blue eyes."), anyBoolean());
+        verify(cache).put(eq("new"), anyListOf(RawAnnotation.class));
+    }
+
+    /**
+     * Tests that annotating with a time budget returns the hits of the sentences processed before it ran out.
+     *
+     * @throws ComponentLookupException if the mocked component doesn't exist
+     * @throws AnnotationException if the annotation process failed
+     */
+    @Test
+    public void testAnnotateWithTimeout() throws ComponentLookupException, AnnotationException
+    {
+        this.client = this.mocker.getComponentUnderTest();
+        String text = "Blue eyes. Tall stature.";
+
+        BiolarkWrapper biolark = this.mocker.getInstance(BiolarkWrapper.class);
+        when(biolark.annotatePlain(eq("Blue eyes."), anyBoolean())).thenReturn(Arrays.asList(blueEyes(0, 9)));
+        when(biolark.annotatePlain(eq("Tall stature."), anyBoolean())).thenAnswer(new Answer<List<Annotation>>()
+        {
+            @Override
+            public List<Annotation> answer(InvocationOnMock invocation) throws InterruptedException
+            {
+                Thread.sleep(10000);
+                return new ArrayList<Annotation>();
+            }
+        });
+
+        VocabularyManager vocabularyManager = this.mocker.getInstance(VocabularyManager.class);
+        VocabularyTerm t = mock(VocabularyTerm.class);
+        when(t.getId()).thenReturn("blue:eyes");
+        when(vocabularyManager.resolveTerm("blue:eyes")).thenReturn(t);
+
+        AnnotationResult complete = this.client.annotate("Blue eyes.", 5, TimeUnit.SECONDS);
+        assertFalse(complete.isTruncated());
+        assertEquals(Arrays.asList(new TermAnnotation(0, 9, t)), complete.getAnnotations());
+
+        AnnotationResult partial = this.client.annotate(text, 200, TimeUnit.MILLISECONDS);
+        assertTrue(partial.isTruncated());
+        assertEquals(Arrays.asList(new TermAnnotation(0, 9, t)), partial.getAnnotations());
+    }
+
+    /**
+     * Tests that the distinct terms found are looked up with a single query to their vocabulary, and that hits whose
+     * term can't be found are dropped.
+     *
+     * @throws ComponentLookupException if the mocked component doesn't exist
+     * @throws AnnotationException if the annotation process failed
+     */
+    @Test
+    public void testBulkTermLookup() throws ComponentLookupException, AnnotationException
+    {
+        this.client = this.mocker.getComponentUnderTest();
+        String text = "Seizures, short stature, more seizures and a made up term.";
+
+        BiolarkWrapper biolark = this.mocker.getInstance(BiolarkWrapper.class);
+        when(biolark.annotatePlain(eq(text), anyBoolean())).thenReturn(Arrays.asList(hpo("HP_0001250", 0, 8),
+            hpo("HP_0004322", 10, 23), hpo("HP_0001250", 30, 38), hpo("HP_9999999", 45, 57)));
+
+        VocabularyTerm seizure = mock(VocabularyTerm.class);
+        when(seizure.getId()).thenReturn("HP:0001250");
+        VocabularyTerm shortStature = mock(VocabularyTerm.class);
+        when(shortStature.getId()).thenReturn("HP:0004322");
+        Vocabulary hpo = mock(Vocabulary.class);
+        when(hpo.getTerms(new HashSet<>(Arrays.asList("HP:0001250", "HP:0004322", "HP:9999999"))))
+            .thenReturn(new HashSet<>(Arrays.asList(seizure, shortStature)));
+        VocabularyManager vocabularyManager = this.mocker.getInstance(VocabularyManager.class);
+        when(vocabularyManager.getVocabulary("HP")).thenReturn(hpo);
+
+        assertEquals(Arrays.asList(new TermAnnotation(0, 8, seizure), new TermAnnotation(10, 23, shortStature),
+            new TermAnnotation(30, 38, seizure)), this.client.annotate(text));
+        verify(hpo, times(1)).getTerms(new HashSet<>(Arrays.asList("HP:0001250", "HP:0004322", "HP:9999999")));
+        verify(vocabularyManager, never()).resolveTerm("HP:0001250");
+        verify(vocabularyManager, never()).resolveTerm("HP:0004322");
+    }
+
+    private Annotation hpo(String id, int start, int end)
+    {
+        Annotation annotation = new Annotation();
+        annotation.setStartOffset(start);
+        annotation.setEndOffset(end);
+        annotation.setUri("http://purl.obolibrary.org/obo/" + id);
+        return annotation;
+    }
+
+    private Annotation blueEyes(int start, int end)
+    {
+        Annotation annotation = new Annotation();
+        annotation.setStartOffset(start);
+        annotation.setEndOffset(end);
+        annotation.setUri("http://wwww.something.com/blue_eyes");
+        return annotation;
+    }
 }
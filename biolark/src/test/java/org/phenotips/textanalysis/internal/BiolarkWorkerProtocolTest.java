@@ -0,0 +1,167 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.internal.BiolarkWorkerProtocol.Request;
+import org.phenotips.textanalysis.internal.BiolarkWorkerProtocol.Response;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import au.edu.uq.eresearch.biolark.cr.Annotation;
+import au.edu.uq.eresearch.biolark.cr.BioLarK_CR;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for the {@link BiolarkWorkerProtocol} and the loop of {@link BiolarkWorkerMain}.
+ *
+ * @version $Id$
+ */
+public class BiolarkWorkerProtocolTest
+{
+    @Test
+    public void requestsAndResponsesSurviveARoundTrip() throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        BiolarkWorkerProtocol.writeRequests(out, Arrays.asList(new Request(1, "Caf\u00e9 au lait spots", true),
+            new Request(2, "", false)));
+        BiolarkWorkerProtocol.writeResponses(out, Arrays.asList(
+            new Response(1, Arrays.asList(annotation(0, 18, "HP:0000957", "Caf\u00e9 au lait spots"),
+                annotation(5, 8, null, null)), null),
+            new Response(2, null, "failed")));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+        List<Request> requests =
+            BiolarkWorkerProtocol.readRequests(BiolarkWorkerProtocol.readFrame(in, BiolarkWorkerProtocol.REQUEST));
+        assertEquals(2, requests.size());
+        assertEquals(1, requests.get(0).id);
+        assertEquals("Caf\u00e9 au lait spots", requests.get(0).text);
+        assertEquals(true, requests.get(0).longestMatch);
+        assertEquals("", requests.get(1).text);
+        assertEquals(false, requests.get(1).longestMatch);
+
+        List<Response> responses =
+            BiolarkWorkerProtocol.readResponses(BiolarkWorkerProtocol.readFrame(in, BiolarkWorkerProtocol.RESPONSE));
+        assertEquals(2, responses.size());
+        Annotation first = responses.get(0).annotations.get(0);
+        assertEquals(0, first.getStartOffset());
+        assertEquals(18, first.getEndOffset());
+        assertEquals("HP:0000957", first.getUri());
+        assertEquals("Caf\u00e9 au lait spots", first.getOriginalSpan());
+        assertNull(responses.get(0).annotations.get(1).getUri());
+        assertNull(responses.get(0).error);
+        assertEquals(2, responses.get(1).id);
+        assertEquals("failed", responses.get(1).error);
+        assertEquals(-1, in.read());
+    }
+
+    @Test(expected = IOException.class)
+    public void unexpectedFramesAreRejected() throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        BiolarkWorkerProtocol.writeReady(new DataOutputStream(buffer));
+
+        BiolarkWorkerProtocol.readFrame(new DataInputStream(new ByteArrayInputStream(buffer.toByteArray())),
+            BiolarkWorkerProtocol.RESPONSE);
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptedCountsAreRejectedBeforeAllocating() throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(5);
+        out.writeByte(BiolarkWorkerProtocol.RESPONSE);
+        out.writeInt(Integer.MAX_VALUE);
+
+        BiolarkWorkerProtocol.readResponses(BiolarkWorkerProtocol.readFrame(
+            new DataInputStream(new ByteArrayInputStream(buffer.toByteArray())), BiolarkWorkerProtocol.RESPONSE));
+    }
+
+    @Test(expected = IOException.class)
+    public void corruptedTextLengthsAreRejectedBeforeAllocating() throws IOException
+    {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buffer);
+        out.writeInt(18);
+        out.writeByte(BiolarkWorkerProtocol.REQUEST);
+        out.writeInt(1);
+        out.writeLong(1);
+        out.writeBoolean(false);
+        out.writeInt(Integer.MAX_VALUE);
+
+        BiolarkWorkerProtocol.readRequests(BiolarkWorkerProtocol.readFrame(
+            new DataInputStream(new ByteArrayInputStream(buffer.toByteArray())), BiolarkWorkerProtocol.REQUEST));
+    }
+
+    @Test
+    public void workerAnswersEachBatchUntilTheInputEnds() throws IOException
+    {
+        BioLarK_CR biolark = mock(BioLarK_CR.class);
+        when(biolark.annotate_plain("Short stature", false))
+            .thenReturn(Collections.singletonList(annotation(0, 13, "HP:0004322", "Short stature")));
+        when(biolark.annotate_plain("broken", false)).thenThrow(new IllegalStateException("broken text"));
+
+        ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        BiolarkWorkerProtocol.writeRequests(new DataOutputStream(requests),
+            Arrays.asList(new Request(7, "Short stature", false), new Request(8, "broken", false)));
+        BiolarkWorkerProtocol.writeRequests(new DataOutputStream(requests),
+            Collections.singletonList(new Request(9, "Short stature", false)));
+        ByteArrayOutputStream responses = new ByteArrayOutputStream();
+
+        BiolarkWorkerMain.serve(biolark, new DataInputStream(new ByteArrayInputStream(requests.toByteArray())),
+            new DataOutputStream(responses));
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(responses.toByteArray()));
+        List<Response> first =
+            BiolarkWorkerProtocol.readResponses(BiolarkWorkerProtocol.readFrame(in, BiolarkWorkerProtocol.RESPONSE));
+        assertEquals(2, first.size());
+        assertEquals(7, first.get(0).id);
+        assertEquals("HP:0004322", first.get(0).annotations.get(0).getUri());
+        assertEquals(8, first.get(1).id);
+        assertEquals("broken text", first.get(1).error);
+        List<Response> second =
+            BiolarkWorkerProtocol.readResponses(BiolarkWorkerProtocol.readFrame(in, BiolarkWorkerProtocol.RESPONSE));
+        assertEquals(9, second.get(0).id);
+        assertEquals(13, second.get(0).annotations.get(0).getEndOffset());
+        assertEquals(-1, in.read());
+    }
+
+    private static Annotation annotation(int start, int end, String uri, String span)
+    {
+        Annotation annotation = new Annotation();
+        annotation.setStartOffset(start);
+        annotation.setEndOffset(end);
+        annotation.setUri(uri);
+        annotation.setOriginalSpan(span);
+        return annotation;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for the private working directories of pooled {@link BiolarkWrapperImpl} instances.
+ *
+ * @version $Id$
+ */
+public class BiolarkWrapperImplTest
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File root;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        this.root = this.folder.newFolder("BioLark-CR");
+        File resources = new File(this.root, "resources");
+        resources.mkdirs();
+        Files.write(new File(resources, "dictionary.txt").toPath(), Collections.singletonList("HP:0000478"),
+            StandardCharsets.UTF_8);
+        new File(this.root, BiolarkWrapperImpl.IO_FILENAME).mkdirs();
+        new File(this.root, BiolarkWrapperImpl.TA_TMP).mkdirs();
+        new File(this.root, BiolarkWrapperImpl.PROPERTIES_FILENAME).createNewFile();
+    }
+
+    @Test
+    public void instancesGetPrivateWorkingDirectoriesAndSharedResources() throws IOException
+    {
+        Properties first = load(BiolarkWrapperImpl.generateInstanceResources(this.root, 0));
+        Properties second = load(BiolarkWrapperImpl.generateInstanceResources(this.root, 1));
+
+        assertNotEquals(first.getProperty("path"), second.getProperty("path"));
+        assertNotEquals(first.getProperty("inputFolder"), second.getProperty("inputFolder"));
+        for (Properties properties : new Properties[] { first, second }) {
+            File instanceRoot = new File(properties.getProperty("path"));
+            assertTrue(new File(properties.getProperty("outputFolder")).isDirectory());
+            assertTrue(new File(instanceRoot, BiolarkWrapperImpl.TA_TMP).isDirectory());
+            assertFalse(Files.isSymbolicLink(new File(instanceRoot, BiolarkWrapperImpl.TA_TMP).toPath()));
+            assertTrue(Files.isSymbolicLink(new File(instanceRoot, "resources").toPath()));
+            File dictionary = new File(instanceRoot, "resources/dictionary.txt");
+            assertEquals(Collections.singletonList("HP:0000478"),
+                Files.readAllLines(dictionary.toPath(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void existingInstanceDirectoriesAreReused() throws IOException
+    {
+        String properties = BiolarkWrapperImpl.generateInstanceResources(this.root, 0);
+
+        assertEquals(properties, BiolarkWrapperImpl.generateInstanceResources(this.root, 0));
+    }
+
+    private Properties load(String path) throws IOException
+    {
+        Properties result = new Properties();
+        try (InputStream input = new FileInputStream(path)) {
+            result.load(input);
+        }
+        return result;
+    }
+}
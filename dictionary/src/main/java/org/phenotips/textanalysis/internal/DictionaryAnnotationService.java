@@ -0,0 +1,237 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import org.phenotips.textanalysis.TermAnnotationService;
+import org.phenotips.vocabulary.Vocabulary;
+import org.phenotips.vocabulary.VocabularyManager;
+import org.phenotips.vocabulary.VocabularyTerm;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.environment.Environment;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+
+/**
+ * Implementation of {@link TermAnnotationService} matching the names and synonyms of the HPO phenotypic abnormalities
+ * in the text, with a {@link TermAutomaton}. It needs nothing besides the vocabulary index, and is much faster than
+ * the other engines, at the cost of only finding labels written as they are in the vocabulary, give or take case and
+ * punctuation.
+ * <p>
+ * The automaton is compiled from the vocabulary the first time it is needed, and again, in the background, after the
+ * vocabulary is reindexed, and saved under {@code resources/Dictionary/} in the permanent directory, next to the
+ * resources of the other engines. It is then mapped in memory from there, including at the next startups as long as
+ * the vocabulary doesn't change, which takes next to no time and heap.
+ *
+ * @version $Id$
+ */
+@Component
+@Named("dictionary")
+@Singleton
+public class DictionaryAnnotationService extends AbstractTermAnnotationService
+{
+    /** The vocabulary whose labels are matched. */
+    private static final String VOCABULARY = "hpo";
+
+    /** The root of the phenotypic abnormalities, the only terms matched, like the other engines do. */
+    private static final String PHENOTYPE_ROOT = "HP:0000118";
+
+    private static final String CATEGORY_FIELD = "term_category";
+
+    private static final String SYNONYM_FIELD = "synonym";
+
+    /** Relative path to the directory containing the compiled dictionary. */
+    private static final String ROOT_DIRECTORY = "resources/Dictionary/";
+
+    private static final String DICTIONARY_FILENAME = "hpo.dict";
+
+    private static final int PAGE_SIZE = 1000;
+
+    private static final String ROWS = "rows";
+
+    private static final String START = "start";
+
+    /** How long to wait, in milliseconds, before trying again to update the dictionary after a failure. */
+    private static final long RETRY_DELAY = 60000L;
+
+    @Inject
+    private VocabularyManager vocabularies;
+
+    @Inject
+    private VocabularyVersionProvider vocabularyVersion;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private Logger logger;
+
+    private volatile TermAutomaton automaton;
+
+    /** The vocabulary version the automaton was compiled from. */
+    private volatile String automatonVersion;
+
+    /** Whether the automaton of a new vocabulary version is being compiled. */
+    private final AtomicBoolean updating = new AtomicBoolean();
+
+    /** When the failed update of the automaton may be tried again. */
+    private volatile long retryAfter;
+
+    @Override
+    protected List<RawAnnotation> extract(String text) throws AnnotationException
+    {
+        return getAutomaton().match(text);
+    }
+
+    @Override
+    protected boolean isSentenceCacheSupported()
+    {
+        // Hashing a sentence to look it up costs about as much as matching it
+        return false;
+    }
+
+    private TermAutomaton getAutomaton() throws AnnotationException
+    {
+        String version = this.vocabularyVersion.getVersion();
+        TermAutomaton result = this.automaton;
+        if (result == null) {
+            // Nothing to serve yet, so the first requests wait for the dictionary
+            synchronized (this) {
+                if (this.automaton == null) {
+                    this.automaton = load(version);
+                    this.automatonVersion = version;
+                }
+                return this.automaton;
+            }
+        }
+        if (!version.equals(this.automatonVersion)) {
+            update(version);
+        }
+        return result;
+    }
+
+    /**
+     * Compiles the dictionary of a new vocabulary version in a background thread, unless already doing so; requests
+     * keep using the current dictionary meanwhile. After a failure, the update is only retried after a while.
+     */
+    private void update(final String version)
+    {
+        if (System.currentTimeMillis() < this.retryAfter || !this.updating.compareAndSet(false, true)) {
+            return;
+        }
+        Thread worker = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                DictionaryAnnotationService service = DictionaryAnnotationService.this;
+                try {
+                    TermAutomaton updated = load(version);
+                    synchronized (service) {
+                        service.automaton = updated;
+                        service.automatonVersion = version;
+                    }
+                } catch (AnnotationException | RuntimeException e) {
+                    service.logger.warn("Failed to update the dictionary to the vocabulary version [{}]: {}", version,
+                        e.getMessage());
+                    service.retryAfter = System.currentTimeMillis() + RETRY_DELAY;
+                } finally {
+                    service.updating.set(false);
+                }
+            }
+        }, "dictionary update");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Maps the compiled dictionary, compiling it first if it is missing or outdated.
+     */
+    private TermAutomaton load(String version) throws AnnotationException
+    {
+        File file = new File(new File(this.environment.getPermanentDirectory(), ROOT_DIRECTORY), DICTIONARY_FILENAME);
+        if (file.isFile()) {
+            try {
+                TermAutomaton result = TermAutomaton.load(file, version);
+                if (result != null) {
+                    return result;
+                }
+            } catch (IOException e) {
+                this.logger.warn("Failed to load the compiled dictionary, compiling it again: {}", e.getMessage());
+            }
+        }
+        TermAutomaton result = compile();
+        try {
+            result.write(file, version);
+            // Drop the compiled tables from the heap in favor of the shared mapping
+            TermAutomaton mapped = TermAutomaton.load(file, version);
+            return mapped != null ? mapped : result;
+        } catch (IOException e) {
+            this.logger.warn("Failed to save the compiled dictionary [{}]: {}", file, e.getMessage());
+            return result;
+        }
+    }
+
+    private TermAutomaton compile() throws AnnotationException
+    {
+        Vocabulary vocabulary = this.vocabularies.getVocabulary(VOCABULARY);
+        if (vocabulary == null) {
+            throw new AnnotationException("The HPO vocabulary is not available");
+        }
+        long start = System.currentTimeMillis();
+        TermAutomaton.Builder builder = new TermAutomaton.Builder();
+        Map<String, String> options = new HashMap<>();
+        options.put(ROWS, String.valueOf(PAGE_SIZE));
+        Map<String, String> query = Collections.singletonMap(CATEGORY_FIELD, PHENOTYPE_ROOT);
+        List<VocabularyTerm> page;
+        int offset = 0;
+        do {
+            options.put(START, String.valueOf(offset));
+            page = vocabulary.search(query, options);
+            for (VocabularyTerm term : page) {
+                builder.add(term.getName(), term.getId());
+                Object synonyms = term.get(SYNONYM_FIELD);
+                if (synonyms instanceof Collection) {
+                    for (Object synonym : (Collection<?>) synonyms) {
+                        builder.add(String.valueOf(synonym), term.getId());
+                    }
+                } else if (synonyms != null) {
+                    builder.add(String.valueOf(synonyms), term.getId());
+                }
+            }
+            offset += page.size();
+        } while (page.size() == PAGE_SIZE);
+        TermAutomaton result = builder.build();
+        this.logger.info("Compiled [{}] labels of [{}] phenotypes into [{}] states in [{}] ms",
+            result.getLabelCount(), offset, result.getStateCount(), System.currentTimeMillis() - start);
+        return result;
+    }
+}
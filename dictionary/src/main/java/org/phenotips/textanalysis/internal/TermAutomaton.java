@@ -0,0 +1,676 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Aho-Corasick automaton matching term labels in a text, word by word. Labels and texts are split into tokens, which
+ * are runs of letters and digits compared case-insensitively; a label matches wherever its tokens appear one after
+ * the other in the text, whatever separates them. All the matches, including overlapping ones, are found in a single
+ * pass over the text.
+ * <p>
+ * Tokens and transitions are kept in open addressing tables of primitive values, so that matching doesn't allocate
+ * anything besides the reported hits. The tables are buffers, either over arrays when the automaton is compiled by a
+ * {@link Builder}, or over a file {@link #write(File, String) written} once and {@link #load(File, String) mapped}
+ * afterwards, in which case they live in the page cache, shared with any other process mapping the same file, rather
+ * than in the heap. Instances are immutable and can be shared by any number of threads.
+ * <p>
+ * The file starts with a format marker and the version of the vocabulary the labels were taken from, followed by the
+ * sizes of the tables and the tables themselves: the int tables, then the transition keys, then the characters.
+ *
+ * @version $Id$
+ */
+public final class TermAutomaton
+{
+    /** Identifies the file format: "PTD" followed by the format version. */
+    private static final int MAGIC = 0x50544401;
+
+    private static final int ROOT = 0;
+
+    private static final int NO_TOKEN = -1;
+
+    private static final int HASH_MULTIPLIER = 31;
+
+    private static final int MIX = 0x9E3779B9;
+
+    private static final int STATE_SHIFT = 32;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /** Known tokens: slot to token number plus one, 0 for empty slots. */
+    private final IntBuffer tokenSlots;
+
+    private final IntBuffer tokenHashes;
+
+    /** Where each token starts in {@link #tokenChars}; token {@code i} ends where token {@code i + 1} starts. */
+    private final IntBuffer tokenOffsets;
+
+    /** Transitions: keys combine the source state and the token, targets are the target states, 0 for empty slots. */
+    private final IntBuffer transitionTargets;
+
+    /** For each state, the state of the longest proper suffix of its path that is also in the trie. */
+    private final IntBuffer failure;
+
+    /** For each state, the nearest state along its failure chain that ends labels, or the root if there are none. */
+    private final IntBuffer outputLink;
+
+    /** The labels ended by each state: from {@code outputStart[state]} to {@code outputStart[state + 1]}. */
+    private final IntBuffer outputStart;
+
+    private final IntBuffer outputs;
+
+    /** For each label, its length in tokens and the index of its term. */
+    private final IntBuffer labelLength;
+
+    private final IntBuffer labelTerm;
+
+    /** Where each term identifier starts in {@link #termChars}, like {@link #tokenOffsets}. */
+    private final IntBuffer termOffsets;
+
+    private final LongBuffer transitionKeys;
+
+    /** The characters of all the tokens, lowercase, one after the other. */
+    private final CharBuffer tokenChars;
+
+    private final CharBuffer termChars;
+
+    private final int maxLabelLength;
+
+    private TermAutomaton(IntBuffer[] ints, LongBuffer transitionKeys, CharBuffer tokenChars, CharBuffer termChars,
+        int maxLabelLength)
+    {
+        int i = 0;
+        this.tokenSlots = ints[i++];
+        this.tokenHashes = ints[i++];
+        this.tokenOffsets = ints[i++];
+        this.transitionTargets = ints[i++];
+        this.failure = ints[i++];
+        this.outputLink = ints[i++];
+        this.outputStart = ints[i++];
+        this.outputs = ints[i++];
+        this.labelLength = ints[i++];
+        this.labelTerm = ints[i++];
+        this.termOffsets = ints[i];
+        this.transitionKeys = transitionKeys;
+        this.tokenChars = tokenChars;
+        this.termChars = termChars;
+        this.maxLabelLength = maxLabelLength;
+    }
+
+    /**
+     * Maps an automaton previously {@link #write(File, String) written} to a file. The file must not be modified
+     * while it is mapped; write a new file and move it over the old one instead, which is what
+     * {@link #write(File, String)} does.
+     *
+     * @param file the file holding the automaton
+     * @param vocabularyVersion the version of the vocabulary the automaton must have been compiled from
+     * @return the automaton, or {@code null} if the file was compiled from another vocabulary version
+     * @throws IOException if the file cannot be read, or isn't a valid automaton
+     */
+    public static TermAutomaton load(File file, String vocabularyVersion) throws IOException
+    {
+        ByteBuffer data;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The mapping stays valid once the channel is closed
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (data.getInt() != MAGIC) {
+                throw new IOException("Not a compiled term dictionary: " + file);
+            }
+            byte[] version = new byte[data.getInt()];
+            data.get(version);
+            if (!vocabularyVersion.equals(new String(version, StandardCharsets.UTF_8))) {
+                return null;
+            }
+            int[] sizes = new int[Sizes.COUNT];
+            for (int i = 0; i < sizes.length; ++i) {
+                sizes[i] = data.getInt();
+            }
+            Sizes layout = new Sizes(sizes);
+            if (data.remaining() != layout.getDataSize()) {
+                throw new IOException("Truncated compiled term dictionary: " + file);
+            }
+            IntBuffer[] ints = new IntBuffer[Sizes.INT_TABLES];
+            for (int i = 0; i < ints.length; ++i) {
+                ints[i] = section(data, layout.getIntTableSize(i) * Integer.BYTES).asIntBuffer();
+            }
+            LongBuffer keys = section(data, layout.getTransitionCapacity() * Long.BYTES).asLongBuffer();
+            CharBuffer tokens = section(data, layout.getTokenCharCount() * Character.BYTES).asCharBuffer();
+            CharBuffer terms = section(data, layout.getTermCharCount() * Character.BYTES).asCharBuffer();
+            return new TermAutomaton(ints, keys, tokens, terms, layout.getMaxLabelLength());
+        } catch (RuntimeException e) {
+            // Buffer underflows and negative sizes
+            throw new IOException("Invalid compiled term dictionary: " + file, e);
+        }
+    }
+
+    /**
+     * Writes the automaton to a file, to be {@link #load(File, String) mapped} later. The file is written under
+     * another name and then moved into place, so that processes still mapping a previous version are not affected.
+     *
+     * @param file the file to write
+     * @param vocabularyVersion the version of the vocabulary the labels were taken from
+     * @throws IOException if writing the file fails
+     */
+    public void write(File file, String vocabularyVersion) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        File temporary = new File(file.getPath() + TEMPORARY_SUFFIX);
+        IntBuffer[] ints = getIntTables();
+        try (DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            out.writeInt(MAGIC);
+            byte[] version = vocabularyVersion.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(version.length);
+            out.write(version);
+            for (IntBuffer table : ints) {
+                out.writeInt(table.limit());
+            }
+            out.writeInt(this.transitionKeys.limit());
+            out.writeInt(this.tokenChars.limit());
+            out.writeInt(this.termChars.limit());
+            out.writeInt(this.maxLabelLength);
+            for (IntBuffer table : ints) {
+                for (int i = 0; i < table.limit(); ++i) {
+                    out.writeInt(table.get(i));
+                }
+            }
+            for (int i = 0; i < this.transitionKeys.limit(); ++i) {
+                out.writeLong(this.transitionKeys.get(i));
+            }
+            for (int i = 0; i < this.tokenChars.limit(); ++i) {
+                out.writeChar(this.tokenChars.get(i));
+            }
+            for (int i = 0; i < this.termChars.limit(); ++i) {
+                out.writeChar(this.termChars.get(i));
+            }
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Finds all the labels occurring in a text.
+     *
+     * @param text the text to search
+     * @return the hits found, in the order in which they end, with the identifiers of their terms and their character
+     *         positions in the text, end exclusive
+     */
+    public List<RawAnnotation> match(CharSequence text)
+    {
+        List<RawAnnotation> result = new ArrayList<>();
+        // Where the most recent tokens start, enough of them to find where the longest label starts
+        int[] starts = new int[this.maxLabelLength];
+        int tokens = 0;
+        int state = ROOT;
+        int length = text.length();
+        int position = 0;
+        while (position < length) {
+            if (!Character.isLetterOrDigit(text.charAt(position))) {
+                ++position;
+                continue;
+            }
+            int start = position;
+            int hash = 0;
+            while (position < length && Character.isLetterOrDigit(text.charAt(position))) {
+                hash = HASH_MULTIPLIER * hash + Character.toLowerCase(text.charAt(position));
+                ++position;
+            }
+            int token = findToken(text, start, position, hash);
+            starts[tokens % this.maxLabelLength] = start;
+            ++tokens;
+            if (token == NO_TOKEN) {
+                // No label contains this word, so no match can go through it
+                state = ROOT;
+                continue;
+            }
+            while (state != ROOT && next(state, token) == ROOT) {
+                state = this.failure.get(state);
+            }
+            state = next(state, token);
+            int found = hasOutput(state) ? state : this.outputLink.get(state);
+            while (found != ROOT) {
+                for (int i = this.outputStart.get(found); i < this.outputStart.get(found + 1); ++i) {
+                    int label = this.outputs.get(i);
+                    int labelStart = starts[(tokens - this.labelLength.get(label)) % this.maxLabelLength];
+                    result.add(new RawAnnotation(getTermId(this.labelTerm.get(label)), labelStart, position));
+                }
+                found = this.outputLink.get(found);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of distinct labels
+     */
+    public int getLabelCount()
+    {
+        return this.labelLength.limit();
+    }
+
+    /**
+     * @return the number of states of the automaton
+     */
+    public int getStateCount()
+    {
+        return this.failure.limit();
+    }
+
+    private IntBuffer[] getIntTables()
+    {
+        return new IntBuffer[] { this.tokenSlots, this.tokenHashes, this.tokenOffsets, this.transitionTargets,
+            this.failure, this.outputLink, this.outputStart, this.outputs, this.labelLength, this.labelTerm,
+            this.termOffsets };
+    }
+
+    private String getTermId(int term)
+    {
+        int start = this.termOffsets.get(term);
+        int end = this.termOffsets.get(term + 1);
+        char[] result = new char[end - start];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = this.termChars.get(start + i);
+        }
+        return new String(result);
+    }
+
+    private boolean hasOutput(int state)
+    {
+        return this.outputStart.get(state) < this.outputStart.get(state + 1);
+    }
+
+    private int findToken(CharSequence text, int start, int end, int hash)
+    {
+        int mask = this.tokenSlots.limit() - 1;
+        int slot = mix(hash) & mask;
+        int length = end - start;
+        for (int entry = this.tokenSlots.get(slot); entry != 0; entry = this.tokenSlots.get(slot)) {
+            int token = entry - 1;
+            if (this.tokenHashes.get(token) == hash && sameToken(token, text, start, length)) {
+                return token;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return NO_TOKEN;
+    }
+
+    private boolean sameToken(int token, CharSequence text, int start, int length)
+    {
+        int offset = this.tokenOffsets.get(token);
+        if (this.tokenOffsets.get(token + 1) - offset != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (this.tokenChars.get(offset + i) != Character.toLowerCase(text.charAt(start + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int next(int state, int token)
+    {
+        return next(this.transitionKeys, this.transitionTargets, state, token);
+    }
+
+    private static int next(LongBuffer keys, IntBuffer targets, int state, int token)
+    {
+        long key = transitionKey(state, token);
+        int mask = keys.limit() - 1;
+        int slot = mix(key) & mask;
+        while (targets.get(slot) != ROOT) {
+            if (keys.get(slot) == key) {
+                return targets.get(slot);
+            }
+            slot = (slot + 1) & mask;
+        }
+        return ROOT;
+    }
+
+    private static void putTransition(LongBuffer keys, IntBuffer targets, int state, int token, int target)
+    {
+        long key = transitionKey(state, token);
+        int mask = keys.limit() - 1;
+        int slot = mix(key) & mask;
+        while (targets.get(slot) != ROOT) {
+            slot = (slot + 1) & mask;
+        }
+        keys.put(slot, key);
+        targets.put(slot, target);
+    }
+
+    private static long transitionKey(int state, int token)
+    {
+        return ((long) state << STATE_SHIFT) | token;
+    }
+
+    private static int hash(CharSequence text)
+    {
+        int result = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            result = HASH_MULTIPLIER * result + Character.toLowerCase(text.charAt(i));
+        }
+        return result;
+    }
+
+    private static int mix(int hash)
+    {
+        int result = hash * MIX;
+        return result ^ (result >>> (Integer.SIZE / 2));
+    }
+
+    private static int mix(long key)
+    {
+        return mix((int) (key ^ (key >>> STATE_SHIFT)));
+    }
+
+    /**
+     * @return a power of two table size keeping the load factor of open addressing tables under one half
+     */
+    private static int capacity(int entries)
+    {
+        int result = MIN_CAPACITY;
+        while (result < 2 * entries) {
+            result <<= 1;
+        }
+        return result;
+    }
+
+    /**
+     * Cuts the next bytes of a buffer into a buffer of their own.
+     */
+    private static ByteBuffer section(ByteBuffer data, int bytes)
+    {
+        ByteBuffer result = data.slice();
+        result.limit(bytes);
+        data.position(data.position() + bytes);
+        return result;
+    }
+
+    /**
+     * The sizes of the tables, as stored in the file header.
+     */
+    private static final class Sizes
+    {
+        /** The int tables, then the transition keys, the token characters, the term characters and the max length. */
+        static final int INT_TABLES = 11;
+
+        static final int COUNT = INT_TABLES + 4;
+
+        private final int[] sizes;
+
+        Sizes(int[] sizes)
+        {
+            this.sizes = sizes;
+        }
+
+        int getIntTableSize(int table)
+        {
+            return this.sizes[table];
+        }
+
+        int getTransitionCapacity()
+        {
+            return this.sizes[INT_TABLES];
+        }
+
+        int getTokenCharCount()
+        {
+            return this.sizes[INT_TABLES + 1];
+        }
+
+        int getTermCharCount()
+        {
+            return this.sizes[INT_TABLES + 2];
+        }
+
+        int getMaxLabelLength()
+        {
+            return this.sizes[INT_TABLES + 3];
+        }
+
+        long getDataSize()
+        {
+            long result = 0;
+            for (int i = 0; i < INT_TABLES; ++i) {
+                result += (long) this.sizes[i] * Integer.BYTES;
+            }
+            return result + (long) getTransitionCapacity() * Long.BYTES
+                + ((long) getTokenCharCount() + getTermCharCount()) * Character.BYTES;
+        }
+    }
+
+    /**
+     * Collects term labels and compiles them into an automaton.
+     */
+    public static final class Builder
+    {
+        private final Map<String, Integer> tokens = new HashMap<>();
+
+        private final List<String> tokenList = new ArrayList<>();
+
+        private final Map<String, Integer> terms = new HashMap<>();
+
+        private final List<String> termList = new ArrayList<>();
+
+        private final List<int[]> labels = new ArrayList<>();
+
+        private final List<Integer> labelTerms = new ArrayList<>();
+
+        /** Labels already added, so that a synonym identical to the name once tokenized isn't matched twice. */
+        private final Set<String> seen = new HashSet<>();
+
+        /**
+         * Adds a label of a term; labels without any letter or digit are ignored.
+         *
+         * @param label the name or a synonym of the term
+         * @param termId the identifier of the term, e.g. {@code HP:0000478}
+         * @return this builder
+         */
+        public Builder add(String label, String termId)
+        {
+            if (label == null || termId == null) {
+                return this;
+            }
+            List<Integer> ids = new ArrayList<>();
+            int length = label.length();
+            int position = 0;
+            while (position < length) {
+                if (!Character.isLetterOrDigit(label.charAt(position))) {
+                    ++position;
+                    continue;
+                }
+                StringBuilder token = new StringBuilder();
+                while (position < length && Character.isLetterOrDigit(label.charAt(position))) {
+                    token.append(Character.toLowerCase(label.charAt(position)));
+                    ++position;
+                }
+                ids.add(tokenId(token.toString()));
+            }
+            if (ids.isEmpty() || !this.seen.add(ids + termId)) {
+                return this;
+            }
+            int[] tokenIds = new int[ids.size()];
+            for (int i = 0; i < tokenIds.length; ++i) {
+                tokenIds[i] = ids.get(i);
+            }
+            Integer term = this.terms.get(termId);
+            if (term == null) {
+                term = this.termList.size();
+                this.terms.put(termId, term);
+                this.termList.add(termId);
+            }
+            this.labels.add(tokenIds);
+            this.labelTerms.add(term);
+            return this;
+        }
+
+        /**
+         * @return an automaton matching all the labels added so far
+         */
+        public TermAutomaton build()
+        {
+            // Tokens
+            int tokenCount = this.tokenList.size();
+            int[] tokenOffsets = new int[tokenCount + 1];
+            int[] tokenHashes = new int[tokenCount];
+            StringBuilder tokenChars = new StringBuilder();
+            int[] tokenSlots = new int[capacity(tokenCount)];
+            for (int i = 0; i < tokenCount; ++i) {
+                String token = this.tokenList.get(i);
+                tokenOffsets[i] = tokenChars.length();
+                tokenChars.append(token);
+                tokenHashes[i] = hash(token);
+                int mask = tokenSlots.length - 1;
+                int slot = mix(tokenHashes[i]) & mask;
+                while (tokenSlots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                tokenSlots[slot] = i + 1;
+            }
+            tokenOffsets[tokenCount] = tokenChars.length();
+
+            // Trie
+            int maxStates = 1;
+            int maxLength = 1;
+            for (int[] label : this.labels) {
+                maxStates += label.length;
+                maxLength = Math.max(maxLength, label.length);
+            }
+            int labelCount = this.labels.size();
+            LongBuffer transitionKeys = LongBuffer.allocate(capacity(maxStates));
+            IntBuffer transitionTargets = IntBuffer.allocate(transitionKeys.limit());
+            int[] firstChild = new int[maxStates];
+            int[] nextSibling = new int[maxStates];
+            int[] edgeToken = new int[maxStates];
+            int[] firstOutput = new int[maxStates];
+            int[] nextOutput = new int[labelCount];
+            Arrays.fill(firstChild, -1);
+            Arrays.fill(firstOutput, -1);
+            int states = 1;
+            int[] labelLength = new int[labelCount];
+            int[] labelTerm = new int[labelCount];
+            for (int i = 0; i < labelCount; ++i) {
+                int state = ROOT;
+                for (int token : this.labels.get(i)) {
+                    int next = next(transitionKeys, transitionTargets, state, token);
+                    if (next == ROOT) {
+                        next = states++;
+                        putTransition(transitionKeys, transitionTargets, state, token, next);
+                        edgeToken[next] = token;
+                        nextSibling[next] = firstChild[state];
+                        firstChild[state] = next;
+                    }
+                    state = next;
+                }
+                nextOutput[i] = firstOutput[state];
+                firstOutput[state] = i;
+                labelLength[i] = this.labels.get(i).length;
+                labelTerm[i] = this.labelTerms.get(i);
+            }
+
+            // Outputs, grouped by state
+            int[] outputStart = new int[states + 1];
+            int[] outputs = new int[labelCount];
+            int count = 0;
+            for (int state = 0; state < states; ++state) {
+                outputStart[state] = count;
+                for (int label = firstOutput[state]; label >= 0; label = nextOutput[label]) {
+                    outputs[count++] = label;
+                }
+            }
+            outputStart[states] = count;
+
+            // Failure and output links, breadth first so that shorter paths are done first
+            int[] failure = new int[states];
+            int[] outputLink = new int[states];
+            int[] queue = new int[states];
+            int head = 0;
+            int tail = 0;
+            for (int child = firstChild[ROOT]; child >= 0; child = nextSibling[child]) {
+                queue[tail++] = child;
+            }
+            while (head < tail) {
+                int state = queue[head++];
+                for (int child = firstChild[state]; child >= 0; child = nextSibling[child]) {
+                    int token = edgeToken[child];
+                    int fallback = failure[state];
+                    while (fallback != ROOT && next(transitionKeys, transitionTargets, fallback, token) == ROOT) {
+                        fallback = failure[fallback];
+                    }
+                    int target = next(transitionKeys, transitionTargets, fallback, token);
+                    failure[child] = target;
+                    outputLink[child] = outputStart[target] < outputStart[target + 1] ? target : outputLink[target];
+                    queue[tail++] = child;
+                }
+            }
+
+            // Term identifiers
+            int[] termOffsets = new int[this.termList.size() + 1];
+            StringBuilder termChars = new StringBuilder();
+            for (int i = 0; i < this.termList.size(); ++i) {
+                termOffsets[i] = termChars.length();
+                termChars.append(this.termList.get(i));
+            }
+            termOffsets[this.termList.size()] = termChars.length();
+
+            IntBuffer[] ints = new IntBuffer[] { IntBuffer.wrap(tokenSlots), IntBuffer.wrap(tokenHashes),
+                IntBuffer.wrap(tokenOffsets), transitionTargets, IntBuffer.wrap(failure), IntBuffer.wrap(outputLink),
+                IntBuffer.wrap(outputStart), IntBuffer.wrap(outputs), IntBuffer.wrap(labelLength),
+                IntBuffer.wrap(labelTerm), IntBuffer.wrap(termOffsets) };
+            return new TermAutomaton(ints, transitionKeys, CharBuffer.wrap(tokenChars.toString().toCharArray()),
+                CharBuffer.wrap(termChars.toString().toCharArray()), maxLength);
+        }
+
+        private int tokenId(String token)
+        {
+            Integer result = this.tokens.get(token);
+            if (result == null) {
+                result = this.tokenList.size();
+                this.tokens.put(token, result);
+                this.tokenList.add(token);
+            }
+            return result;
+        }
+    }
+}
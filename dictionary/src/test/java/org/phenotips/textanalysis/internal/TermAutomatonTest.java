@@ -0,0 +1,154 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link TermAutomaton}.
+ *
+ * @version $Id$
+ */
+public class TermAutomatonTest
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void labelsAreMatchedWholeWordsIgnoringCaseAndPunctuation()
+    {
+        TermAutomaton automaton = new TermAutomaton.Builder()
+            .add("Blue sclerae", "HP:0000592")
+            .add("Seizures", "HP:0001250")
+            .build();
+        String text = "The boy has BLUE-sclerae and no seizure.";
+
+        List<RawAnnotation> hits = automaton.match(text);
+        assertEquals(1, hits.size());
+        assertEquals("HP:0000592", hits.get(0).getTermId());
+        assertEquals("BLUE-sclerae", text.substring(hits.get(0).getStart(), hits.get(0).getEnd()));
+    }
+
+    @Test
+    public void overlappingLabelsAreAllMatched()
+    {
+        TermAutomaton automaton = new TermAutomaton.Builder()
+            .add("Short stature", "HP:0004322")
+            .add("Stature", "HP:0000002")
+            .add("Severe short stature", "HP:0003510")
+            .build();
+        String text = "Severe short stature";
+
+        List<String> found = new ArrayList<>();
+        for (RawAnnotation hit : automaton.match(text)) {
+            found.add(hit.getTermId() + '=' + text.substring(hit.getStart(), hit.getEnd()));
+        }
+        assertEquals(3, found.size());
+        assertTrue(found.contains("HP:0003510=Severe short stature"));
+        assertTrue(found.contains("HP:0004322=short stature"));
+        assertTrue(found.contains("HP:0000002=stature"));
+    }
+
+    @Test
+    public void matchesResumeAfterPartialMatches()
+    {
+        TermAutomaton automaton = new TermAutomaton.Builder()
+            .add("a b c d", "HP:0000001")
+            .add("b c", "HP:0000002")
+            .build();
+
+        List<RawAnnotation> hits = automaton.match("a b x b c");
+        assertEquals(1, hits.size());
+        assertEquals("HP:0000002", hits.get(0).getTermId());
+        assertEquals(6, hits.get(0).getStart());
+        assertEquals(9, hits.get(0).getEnd());
+    }
+
+    @Test
+    public void duplicateLabelsAreMatchedOnce()
+    {
+        TermAutomaton automaton = new TermAutomaton.Builder()
+            .add("Short stature", "HP:0004322")
+            .add("short, STATURE", "HP:0004322")
+            .add("--", "HP:0004322")
+            .build();
+
+        assertEquals(1, automaton.getLabelCount());
+        assertEquals(1, automaton.match("short stature").size());
+    }
+
+    @Test
+    public void emptyAutomatonMatchesNothing()
+    {
+        assertEquals(0, new TermAutomaton.Builder().build().match("Short stature").size());
+    }
+
+    @Test
+    public void mappedAutomatonMatchesLikeTheCompiledOne() throws IOException
+    {
+        File file = new File(this.folder.getRoot(), "hpo.dict");
+        new TermAutomaton.Builder()
+            .add("Short stature", "HP:0004322")
+            .add("Stature", "HP:0000002")
+            .build()
+            .write(file, "2016-01-01");
+
+        TermAutomaton mapped = TermAutomaton.load(file, "2016-01-01");
+        String text = "Short stature";
+        List<RawAnnotation> hits = mapped.match(text);
+        assertEquals(2, hits.size());
+        assertEquals("HP:0004322", hits.get(0).getTermId());
+        assertEquals(0, hits.get(0).getStart());
+        assertEquals("HP:0000002", hits.get(1).getTermId());
+        assertEquals(6, hits.get(1).getStart());
+        assertEquals(13, hits.get(1).getEnd());
+    }
+
+    @Test
+    public void outdatedDictionariesAreNotLoaded() throws IOException
+    {
+        File file = new File(this.folder.getRoot(), "hpo.dict");
+        new TermAutomaton.Builder().add("Stature", "HP:0000002").build().write(file, "2016-01-01");
+
+        assertNull(TermAutomaton.load(file, "2016-02-01"));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedDictionariesAreRejected() throws IOException
+    {
+        File file = new File(this.folder.getRoot(), "hpo.dict");
+        new TermAutomaton.Builder().add("Stature", "HP:0000002").build().write(file, "2016-01-01");
+        try (RandomAccessFile data = new RandomAccessFile(file, "rw")) {
+            data.setLength(data.length() - 2);
+        }
+
+        TermAutomaton.load(file, "2016-01-01");
+    }
+}
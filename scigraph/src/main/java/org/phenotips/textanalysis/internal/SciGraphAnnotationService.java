@@ -17,18 +17,16 @@
  */
 package org.phenotips.textanalysis.internal;
 
-import org.phenotips.textanalysis.TermAnnotation;
 import org.phenotips.textanalysis.TermAnnotationService;
-import org.phenotips.vocabulary.VocabularyManager;
-import org.phenotips.vocabulary.VocabularyTerm;
 
 import org.xwiki.component.annotation.Component;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
@@ -48,19 +46,14 @@
 @Component
 @Named("scigraph")
 @Singleton
-public class SciGraphAnnotationService implements TermAnnotationService
+public class SciGraphAnnotationService extends AbstractTermAnnotationService
 {
     /**
      * The categories to which annotations must belong to.
-     * In this case it's just "phenotype"
+     * In this case it's just "phenotype". Shared by all calls, since it never changes.
      */
-    private static final Set<String> CATEGORIES = new HashSet<String>(Arrays.asList("phenotype"));
-
-    /**
-     * The ontology used to look up phenotypes.
-     */
-    @Inject
-    private VocabularyManager vocabularies;
+    private static final Set<String> CATEGORIES =
+        Collections.unmodifiableSet(new HashSet<String>(Arrays.asList("phenotype")));
 
     /**
      * The scigraph wrapper that will actually interact with the library.
@@ -69,21 +62,16 @@ public class SciGraphAnnotationService implements TermAnnotationService
     private SciGraphWrapper wrapper;
 
     @Override
-    public List<TermAnnotation> annotate(String text) throws AnnotationException
+    protected List<RawAnnotation> extract(String text) throws AnnotationException
     {
         List<EntityAnnotation> entities = sciGraphAnnotate(text);
-        List<TermAnnotation> annotations = new LinkedList<>();
+        List<RawAnnotation> hits = new ArrayList<>(entities.size());
         for (EntityAnnotation ea : entities) {
             Entity entity = ea.getToken();
             String termId = entity.getId().replace("hpo:", "");
-            VocabularyTerm term = this.vocabularies.resolveTerm(termId);
-            if (term != null) {
-                long start = ea.getStart();
-                long end = ea.getEnd();
-                annotations.add(new TermAnnotation(start, end, term));
-            }
+            hits.add(new RawAnnotation(termId, ea.getStart(), ea.getEnd()));
         }
-        return annotations;
+        return hits;
     }
 
     /**
@@ -93,17 +81,29 @@ private List<EntityAnnotation> sciGraphAnnotate(String text) throws AnnotationEx
     {
         List<EntityAnnotation> entities;
         try {
-            StringReader reader = new StringReader(text);
-            EntityFormatConfiguration.Builder builder = new EntityFormatConfiguration.Builder(reader);
-            builder.includeCategories(CATEGORIES);
-            builder.longestOnly(false);
-            builder.includeAbbreviations(false);
-            builder.includeAncronyms(false);
-            builder.includeNumbers(false);
-            entities = wrapper.annotate(builder.get());
+            entities = wrapper.annotate(getFormatConfiguration(text), text.length());
         } catch (IOException e) {
             throw new AnnotationException(e.getMessage());
         }
         return entities;
     }
+
+    /**
+     * Get the scigraph configuration used to annotate the given text, so that the warm-up and the benchmarks go
+     * through the same code path as real requests.
+     *
+     * @param text the text to annotate
+     * @return the configuration to pass to the wrapper
+     */
+    public static EntityFormatConfiguration getFormatConfiguration(String text)
+    {
+        StringReader reader = new StringReader(text);
+        EntityFormatConfiguration.Builder builder = new EntityFormatConfiguration.Builder(reader);
+        builder.includeCategories(CATEGORIES);
+        builder.longestOnly(false);
+        builder.includeAbbreviations(false);
+        builder.includeAncronyms(false);
+        builder.includeNumbers(false);
+        return builder.get();
+    }
 }
@@ -0,0 +1,92 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/* This is the same parser used by Scigraph itself, which is why we're
+ * using it here.
+ */
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+import edu.sdsc.scigraph.annotation.EntityModule;
+import edu.sdsc.scigraph.annotation.EntityProcessor;
+import edu.sdsc.scigraph.neo4j.Neo4jConfiguration;
+import edu.sdsc.scigraph.neo4j.Neo4jModule;
+
+/**
+ * Opens a SciGraph graph and creates entity processors over it. All the processors share the graph, its indexes and
+ * their caches, which are read-only while annotating, so several of them can annotate in parallel.
+ *
+ * @version $Id$
+ */
+public class SciGraphProcessorFactory
+{
+    /** The configuration file for scigraph, in the scigraph root directory. */
+    public static final String CONFIG_FILE = "annotations.yaml";
+
+    private final Injector injector;
+
+    /**
+     * Opens the graph described by the configuration found in the given directory.
+     *
+     * @param root the directory holding the scigraph configuration; relative graph locations are resolved against it
+     * @throws IOException if the configuration can't be read
+     */
+    public SciGraphProcessorFactory(File root) throws IOException
+    {
+        /* Scigraph uses Google Guice for dependency injection, so we'll have to set up a guice injector to start up. */
+        this.injector = Guice.createInjector(new Neo4jModule(getConfig(root)), new EntityModule());
+    }
+
+    /**
+     * Creates entity processors. If SciGraph binds its processor as a singleton, fewer processors than requested are
+     * returned, since the same instance would be shared anyway.
+     *
+     * @param count how many processors to create
+     * @return distinct processors, at least one
+     */
+    public List<EntityProcessor> create(int count)
+    {
+        Map<EntityProcessor, Boolean> processors = new IdentityHashMap<>();
+        for (int i = 0; i < Math.max(1, count); ++i) {
+            processors.put(this.injector.getInstance(EntityProcessor.class), Boolean.TRUE);
+        }
+        return new ArrayList<>(processors.keySet());
+    }
+
+    /**
+     * Get the configuration for the Neo4j database that scigraph uses.
+     */
+    private static Neo4jConfiguration getConfig(File root) throws IOException
+    {
+        ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
+        Neo4jConfiguration config = mapper.readValue(new File(root, CONFIG_FILE), Neo4jConfiguration.class);
+        /* Gotta qualify the location with the scigraph root. */
+        config.setLocation(new File(root, config.getLocation()).getAbsolutePath());
+        return config;
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+
+import edu.sdsc.scigraph.annotation.EntityProcessor;
+
+/**
+ * Warms up SciGraph right after its graph was opened, by running a corpus of representative clinical phrases through
+ * the entity processor a few times. This fills the Neo4j and Lucene caches and lets the JIT compile the annotation
+ * path, so that the first real users don't wait for it. Progress is reported through {@link EngineReadiness}.
+ *
+ * @version $Id$
+ */
+public class SciGraphWarmup
+{
+    /** The classpath resource holding the bundled warm-up corpus. */
+    public static final String BUNDLED_CORPUS = "/textanalysis/scigraph-warmup.txt";
+
+    /** The hint of the engine warmed up. */
+    private static final String ENGINE = "scigraph";
+
+    /** The phase reported while warming up. */
+    private static final String PHASE = "warmup";
+
+    /** Lines of the corpus starting with this are ignored. */
+    private static final String COMMENT = "#";
+
+    private final TermAnnotationConfiguration configuration;
+
+    private final EngineReadiness readiness;
+
+    private final Logger logger;
+
+    /**
+     * @param configuration tells how many rounds to run, and which corpus to use
+     * @param readiness where progress is reported
+     * @param logger where failures are logged
+     */
+    public SciGraphWarmup(TermAnnotationConfiguration configuration, EngineReadiness readiness, Logger logger)
+    {
+        this.configuration = configuration;
+        this.readiness = readiness;
+        this.logger = logger;
+    }
+
+    /**
+     * Runs the corpus through the entity processor, reporting the progress after each phrase. Stops early if the
+     * current thread is interrupted, or if a phrase fails, since real requests would then fail the same way.
+     *
+     * @param processor the freshly created entity processor
+     */
+    public void run(EntityProcessor processor)
+    {
+        int rounds = this.configuration.getWarmupRounds(ENGINE);
+        if (rounds < 1) {
+            return;
+        }
+        List<String> corpus;
+        try {
+            corpus = readCorpus();
+        } catch (IOException e) {
+            this.logger.warn("Failed to read the SciGraph warm-up corpus: {}", e.getMessage());
+            return;
+        }
+        int total = rounds * corpus.size();
+        int done = 0;
+        long start = System.currentTimeMillis();
+        this.readiness.progress(ENGINE, PHASE, 0, total);
+        try {
+            for (int round = 0; round < rounds; round++) {
+                for (String phrase : corpus) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    processor.annotateEntities(SciGraphAnnotationService.getFormatConfiguration(phrase));
+                    this.readiness.progress(ENGINE, PHASE, ++done, total);
+                }
+            }
+            this.logger.info("SciGraph warmed up with {} phrases in {} ms", total,
+                System.currentTimeMillis() - start);
+        } catch (IOException e) {
+            this.logger.warn("Failed to warm up SciGraph after {} phrases: {}", done, e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the configured warm-up corpus, or the bundled one if none is configured.
+     *
+     * @return the non-empty lines of the corpus, except comments
+     * @throws IOException if reading the corpus fails
+     */
+    private List<String> readCorpus() throws IOException
+    {
+        String path = this.configuration.getWarmupCorpus(ENGINE);
+        InputStream stream = StringUtils.isBlank(path) ? SciGraphWarmup.class.getResourceAsStream(BUNDLED_CORPUS)
+            : new FileInputStream(path);
+        if (stream == null) {
+            throw new IOException("Missing " + BUNDLED_CORPUS);
+        }
+        List<String> result = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith(COMMENT)) {
+                    result.add(line);
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -17,6 +17,8 @@
  */
 package org.phenotips.textanalysis.internal;
 
+import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+
 import org.xwiki.component.annotation.Role;
 
 import java.io.IOException;
@@ -37,8 +39,11 @@
     /**
      * Annotates text as per the EntityFormatConfiguration given.
      * @param config the entity format configuration to follow
+     * @param textLength the length of the text behind the configuration's reader, reported to Flight Recorder
      * @return List of annotations
      * @throws IOException if SciGraph throws
+     * @throws AnnotationException if SciGraph isn't initialized yet, failed to initialize, or is disabled
      */
-    List<EntityAnnotation> annotate(EntityFormatConfiguration config) throws IOException;
+    List<EntityAnnotation> annotate(EntityFormatConfiguration config, int textLength)
+        throws IOException, AnnotationException;
 }
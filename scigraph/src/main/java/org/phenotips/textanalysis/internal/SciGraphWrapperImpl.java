@@ -17,7 +17,11 @@
  */
 package org.phenotips.textanalysis.internal;
 
+import org.phenotips.textanalysis.TermAnnotationService.AnnotationException;
+
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
 import org.xwiki.component.phase.Initializable;
 import org.xwiki.component.phase.InitializationException;
 import org.xwiki.environment.Environment;
@@ -28,29 +32,20 @@
 
 import javax.inject.Inject;
 
-/* This is the same parser used by Scigraph itself, which is why we're
- * using it here.
- */
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
-
-import com.google.inject.Guice;
-import com.google.inject.Injector;
+import org.slf4j.Logger;
 
 import edu.sdsc.scigraph.annotation.EntityAnnotation;
 import edu.sdsc.scigraph.annotation.EntityFormatConfiguration;
-import edu.sdsc.scigraph.annotation.EntityModule;
 import edu.sdsc.scigraph.annotation.EntityProcessor;
-import edu.sdsc.scigraph.neo4j.Neo4jConfiguration;
-import edu.sdsc.scigraph.neo4j.Neo4jModule;
 
 /**
- * Wrapper component for the SciGraph annotation service.
+ * Wrapper component for the SciGraph annotation service. The graph is opened and warmed up in the background, so that
+ * looking up this component doesn't wait for it.
  *
  * @version $Id$
  */
 @Component
-public class SciGraphWrapperImpl implements SciGraphWrapper, Initializable
+public class SciGraphWrapperImpl implements SciGraphWrapper, Initializable, Disposable
 {
 
     /**
@@ -61,12 +56,17 @@ public class SciGraphWrapperImpl implements SciGraphWrapper, Initializable
     /**
      * The configuration file for scigraph.
      */
-    public static final String CONFIG_FILE = "annotations.yaml";
+    public static final String CONFIG_FILE = SciGraphProcessorFactory.CONFIG_FILE;
+
+    /**
+     * The engine name reported in Flight Recorder events.
+     */
+    private static final String ENGINE = "scigraph";
 
     /**
-     * The entity processor to use for annotations.
+     * Initializes the entity processors to use for annotations.
      */
-    private EntityProcessor processor;
+    private EngineInitializer<EnginePool<EntityProcessor>> processors;
 
     /**
      * The environment in use.
@@ -74,35 +74,112 @@ public class SciGraphWrapperImpl implements SciGraphWrapper, Initializable
     @Inject
     private Environment environment;
 
+    /**
+     * The configuration, telling when to initialize and how to warm up.
+     */
+    @Inject
+    private TermAnnotationConfiguration configuration;
+
+    /**
+     * Where initialization and warm-up progress are reported.
+     */
+    @Inject
+    private EngineReadiness readiness;
+
+    /**
+     * Where the time spent waiting for a processor is recorded.
+     */
+    @Inject
+    private AnnotationMetrics metrics;
+
+    /**
+     * The logger to use.
+     */
+    @Inject
+    private Logger logger;
+
     @Override
     public void initialize() throws InitializationException {
-        /* Scigraph uses Google Guice for dependency injection, so we'll have to
-         * set up a guice injector to start up. */
-        try {
-            Neo4jConfiguration config = getConfig();
-            Injector injector = Guice.createInjector(new Neo4jModule(config), new EntityModule());
-            processor = injector.getInstance(EntityProcessor.class);
-        } catch (IOException e) {
-            throw new InitializationException(e.getMessage(), e);
-        }
+        this.processors = new EngineInitializer<EnginePool<EntityProcessor>>(ENGINE, this.readiness, this.logger) {
+            @Override
+            protected EnginePool<EntityProcessor> create() throws InitializationException {
+                return createPool();
+            }
+
+            @Override
+            protected void warmup(EnginePool<EntityProcessor> created) {
+                /* The caches warmed up are those of the graph, which all the processors share. Requests are
+                 * already served meanwhile, so check a processor out like they do, to never share it with one. */
+                EntityProcessor processor;
+                try {
+                    processor = created.acquire();
+                } catch (AnnotationException e) {
+                    logger.warn("Skipped warming up the scigraph engine: {}", e.getMessage());
+                    return;
+                }
+                try {
+                    new SciGraphWarmup(configuration, readiness, logger).run(processor);
+                } finally {
+                    created.release(processor);
+                }
+            }
+        };
+        this.processors.schedule(this.configuration.getEngineInitialization(ENGINE));
     }
 
     @Override
-    public List<EntityAnnotation> annotate(EntityFormatConfiguration config) throws IOException {
-        return processor.annotateEntities(config);
+    public void dispose() throws ComponentLifecycleException {
+        this.processors.stop();
+    }
+
+    @Override
+    public List<EntityAnnotation> annotate(EntityFormatConfiguration config, int textLength)
+        throws IOException, AnnotationException {
+        EnginePool<EntityProcessor> pool =
+            this.processors.get(this.configuration.getEngineInitializationTimeout(ENGINE));
+        EntityProcessor processor = pool.acquire();
+        List<EntityAnnotation> result;
+        EngineCallEvent event = FlightRecorderSupport.isEnabled() ? new EngineCallEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        try {
+            result = processor.annotateEntities(config);
+        } finally {
+            pool.release(processor);
+        }
+        if (event != null) {
+            event.end();
+            if (event.shouldCommit()) {
+                event.engine = ENGINE;
+                event.textLength = textLength;
+                event.hits = result.size();
+                event.commit();
+            }
+        }
+        return result;
     }
 
     /**
-     * Get the configuration for the Neo4j database that scigraph uses.
-     * @return Neo4jConfiguration the configuration
+     * Open the graph and create the entity processors, either a single one shared by all the calls, or a pool of
+     * processors each used by one call at a time.
+     * @return EnginePool the processors
+     * @throws InitializationException if the graph can't be opened
      */
-    private Neo4jConfiguration getConfig() throws IOException {
+    private EnginePool<EntityProcessor> createPool() throws InitializationException {
         File sciGraphRoot = new File(environment.getPermanentDirectory(), ROOT_DIRECTORY);
-        ObjectMapper mapper = new ObjectMapper(new YAMLFactory());
-        String configFile = new File(sciGraphRoot, CONFIG_FILE).getAbsolutePath();
-        Neo4jConfiguration config = mapper.readValue(configFile, Neo4jConfiguration.class);
-        /* Gotta qualify the location with the scigraph root. */
-        config.setLocation(new File(sciGraphRoot, config.getLocation()).getAbsolutePath());
-        return config;
+        boolean shared = configuration.getEngineInstances(ENGINE) == 0;
+        int size = shared ? 1 : EnginePool.getPoolSize(configuration, ENGINE);
+        List<EntityProcessor> created;
+        try {
+            created = new SciGraphProcessorFactory(sciGraphRoot).create(size);
+        } catch (IOException e) {
+            throw new InitializationException(e.getMessage(), e);
+        }
+        if (created.size() < size) {
+            logger.warn("SciGraph shares a single entity processor, so calls will run one at a time");
+        }
+        return new EnginePool<EntityProcessor>(ENGINE, created, shared,
+            configuration.getEngineQueueTimeout(ENGINE), metrics);
     }
 }
@@ -125,7 +125,8 @@ public void testSingleAnnotation() throws AnnotationException, ComponentLookupEx
 
         /* Mock SciGraph wrapper */
         SciGraphWrapper wrapper = this.mocker.getInstance(SciGraphWrapper.class);
-        when(wrapper.annotate(argThat(new EntityFormatConfigurationMatcher(text)))).thenReturn(result);
+        when(wrapper.annotate(argThat(new EntityFormatConfigurationMatcher(text)), eq(text.length())))
+            .thenReturn(result);
 
         // Mock Ontology Manager
         VocabularyManager vocabularyManager = this.mocker.getInstance(VocabularyManager.class);
@@ -173,7 +174,8 @@ public void testOverlappingAnnotations() throws AnnotationException, ComponentLo
 
         /* Mock SciGraph wrapper */
         SciGraphWrapper wrapper = this.mocker.getInstance(SciGraphWrapper.class);
-        when(wrapper.annotate(argThat(new EntityFormatConfigurationMatcher(text)))).thenReturn(result);
+        when(wrapper.annotate(argThat(new EntityFormatConfigurationMatcher(text)), eq(text.length())))
+            .thenReturn(result);
 
         /* Mock Ontology wrapper */
         VocabularyManager vocabularyManager = this.mocker.getInstance(VocabularyManager.class);
@@ -207,7 +209,8 @@ public void testAnnotateEmpty() throws AnnotationException, ComponentLookupExcep
         List<EntityAnnotation> result = new LinkedList<EntityAnnotation>();
 
         SciGraphWrapper wrapper = this.mocker.getInstance(SciGraphWrapper.class);
-        when(wrapper.annotate(argThat(new EntityFormatConfigurationMatcher(text)))).thenReturn(result);
+        when(wrapper.annotate(argThat(new EntityFormatConfigurationMatcher(text)), eq(text.length())))
+            .thenReturn(result);
 
         List<TermAnnotation> expected = new LinkedList<TermAnnotation>();
         assertEquals(expected, client.annotate(text));
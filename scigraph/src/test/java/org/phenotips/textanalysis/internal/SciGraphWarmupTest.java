@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see http://www.gnu.org/licenses/
+ */
+package org.phenotips.textanalysis.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+
+import edu.sdsc.scigraph.annotation.EntityFormatConfiguration;
+import edu.sdsc.scigraph.annotation.EntityProcessor;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link SciGraphWarmup}.
+ *
+ * @version $Id$
+ */
+public class SciGraphWarmupTest
+{
+    private static final String ENGINE = "scigraph";
+
+    private static final String PHASE = "warmup";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private TermAnnotationConfiguration configuration;
+
+    private EngineReadiness readiness;
+
+    private EntityProcessor processor;
+
+    private SciGraphWarmup warmup;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        this.configuration = mock(TermAnnotationConfiguration.class);
+        this.readiness = mock(EngineReadiness.class);
+        this.processor = mock(EntityProcessor.class);
+        this.warmup = new SciGraphWarmup(this.configuration, this.readiness, mock(Logger.class));
+
+        File corpus = this.folder.newFile("corpus.txt");
+        Files.write(corpus.toPath(), Arrays.asList("# comment", "Short stature.", "", "Cleft palate."),
+            StandardCharsets.UTF_8);
+        when(this.configuration.getWarmupCorpus(ENGINE)).thenReturn(corpus.getAbsolutePath());
+        when(this.configuration.getWarmupRounds(ENGINE)).thenReturn(2);
+    }
+
+    @Test
+    public void corpusIsAnnotatedForEachRound() throws IOException
+    {
+        this.warmup.run(this.processor);
+
+        verify(this.processor, times(4)).annotateEntities(any(EntityFormatConfiguration.class));
+        verify(this.readiness).progress(ENGINE, PHASE, 0, 4);
+        verify(this.readiness).progress(ENGINE, PHASE, 4, 4);
+    }
+
+    @Test
+    public void failedPhraseStopsTheWarmup() throws IOException
+    {
+        when(this.processor.annotateEntities(any(EntityFormatConfiguration.class))).thenThrow(new IOException("closed"));
+
+        this.warmup.run(this.processor);
+
+        verify(this.processor, times(1)).annotateEntities(any(EntityFormatConfiguration.class));
+        verify(this.readiness, never()).progress(ENGINE, PHASE, 1, 4);
+    }
+
+    @Test
+    public void bundledCorpusIsUsedByDefault() throws IOException
+    {
+        when(this.configuration.getWarmupCorpus(ENGINE)).thenReturn("");
+        when(this.configuration.getWarmupRounds(ENGINE)).thenReturn(1);
+
+        this.warmup.run(this.processor);
+
+        verify(this.processor, times(40)).annotateEntities(any(EntityFormatConfiguration.class));
+    }
+
+    @Test
+    public void warmupCanBeDisabled() throws IOException
+    {
+        when(this.configuration.getWarmupRounds(ENGINE)).thenReturn(0);
+
+        this.warmup.run(this.processor);
+
+        verify(this.processor, never()).annotateEntities(any(EntityFormatConfiguration.class));
+        verify(this.readiness, never()).progress(anyString(), anyString(), anyInt(), anyInt());
+    }
+}